@@ -1,9 +1,19 @@
 package nosql.workshop;
 
+import com.google.inject.Guice;
+import com.google.inject.Injector;
 import net.codestory.http.WebServer;
 import net.codestory.http.injection.GuiceAdapter;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.resources.MetricsFilter;
+import nosql.workshop.resources.MetricsResource;
+import nosql.workshop.resources.MongoResource;
 import nosql.workshop.resources.TownRessource;
 import nosql.workshop.resources.InstallationResource;
+import nosql.workshop.services.IndexBootstrap;
+import nosql.workshop.services.InstallationService;
+import nosql.workshop.services.MongoDB;
+import nosql.workshop.services.TownService;
 
 /**
  * Point d'entrée de l'application. Permet de démarrer le serveur web afin d'exposer l'API et les pages HTML.
@@ -11,14 +21,54 @@ import nosql.workshop.resources.InstallationResource;
 public class Application {
 
     public static void main(String[] args) {
+        Injector injector = Guice.createInjector(new ApplicationModule());
+
+        // Les index sont vérifiés avant d'accepter des requêtes ;
+        // en lecture seule, les installations sont lues dans l'instantané et MongoDB n'est pas sollicité
+        InstallationService installationService = injector.getInstance(InstallationService.class);
+        IndexBootstrap indexBootstrap = injector.getInstance(IndexBootstrap.class);
+        if (!installationService.isReadOnly()) {
+            indexBootstrap.run();
+        }
+        // Le batch recrée les index supprimés avec la collection ; vérifiés de nouveau à chaque import, par sécurité
+        installationService.onImport(indexBootstrap::runAfterImport);
+        // Chargement des villes servies en mémoire
+        injector.getInstance(TownService.class);
+
+        WebServer webServer = configure(injector);
+        webServer.start();
+
+        // Arrêt propre : plus de requêtes entrantes, puis fermeture du pool de connexions MongoDB
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            webServer.stop();
+            injector.getInstance(MongoDB.class).close();
+        }, "shutdown"));
+    }
+
+    /**
+     * Prépare le serveur web exposant l'API, les services étant fournis par <code>injector</code>.
+     * Les tests de charge l'utilisent avec des bases de remplacement en mémoire.
+     *
+     * @return le serveur, à démarrer par l'appelant.
+     */
+    public static WebServer configure(Injector injector) {
+        // Durée des requêtes par route, publiée par /api/metrics
+        MetricsFilter metricsFilter = new MetricsFilter(injector.getInstance(Metrics.class))
+                .register("/api/installations", InstallationResource.class)
+                .register("/api/towns", TownRessource.class)
+                .register("/api/mongo", MongoResource.class)
+                .register("/api/metrics", MetricsResource.class);
+
         WebServer webServer = new WebServer();
         webServer.configure(routes -> {
-                    routes.setIocAdapter(new GuiceAdapter(new ApplicationModule()));
+                    routes.setIocAdapter(new GuiceAdapter(injector));
+                    routes.filter(metricsFilter);
                     routes.add("/api/installations", InstallationResource.class);
                     routes.add("/api/towns", TownRessource.class);
+                    routes.add("/api/mongo", MongoResource.class);
+                    routes.add("/api/metrics", MetricsResource.class);
                 }
         );
-        webServer.start();
+        return webServer;
     }
-
 }
@@ -1,24 +1,69 @@
 package nosql.workshop;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
 import com.google.inject.name.Names;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.services.IndexBootstrap;
 import nosql.workshop.services.InstallationService;
 import nosql.workshop.services.MongoDB;
 import nosql.workshop.services.SearchService;
+import nosql.workshop.services.StatsService;
+import nosql.workshop.services.TownService;
+
+import static nosql.workshop.services.InstallationService.*;
+import static nosql.workshop.services.MongoDB.*;
 import static nosql.workshop.services.SearchService.*;
 
 
 /**
  * Module Guice permettant de définir les classes pouvant être injectées.
+ * <p>
+ * Les paramètres de connexion MongoDB peuvent être surchargés par les propriétés système de même nom
+ * (par exemple <code>-Dmongo.connectionsPerHost=50</code>), de même que <code>index.bootstrap</code>,
+ * <code>stats.refreshInterval</code>, <code>mongo.cursorBatchSize</code>, <code>installations.maxResults</code>,
+ * <code>geo.index</code> (index spatial en mémoire pour les recherches géographiques),
+ * <code>snapshot.file</code> (instantané des installations écrit par le batch, servant les lectures
+ * en lecture seule sans MongoDB ; vide par défaut),
+ * les réglages du cache <code>cache.installations.*</code>
+ * ceux des recherches <code>search.timeout</code> (ms), <code>search.maxInFlight</code>
+ * et <code>search.type</code>, et <code>metrics.slowThreshold</code> (ms, durée à partir de laquelle
+ * une requête ou une opération est signalée, 0 pour aucune).
  */
 public class ApplicationModule extends AbstractModule {
 
     @Override
     protected void configure() {
-        bind(MongoDB.class);
-        bind(InstallationService.class);
-        bind(SearchService.class);
+        bind(MongoDB.class).in(Singleton.class);
+        bind(InstallationService.class).in(Singleton.class);
+        bind(SearchService.class).in(Singleton.class);
+        bind(StatsService.class).in(Singleton.class);
+        bind(TownService.class).in(Singleton.class);
+        bind(Metrics.class).in(Singleton.class);
+        bindConstant().annotatedWith(Names.named(Metrics.SLOW_THRESHOLD)).to(Long.getLong(Metrics.SLOW_THRESHOLD, 500));
         bindConstant().annotatedWith(Names.named(ES_HOST)).to("172.17.3.218");
         bindConstant().annotatedWith(Names.named(ES_TRANSPORT_PORT)).to(9300);
+        bindConstant().annotatedWith(Names.named(SEARCH_TIMEOUT)).to(Long.getLong(SEARCH_TIMEOUT, 5000));
+        bindConstant().annotatedWith(Names.named(SEARCH_MAX_IN_FLIGHT)).to(Integer.getInteger(SEARCH_MAX_IN_FLIGHT, 100));
+        bindConstant().annotatedWith(Names.named(SEARCH_TYPE)).to(System.getProperty(SEARCH_TYPE, "query_then_fetch"));
+
+        bindConstant().annotatedWith(Names.named(MONGO_HOST)).to(System.getProperty(MONGO_HOST, "localhost"));
+        bindConstant().annotatedWith(Names.named(MONGO_PORT)).to(Integer.getInteger(MONGO_PORT, 27017));
+        bindConstant().annotatedWith(Names.named(MONGO_CONNECTIONS_PER_HOST)).to(Integer.getInteger(MONGO_CONNECTIONS_PER_HOST, 100));
+        bindConstant().annotatedWith(Names.named(MONGO_MAX_WAIT_TIME)).to(Integer.getInteger(MONGO_MAX_WAIT_TIME, 2000));
+        bindConstant().annotatedWith(Names.named(MONGO_CONNECT_TIMEOUT)).to(Integer.getInteger(MONGO_CONNECT_TIMEOUT, 5000));
+        bindConstant().annotatedWith(Names.named(MONGO_SOCKET_TIMEOUT)).to(Integer.getInteger(MONGO_SOCKET_TIMEOUT, 10000));
+        bindConstant().annotatedWith(Names.named(MONGO_READ_PREFERENCE)).to(System.getProperty(MONGO_READ_PREFERENCE, "primary"));
+
+        bindConstant().annotatedWith(Names.named(IndexBootstrap.INDEX_BOOTSTRAP_MODE)).to(System.getProperty(IndexBootstrap.INDEX_BOOTSTRAP_MODE, "create"));
+        bindConstant().annotatedWith(Names.named(CACHE_MAX_ENTRIES)).to(Integer.getInteger(CACHE_MAX_ENTRIES, 1000));
+        bindConstant().annotatedWith(Names.named(CACHE_MAX_WEIGHT)).to(Long.getLong(CACHE_MAX_WEIGHT, 0));
+        bindConstant().annotatedWith(Names.named(CACHE_TTL)).to(Long.getLong(CACHE_TTL, 300));
+        bindConstant().annotatedWith(Names.named(CURSOR_BATCH_SIZE)).to(Integer.getInteger(CURSOR_BATCH_SIZE, 100));
+        bindConstant().annotatedWith(Names.named(MAX_RESULTS)).to(Integer.getInteger(MAX_RESULTS, 10000));
+        bindConstant().annotatedWith(Names.named(SNAPSHOT_FILE)).to(System.getProperty(SNAPSHOT_FILE, ""));
+        bindConstant().annotatedWith(Names.named(GEO_INDEX)).to(Boolean.parseBoolean(System.getProperty(GEO_INDEX, "true")));
+        bindConstant().annotatedWith(Names.named(CACHE_STORE_JSON)).to(Boolean.parseBoolean(System.getProperty(CACHE_STORE_JSON, "true")));
+        bindConstant().annotatedWith(Names.named(StatsService.STATS_REFRESH_INTERVAL)).to(Long.getLong(StatsService.STATS_REFRESH_INTERVAL, 300));
     }
 }
@@ -0,0 +1,103 @@
+package nosql.workshop.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de latences à précision relative constante, enregistrable sans verrou depuis plusieurs threads.
+ * <p>
+ * Les durées sont comptées en microsecondes dans des intervalles log-linéaires, comme HdrHistogram :
+ * exacts jusqu'à {@value #LINEAR_LIMIT} µs, puis {@value #SUB_BUCKETS} intervalles par puissance de deux
+ * (précision d'environ 3 %). L'enregistrement est un incrément atomique dans un tableau de taille fixe ;
+ * les percentiles sont calculés à la lecture et donnent la borne haute de l'intervalle.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    /**
+     * Plus grande durée distinguée, environ 38 heures ; au-delà, les durées sont comptées dans le dernier intervalle.
+     */
+    private static final long MAX_VALUE = (1L << 37) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos durée en nanosecondes.
+     */
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_VALUE);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return la somme des durées, en microsecondes.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return la plus grande durée, en microsecondes.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param quantiles quantiles demandés, croissants, entre 0 et 1 (par exemple 0.5, 0.99).
+     * @return la durée en microsecondes sous laquelle se trouve chaque quantile des mesures, 0 sans mesure.
+     */
+    public long[] getQuantiles(double... quantiles) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long[] values = new long[quantiles.length];
+        if (total == 0) {
+            return values;
+        }
+        long highest = getMax();
+        int bucket = 0;
+        long cumulated = snapshot[0];
+        for (int q = 0; q < quantiles.length; q++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            while (cumulated < rank && bucket < snapshot.length - 1) {
+                cumulated += snapshot[++bucket];
+            }
+            values[q] = Math.min(upperBound(bucket), highest);
+        }
+        return values;
+    }
+
+    /**
+     * Les valeurs inférieures à {@link #LINEAR_LIMIT} ont chacune leur intervalle ; au-delà, une valeur est rangée
+     * selon ses {@value #SUB_BUCKET_BITS} + 1 bits de poids fort.
+     */
+    private static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long upperBound(int index) {
+        int shift = Math.max(0, index / SUB_BUCKETS - 1);
+        long mantissa = index - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,156 @@
+package nosql.workshop.metrics;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import nosql.workshop.model.stats.MetricsReport;
+import nosql.workshop.model.stats.TimerStats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Mesures de l'application : durées des requêtes par route et des appels aux bases par opération.
+ * <p>
+ * Les routes sont mesurées par le filtre HTTP, les opérations par les services eux-mêmes
+ * (par exemple <code>mongo.get</code>, <code>es.search</code>) ; le préfixe désigne ce qui répond réellement,
+ * une recherche servie par un index en mémoire étant mesurée sous <code>index.*</code> et une lecture de l'instantané
+ * des installations sous <code>snapshot.*</code>. Un appel plus long que
+ * <code>metrics.slowThreshold</code> millisecondes est signalé dans la console (0 pour ne rien signaler).
+ */
+@Singleton
+public class Metrics {
+
+    public static final String SLOW_THRESHOLD = "metrics.slowThreshold";
+
+    /**
+     * Quantiles publiés pour chaque route et chaque opération.
+     */
+    public static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final ConcurrentMap<String, Timer> routes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> operations = new ConcurrentHashMap<>();
+    private final long slowThreshold;
+
+    /**
+     * @param slowThreshold durée en millisecondes à partir de laquelle un appel est signalé, 0 pour aucun.
+     */
+    @Inject
+    public Metrics(@Named(SLOW_THRESHOLD) long slowThreshold) {
+        this.slowThreshold = slowThreshold <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+    }
+
+    /**
+     * Mesure un appel synchrone ; une exception est comptée comme une erreur puis propagée.
+     *
+     * @param operation nom de l'opération, par exemple <code>mongo.get</code>.
+     */
+    public <T> T time(String operation, Supplier<T> call) {
+        Timer timer = operations.computeIfAbsent(operation, Timer::new);
+        long start = timer.start();
+        boolean error = true;
+        try {
+            T result = call.get();
+            error = false;
+            return result;
+        } finally {
+            stop("operation", timer, start, error);
+        }
+    }
+
+    /**
+     * Mesure un appel asynchrone jusqu'à la fin du futur, qui est retourné tel quel.
+     *
+     * @param operation nom de l'opération, par exemple <code>es.search</code>.
+     */
+    public <T> CompletableFuture<T> timeAsync(String operation, Supplier<CompletableFuture<T>> call) {
+        Timer timer = operations.computeIfAbsent(operation, Timer::new);
+        long start = timer.start();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            stop("operation", timer, start, true);
+            throw e;
+        }
+        future.whenComplete((result, error) -> stop("operation", timer, start, error != null));
+        return future;
+    }
+
+    /**
+     * Début d'une requête sur une route, à terminer par {@link #stopRoute(String, long, boolean)}.
+     *
+     * @param route méthode HTTP et modèle de chemin, par exemple <code>GET /api/installations/:numero</code>.
+     */
+    public long startRoute(String route) {
+        return routes.computeIfAbsent(route, Timer::new).start();
+    }
+
+    public void stopRoute(String route, long start, boolean error) {
+        stop("request", routes.get(route), start, error);
+    }
+
+    public Collection<Timer> getRoutes() {
+        return sorted(routes.values());
+    }
+
+    public Collection<Timer> getOperations() {
+        return sorted(operations.values());
+    }
+
+    /**
+     * @return les mesures de toutes les routes et opérations appelées depuis le démarrage, triées par nom.
+     */
+    public MetricsReport report() {
+        MetricsReport report = new MetricsReport();
+        report.setRoutes(stats(getRoutes()));
+        report.setOperations(stats(getOperations()));
+        return report;
+    }
+
+    private static List<TimerStats> stats(Collection<Timer> timers) {
+        List<TimerStats> list = new ArrayList<>(timers.size());
+        for (Timer timer : timers) {
+            LatencyHistogram histogram = timer.getHistogram();
+            long[] quantiles = histogram.getQuantiles(QUANTILES);
+            long count = histogram.getCount();
+            TimerStats stats = new TimerStats();
+            stats.setName(timer.getName());
+            stats.setCount(count);
+            stats.setErrors(timer.getErrors());
+            stats.setInFlight(timer.getInFlight());
+            stats.setMean(count == 0 ? 0 : millis(histogram.getSum()) / count);
+            stats.setMax(millis(histogram.getMax()));
+            stats.setP50(millis(quantiles[0]));
+            stats.setP90(millis(quantiles[1]));
+            stats.setP99(millis(quantiles[2]));
+            stats.setP999(millis(quantiles[3]));
+            list.add(stats);
+        }
+        return list;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private void stop(String kind, Timer timer, long start, boolean error) {
+        long elapsed = timer.stop(start, error);
+        if (elapsed >= slowThreshold) {
+            System.out.println("Slow " + kind + " " + timer.getName() + " : " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                    + " ms" + (error ? " (failed)" : ""));
+        }
+    }
+
+    private static List<Timer> sorted(Collection<Timer> timers) {
+        List<Timer> list = new ArrayList<>(timers);
+        list.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return list;
+    }
+}
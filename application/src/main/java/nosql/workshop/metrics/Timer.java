@@ -0,0 +1,57 @@
+package nosql.workshop.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mesures d'une route ou d'une opération : histogramme des durées, nombre d'appels en erreur
+ * et nombre d'appels en cours.
+ */
+public final class Timer {
+
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Timer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return l'instant de début, à passer à {@link #stop(long, boolean)}.
+     */
+    long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * @return la durée de l'appel, en nanosecondes.
+     */
+    long stop(long start, boolean error) {
+        long elapsed = System.nanoTime() - start;
+        inFlight.decrementAndGet();
+        histogram.record(elapsed);
+        if (error) {
+            errors.increment();
+        }
+        return elapsed;
+    }
+}
@@ -145,7 +145,7 @@ public class Installation {
 
     }
 
-    public class Location {
+    public static class Location {
 
         private String type;
         private double[] coordinates;
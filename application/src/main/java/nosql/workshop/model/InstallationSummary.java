@@ -0,0 +1,51 @@
+package nosql.workshop.model;
+
+import org.jongo.marshall.jackson.oid.Id;
+
+/**
+ * Résumé d'une installation pour l'affichage sur une carte : numéro, nom, localisation
+ * et, pour une recherche autour d'un point, la distance à ce point.
+ */
+public class InstallationSummary {
+
+    @Id
+    private String numero;
+    private String nom;
+    private Installation.Location location;
+    private Double distance;
+
+    public String getNumero() {
+        return numero;
+    }
+
+    public void setNumero(String numero) {
+        this.numero = numero;
+    }
+
+    public String getNom() {
+        return nom;
+    }
+
+    public void setNom(String nom) {
+        this.nom = nom;
+    }
+
+    public Installation.Location getLocation() {
+        return location;
+    }
+
+    public void setLocation(Installation.Location location) {
+        this.location = location;
+    }
+
+    /**
+     * @return la distance au point de recherche en mètres, ou <code>null</code> pour une recherche par zone.
+     */
+    public Double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(Double distance) {
+        this.distance = distance;
+    }
+}
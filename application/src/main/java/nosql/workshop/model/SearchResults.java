@@ -0,0 +1,49 @@
+package nosql.workshop.model;
+
+import java.util.List;
+
+/**
+ * Une page de résultats de recherche d'installations.
+ */
+public class SearchResults {
+
+    private List<Installation> installations;
+    private long total;
+    private String scrollId;
+
+    public SearchResults(List<Installation> installations, long total, String scrollId) {
+        this.installations = installations;
+        this.total = total;
+        this.scrollId = scrollId;
+    }
+
+    public List<Installation> getInstallations() {
+        return installations;
+    }
+
+    public void setInstallations(List<Installation> installations) {
+        this.installations = installations;
+    }
+
+    /**
+     * @return le nombre total d'installations correspondant à la recherche.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return l'identifiant permettant de lire la page suivante, ou <code>null</code> hors mode scroll.
+     */
+    public String getScrollId() {
+        return scrollId;
+    }
+
+    public void setScrollId(String scrollId) {
+        this.scrollId = scrollId;
+    }
+}
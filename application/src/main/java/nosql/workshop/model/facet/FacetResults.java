@@ -0,0 +1,35 @@
+package nosql.workshop.model.facet;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Décompte des installations correspondant à une sélection de facettes, valeur par valeur pour chaque facette.
+ */
+public class FacetResults {
+
+    private long total;
+    private Map<String, List<FacetCount>> facets;
+
+    /**
+     * @return le nombre d'installations correspondant à la sélection.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return par facette, les valeurs présentes dans la sélection, de la plus fréquente à la moins fréquente.
+     */
+    public Map<String, List<FacetCount>> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Map<String, List<FacetCount>> facets) {
+        this.facets = facets;
+    }
+}
@@ -0,0 +1,62 @@
+package nosql.workshop.model.stats;
+
+/**
+ * Etat d'un pool de connexions MongoDB.
+ */
+public class ConnectionPoolStats {
+
+    private String host;
+    private int port;
+    private int size;
+    private int maxSize;
+    private int checkedOutCount;
+    private int waitQueueSize;
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getCheckedOutCount() {
+        return checkedOutCount;
+    }
+
+    public void setCheckedOutCount(int checkedOutCount) {
+        this.checkedOutCount = checkedOutCount;
+    }
+
+    public int getWaitQueueSize() {
+        return waitQueueSize;
+    }
+
+    public void setWaitQueueSize(int waitQueueSize) {
+        this.waitQueueSize = waitQueueSize;
+    }
+}
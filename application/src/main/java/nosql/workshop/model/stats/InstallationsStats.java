@@ -2,6 +2,7 @@ package nosql.workshop.model.stats;
 
 import nosql.workshop.model.Installation;
 
+import java.util.Date;
 import java.util.List;
 
 public class InstallationsStats {
@@ -10,6 +11,7 @@ public class InstallationsStats {
     private List<CountByActivity> countByActivity;
     private Installation installationWithMaxEquipments;
     private double averageEquipmentsPerInstallation;
+    private Date computedAt;
 
     public long getTotalCount() {
         return totalCount;
@@ -42,4 +44,12 @@ public class InstallationsStats {
     public void setAverageEquipmentsPerInstallation(double averageEquipmentsPerInstallation) {
         this.averageEquipmentsPerInstallation = averageEquipmentsPerInstallation;
     }
+
+    public Date getComputedAt() {
+        return computedAt;
+    }
+
+    public void setComputedAt(Date computedAt) {
+        this.computedAt = computedAt;
+    }
 }
@@ -0,0 +1,28 @@
+package nosql.workshop.model.stats;
+
+import java.util.List;
+
+/**
+ * Mesures des routes HTTP et des opérations sur les bases, depuis le démarrage.
+ */
+public class MetricsReport {
+
+    private List<TimerStats> routes;
+    private List<TimerStats> operations;
+
+    public List<TimerStats> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<TimerStats> routes) {
+        this.routes = routes;
+    }
+
+    public List<TimerStats> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<TimerStats> operations) {
+        this.operations = operations;
+    }
+}
@@ -1,6 +1,8 @@
 package nosql.workshop.model.suggest;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Created by Chris on 13/02/15.
@@ -32,4 +34,21 @@ public class TownSuggest {
     public void setLocation(Double[] location) {
         this.location = location;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TownSuggest that = (TownSuggest) o;
+        return Objects.equals(townName, that.townName) && Arrays.equals(location, that.location);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(townName) + Arrays.hashCode(location);
+    }
 }
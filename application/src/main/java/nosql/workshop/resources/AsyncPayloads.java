@@ -0,0 +1,47 @@
+package nosql.workshop.resources;
+
+import net.codestory.http.payload.Payload;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Réponses asynchrones : le serveur web écrit la réponse quand le futur retourné par la resource se termine,
+ * sans bloquer de thread en attendant.
+ */
+final class AsyncPayloads {
+
+    private AsyncPayloads() {
+    }
+
+    /**
+     * Transforme le résultat d'un futur en réponse. Un refus pour surcharge donne un statut 503,
+     * un dépassement de délai un statut 504, et toute autre erreur un statut 500.
+     */
+    static <T> CompletableFuture<Payload> payload(CompletableFuture<T> future) {
+        return payload(future, Payload::new);
+    }
+
+    /**
+     * Comme {@link #payload(CompletableFuture)}, la réponse étant construite à partir du résultat par <code>toPayload</code>.
+     */
+    static <T> CompletableFuture<Payload> payload(CompletableFuture<T> future, Function<T, Payload> toPayload) {
+        return future.handle((result, error) -> {
+            if (error == null) {
+                return toPayload.apply(result);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof RejectedExecutionException) {
+                return new Payload(503);
+            }
+            if (cause instanceof TimeoutException) {
+                return new Payload(504);
+            }
+            cause.printStackTrace();
+            return new Payload(500);
+        });
+    }
+}
@@ -3,18 +3,39 @@ package nosql.workshop.resources;
 import com.google.inject.Inject;
 import net.codestory.http.Context;
 import net.codestory.http.Query;
-import net.codestory.http.Response;
 import net.codestory.http.annotations.Get;
+import net.codestory.http.annotations.Post;
+import net.codestory.http.errors.BadRequestException;
+import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
 import nosql.workshop.model.Installation;
+import nosql.workshop.model.InstallationSummary;
+import nosql.workshop.model.SearchResults;
+import nosql.workshop.model.facet.FacetResults;
+import nosql.workshop.model.stats.CacheStats;
 import nosql.workshop.model.stats.InstallationsStats;
 import nosql.workshop.services.InstallationService;
+import nosql.workshop.services.RawSearchResults;
+import nosql.workshop.services.SearchProfile;
 import nosql.workshop.services.SearchService;
+import nosql.workshop.services.StatsService;
+import org.elasticsearch.common.unit.TimeValue;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static net.codestory.http.errors.NotFoundException.notFoundIfNull;
+import static nosql.workshop.resources.AsyncPayloads.payload;
+import static nosql.workshop.resources.InstallationStreams.isStreaming;
+import static nosql.workshop.resources.InstallationStreams.stream;
 
 /**
  * Resource permettant de gérer l'accès à l'API pour les Installations.
@@ -25,29 +46,84 @@ public class InstallationResource {
     public static final int DEFAULT_PAGE_SIZE = 10;
     public static final int MAX_PAGE_SIZE = 50;
 
+    /**
+     * Valeur du paramètre <code>mode</code> demandant la pagination par clé.
+     */
+    public static final String KEYSET_MODE = "keyset";
+
+    /**
+     * Nombre de valeurs retournées par facette, par défaut.
+     */
+    private static final int DEFAULT_FACET_LIMIT = 20;
+
+    /**
+     * Durée de conservation du contexte de défilement entre deux pages de recherche.
+     */
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
     private final InstallationService installationService;
     private final SearchService searchService;
+    private final StatsService statsService;
+    private final ResponseCache responseCache;
 
     @Inject
-    public InstallationResource(InstallationService installationService, SearchService searchService) {
+    public InstallationResource(InstallationService installationService, SearchService searchService,
+                                StatsService statsService, ResponseCache responseCache) {
         this.installationService = installationService;
         this.searchService = searchService;
+        this.statsService = statsService;
+        this.responseCache = responseCache;
     }
 
+    /**
+     * Liste les installations.
+     * <p>
+     * Par défaut, la pagination se fait par décalage (<code>page</code>, 1 si absent) et les headers
+     * <code>Link</code> portent les pages précédente et suivante. Avec <code>mode=keyset</code> ou un paramètre
+     * <code>cursor</code>, elle se fait par clé : le header <code>Link rel="next"</code> porte un jeton
+     * <code>cursor</code> opaque à renvoyer tel quel pour obtenir la page suivante, et aucun comptage n'est effectué.
+     * Avec <code>stream=json</code> ou <code>stream=ndjson</code>, toutes les installations sont écrites
+     * au fil de la lecture, sans pagination.
+     * <p>
+     * Hors flux, les pages sont étiquetées par la version du jeu de données (voir {@link ResponseCache}).
+     */
     @Get("/")
-    public List<Installation> list(Context context) {
-        // Nombre total d'installations
-        long count = installationService.count();
+    public Payload list(Context context) {
+        if (isStreaming(context)) {
+            return stream(context, installationService.streamAll());
+        }
+        String key = "list" + new TreeMap<>(context.query().keyValues());
+        return responseCache.json(context, key, responseCache.etag(0), () -> listPage(context));
+    }
 
-        // Gestion des query params
+    private Payload listPage(Context context) {
         Query query = context.query();
-        int pageQuery = query.getInteger("page");
         int pageSizeQuery = query.getInteger("pageSize");
-        int page = (pageQuery > 0) ? pageQuery : DEFAULT_PAGE;
         int pageSize = (pageSizeQuery > 0 && pageSizeQuery <= MAX_PAGE_SIZE) ? pageSizeQuery : DEFAULT_PAGE_SIZE;
 
+        String cursorQuery = query.get("cursor");
+        if (cursorQuery == null && !KEYSET_MODE.equals(query.get("mode"))) {
+            int pageQuery = query.getInteger("page");
+            return listByPage(context, pageQuery > 0 ? pageQuery : DEFAULT_PAGE, pageSize);
+        }
+
+        // Une installation de plus que demandé indique s'il existe une page suivante
+        List<Installation> installations = installationService.listAfter(decodeCursor(cursorQuery), pageSize + 1);
+        if (installations.size() > pageSize) {
+            installations = installations.subList(0, pageSize);
+            String cursor = encodeCursor(installations.get(pageSize - 1).getNumero());
+            return new Payload(installations).withHeader("Link",
+                    "<" + context.request().uri() + "?cursor=" + cursor + "&pageSize=" + pageSize + ">; rel=\"next\"");
+        }
+        return new Payload(installations);
+    }
+
+    private Payload listByPage(Context context, int page, int pageSize) {
+        // Nombre total d'installations
+        long count = installationService.count();
+
         // Gestion des headers de la réponse
-        Response response = context.response();
+        Payload payload = new Payload(this.installationService.list(page, pageSize));
         List<String> links = new ArrayList<>();
         if (page > 1) {
             links.add("<" + context.request().uri() + "?page=" + (page - 1) + "&pageSize=" + pageSize + ">; rel=\"prev\"");
@@ -56,46 +132,226 @@ public class InstallationResource {
             links.add("<" + context.request().uri() + "?page=" + (page + 1) + "&pageSize=" + pageSize + ">; rel=\"next\"");
         }
         if (!links.isEmpty()) {
-            response.setHeader("Link", links.stream().collect(Collectors.joining(", ")));
+            payload = payload.withHeader("Link", links.stream().collect(Collectors.joining(", ")));
         }
+        return payload;
+    }
 
-        return this.installationService.list(page, pageSize);
+    private static String encodeCursor(String numero) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(numero.getBytes(StandardCharsets.UTF_8));
     }
 
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException();
+        }
+    }
+
+    /**
+     * Installation de numéro donné, étiquetée par la version du jeu de données (voir {@link ResponseCache}).
+     */
     @Get("/:numero")
-    public Installation get(String numero) {
-        return notFoundIfNull(this.installationService.get(numero));
+    public Payload get(String numero, Context context) {
+        return responseCache.json(context, "installation " + numero, responseCache.etag(0),
+                () -> new Payload("application/json;charset=UTF-8", notFoundIfNull(this.installationService.getAsJson(numero))));
+    }
+
+    @Get("/cache/stats")
+    public CacheStats cacheStats() {
+        return installationService.cacheStats();
     }
 
 
     @Get("/random")
     public Installation random() {
-        return installationService.random();
+        return notFoundIfNull(installationService.random());
     }
 
+    /**
+     * Recherche full-text. Paramètres optionnels : <code>from</code> et <code>size</code> pour la pagination,
+     * <code>scroll=true</code> pour parcourir tous les résultats via <code>/search/scroll</code>,
+     * <code>fields=all</code> pour les documents complets et <code>explain=true</code> pour le débogage des scores.
+     * Le nombre total de résultats est retourné dans le header <code>X-Total-Count</code>.
+     * <p>
+     * Le <code>_source</code> de chaque résultat est recopié tel quel dans la réponse ; <code>raw=false</code>
+     * le convertit en {@link Installation} avant de le resérialiser.
+     */
     @Get("/search")
-    public List<Installation> search(Context context) {
-        String searchQuery = context.query().get("query");
+    public CompletableFuture<Payload> search(Context context) {
+        Query query = context.query();
+        String searchQuery = query.get("query");
+        SearchProfile profile = searchService.newProfile()
+                .explain(query.getBoolean("explain"))
+                .from(query.getInteger("from"))
+                .size(query.getInteger("size"));
+        if ("all".equals(query.get("fields"))) {
+            profile.includes((String[]) null);
+        }
+        if (query.getBoolean("scroll")) {
+            profile.scroll(SCROLL_KEEP_ALIVE);
+        }
         //return installationService.search(searchQuery);
-        return searchService.search(searchQuery);
+        if (isRaw(query)) {
+            return payload(searchService.searchRaw(searchQuery, profile), InstallationResource::toPayload);
+        }
+        return payload(searchService.search(searchQuery, profile), InstallationResource::toPayload);
     }
 
+    /**
+     * Page suivante d'une recherche lancée avec <code>scroll=true</code>, l'identifiant étant celui du header
+     * <code>X-Scroll-Id</code> de la page précédente.
+     */
+    @Get("/search/scroll")
+    public CompletableFuture<Payload> scroll(Context context) {
+        String scrollId = context.query().get("id");
+        if (scrollId == null || scrollId.isEmpty()) {
+            throw new BadRequestException();
+        }
+        if (isRaw(context.query())) {
+            return payload(searchService.scrollRaw(scrollId, SCROLL_KEEP_ALIVE), InstallationResource::toPayload);
+        }
+        return payload(searchService.scroll(scrollId, SCROLL_KEEP_ALIVE), InstallationResource::toPayload);
+    }
+
+    private static boolean isRaw(Query query) {
+        return !"false".equals(query.get("raw"));
+    }
+
+    private static Payload toPayload(SearchResults results) {
+        Payload payload = new Payload(results.getInstallations())
+                .withHeader("X-Total-Count", String.valueOf(results.getTotal()));
+        return results.getScrollId() == null ? payload : payload.withHeader("X-Scroll-Id", results.getScrollId());
+    }
+
+    private static Payload toPayload(RawSearchResults results) {
+        Payload payload = new Payload("application/json;charset=UTF-8", (StreamingOutput) results::writeTo)
+                .withHeader("X-Total-Count", String.valueOf(results.getTotal()));
+        return results.getScrollId() == null ? payload : payload.withHeader("X-Scroll-Id", results.getScrollId());
+    }
+
+    /**
+     * Installations proches d'un point, de la plus proche à la plus éloignée, au plus <code>limit</code>.
+     * Avec <code>fields=summary</code>, seuls le numéro, le nom, la localisation et la distance au point sont retournés.
+     * Avec <code>stream=json</code> ou <code>stream=ndjson</code>, les installations complètes sont écrites
+     * au fil de la lecture.
+     */
     @Get("/geosearch")
-    public List<Installation> geosearch(Context context) {
+    public Object geosearch(Context context) {
         Query query = context.query();
         double lat = query.getDouble("lat");
         double lng = query.getDouble("lng");
         double distance = query.getDouble("distance");
-        return installationService.geosearch(lat, lng, distance);
+        int limit = query.getInteger("limit");
+        if (isSummary(query)) {
+            return installationService.geoNear(lat, lng, distance, limit);
+        }
+        if (isStreaming(context)) {
+            return stream(context, installationService.streamGeosearch(lat, lng, distance, limit));
+        }
+        return installationService.geosearch(lat, lng, distance, limit);
+    }
+
+    /**
+     * Installations situées dans un rectangle (zone affichée d'une carte), au plus <code>limit</code>.
+     * Avec <code>fields=summary</code>, seuls le numéro, le nom et la localisation sont retournés, depuis l'index
+     * spatial en mémoire s'il est chargé ; <code>stream=json</code> ou <code>stream=ndjson</code> force alors
+     * la lecture dans MongoDB.
+     */
+    @Get("/geosearch/box")
+    public Payload withinBox(Context context) {
+        Query query = context.query();
+        double minLat = query.getDouble("minLat");
+        double minLng = query.getDouble("minLng");
+        double maxLat = query.getDouble("maxLat");
+        double maxLng = query.getDouble("maxLng");
+        int limit = query.getInteger("limit");
+        if (minLat >= maxLat || minLng >= maxLng) {
+            throw new BadRequestException();
+        }
+        if (isSummary(query) && !isStreaming(context)) {
+            return new Payload(installationService.summariesWithinBox(minLat, minLng, maxLat, maxLng, limit));
+        }
+        Class<?> type = isSummary(query) ? InstallationSummary.class : Installation.class;
+        return stream(context, installationService.withinBox(minLat, minLng, maxLat, maxLng, limit, type));
     }
 
+    private static boolean isSummary(Query query) {
+        return "summary".equals(query.get("fields"));
+    }
+
+    /**
+     * Décompte des installations par facette. Les paramètres <code>activite</code>, <code>type</code>,
+     * <code>famille</code> et <code>commune</code>, répétables, restreignent la sélection : une installation doit
+     * avoir une des valeurs demandées pour chaque facette. <code>facets</code> liste, séparées par des virgules,
+     * les facettes comptées (toutes par défaut) et <code>limit</code> le nombre de valeurs par facette
+     * ({@value #DEFAULT_FACET_LIMIT} par défaut).
+     */
+    @Get("/facets")
+    public FacetResults facets(Context context) {
+        Query query = context.query();
+        List<String> facets = installationService.facetNames();
+        String requested = query.get("facets");
+        if (requested != null && !requested.isEmpty()) {
+            facets = Arrays.asList(requested.split(","));
+            if (!installationService.facetNames().containsAll(facets)) {
+                throw new BadRequestException();
+            }
+        }
+        int limit = query.getInteger("limit");
+        return installationService.facets(facetFilters(query), facets, limit > 0 ? limit : DEFAULT_FACET_LIMIT);
+    }
+
+    /**
+     * Installations correspondant à une sélection de facettes, par ordre de numéro, par exemple
+     * <code>?activite=Tennis&amp;commune=Nantes</code>. Paramètres de sélection identiques à <code>/facets</code>,
+     * <code>from</code> et <code>limit</code> pour la pagination. Le nombre total d'installations sélectionnées
+     * est retourné dans le header <code>X-Total-Count</code>.
+     */
+    @Get("/facets/installations")
+    public Payload findByFacets(Context context) {
+        Query query = context.query();
+        int limit = query.getInteger("limit");
+        int pageSize = (limit > 0 && limit <= MAX_PAGE_SIZE) ? limit : DEFAULT_PAGE_SIZE;
+        return toPayload(installationService.findByFacets(facetFilters(query), query.getInteger("from"), pageSize));
+    }
+
+    private Map<String, List<String>> facetFilters(Query query) {
+        Map<String, List<String>> filters = new LinkedHashMap<>();
+        for (String facet : installationService.facetNames()) {
+            List<String> values = new ArrayList<>();
+            for (String value : query.all(facet)) {
+                if (value != null && !value.isEmpty()) {
+                    values.add(value);
+                }
+            }
+            if (!values.isEmpty()) {
+                filters.put(facet, values);
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Statistiques, étiquetées par la version du jeu de données et leur date de calcul (voir {@link ResponseCache}).
+     */
     @Get("/stats")
-    public InstallationsStats stats() {
-        InstallationsStats stats = new InstallationsStats();
-        stats.setTotalCount(installationService.count());
-        stats.setCountByActivity(installationService.countByActivity());
-        stats.setInstallationWithMaxEquipments(installationService.installationWithMaxEquipments());
-        stats.setAverageEquipmentsPerInstallation(installationService.averageEquipmentsPerInstallation());
-        return stats;
+    public Payload stats(Context context) {
+        InstallationsStats stats = statsService.get();
+        return responseCache.json(context, "stats", responseCache.etag(stats.getComputedAt().getTime()),
+                () -> new Payload(stats));
+    }
+
+    /**
+     * Recalcule les statistiques, au plus une fois par intervalle minimal ; les demandes simultanées partagent
+     * le même calcul (voir {@link StatsService#refresh()}).
+     */
+    @Post("/stats/refresh")
+    public InstallationsStats refreshStats() {
+        return statsService.refresh();
     }
 }
@@ -0,0 +1,72 @@
+package nosql.workshop.resources;
+
+import net.codestory.http.Context;
+import net.codestory.http.convert.TypeConvert;
+import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
+import org.jongo.MongoCursor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Réponses écrites au fil de la lecture d'un curseur MongoDB : un document à la fois est en mémoire,
+ * quelle que soit la taille du résultat.
+ * <p>
+ * Le format est choisi par le paramètre <code>stream</code> : <code>json</code> pour un tableau JSON,
+ * <code>ndjson</code> pour un document JSON par ligne.
+ */
+final class InstallationStreams {
+
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] SEPARATOR = {','};
+    private static final byte[] ARRAY_END = {']'};
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private InstallationStreams() {
+    }
+
+    /**
+     * @return <code>true</code> si la requête demande une réponse en flux.
+     */
+    static boolean isStreaming(Context context) {
+        String format = context.query().get("stream");
+        return "json".equals(format) || "ndjson".equals(format);
+    }
+
+    /**
+     * Construit la réponse, qui ferme le curseur une fois écrite. Sans paramètre <code>stream</code>,
+     * le format est un tableau JSON.
+     */
+    static Payload stream(Context context, MongoCursor<?> cursor) {
+        boolean ndjson = "ndjson".equals(context.query().get("stream"));
+        StreamingOutput output = out -> {
+            try {
+                write(cursor, out, ndjson);
+            } finally {
+                cursor.close();
+            }
+        };
+        return new Payload(ndjson ? "application/x-ndjson;charset=UTF-8" : "application/json;charset=UTF-8", output);
+    }
+
+    private static void write(MongoCursor<?> cursor, OutputStream out, boolean ndjson) throws IOException {
+        if (!ndjson) {
+            out.write(ARRAY_START);
+        }
+        boolean first = true;
+        while (cursor.hasNext()) {
+            if (!ndjson && !first) {
+                out.write(SEPARATOR);
+            }
+            out.write(TypeConvert.toByteArray(cursor.next()));
+            if (ndjson) {
+                out.write(NEW_LINE);
+            }
+            first = false;
+        }
+        if (!ndjson) {
+            out.write(ARRAY_END);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package nosql.workshop.resources;
+
+import net.codestory.http.Context;
+import net.codestory.http.annotations.Delete;
+import net.codestory.http.annotations.Get;
+import net.codestory.http.annotations.Post;
+import net.codestory.http.annotations.Put;
+import net.codestory.http.errors.HttpException;
+import net.codestory.http.filters.Filter;
+import net.codestory.http.filters.PayloadSupplier;
+import net.codestory.http.payload.Payload;
+import nosql.workshop.metrics.Metrics;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Mesure la durée des requêtes de l'API, par route.
+ * <p>
+ * Une requête est rattachée au modèle de chemin de la resource qui la traite, par exemple
+ * <code>GET /api/installations/:numero</code>, pour que les mesures ne dépendent pas des paramètres.
+ * Les modèles sont lus sur les annotations des resources déclarées par {@link #register(String, Class)} ;
+ * une requête sans modèle correspondant est comptée sous le chemin <code>/api/unmatched</code>.
+ * Une réponse asynchrone est mesurée jusqu'à la fin de son futur ; une réponse écrite au fil de l'eau,
+ * jusqu'à la création du flux. Une exception ou un statut 5xx compte comme une erreur.
+ */
+public class MetricsFilter implements Filter {
+
+    private static final String API_PREFIX = "/api/";
+    private static final String UNMATCHED = "/api/unmatched";
+    private static final Pattern EDGE_SLASHES = Pattern.compile("^/+|/+$");
+    private static final Pattern SLASHES = Pattern.compile("/+");
+
+    private final Metrics metrics;
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+
+    public MetricsFilter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Déclare les routes d'une resource, telle qu'elle est ajoutée au serveur web.
+     *
+     * @param prefix   préfixe des routes, par exemple <code>/api/installations</code>.
+     * @param resource la classe de la resource.
+     */
+    public MetricsFilter register(String prefix, Class<?> resource) {
+        for (Method method : resource.getMethods()) {
+            if (method.isAnnotationPresent(Get.class)) {
+                routes.add(new Route("GET", prefix, method.getAnnotation(Get.class).value()));
+            }
+            if (method.isAnnotationPresent(Post.class)) {
+                routes.add(new Route("POST", prefix, method.getAnnotation(Post.class).value()));
+            }
+            if (method.isAnnotationPresent(Put.class)) {
+                routes.add(new Route("PUT", prefix, method.getAnnotation(Put.class).value()));
+            }
+            if (method.isAnnotationPresent(Delete.class)) {
+                routes.add(new Route("DELETE", prefix, method.getAnnotation(Delete.class).value()));
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public boolean matches(String uri, Context context) {
+        return uri.startsWith(API_PREFIX);
+    }
+
+    @Override
+    public Payload apply(String uri, Context context, PayloadSupplier nextFilter) throws Exception {
+        String route = route(context.method(), uri);
+        long start = metrics.startRoute(route);
+        Payload payload;
+        try {
+            payload = nextFilter.get();
+        } catch (Exception e) {
+            metrics.stopRoute(route, start, !(e instanceof HttpException) || ((HttpException) e).code() >= 500);
+            throw e;
+        }
+        Object content = payload.rawContent();
+        if (content instanceof CompletableFuture) {
+            ((CompletableFuture<?>) content).whenComplete((result, error) -> metrics.stopRoute(route, start,
+                    error != null || (result instanceof Payload && ((Payload) result).code() >= 500)));
+        } else {
+            metrics.stopRoute(route, start, payload.code() >= 500);
+        }
+        return payload;
+    }
+
+    /**
+     * @return le modèle de chemin correspondant à la requête ; si plusieurs correspondent, celui ayant le plus
+     * de segments fixes (<code>/search</code> plutôt que <code>/:numero</code>).
+     */
+    private String route(String method, String uri) {
+        String[] segments = split(uri);
+        Route best = null;
+        for (Route route : routes) {
+            if (route.matches(method, segments) && (best == null || route.literals > best.literals)) {
+                best = route;
+            }
+        }
+        return method + " " + (best == null ? UNMATCHED : best.path);
+    }
+
+    private static String[] split(String path) {
+        String trimmed = EDGE_SLASHES.matcher(path).replaceAll("");
+        return trimmed.isEmpty() ? new String[0] : SLASHES.split(trimmed);
+    }
+
+    private static final class Route {
+
+        private final String method;
+        private final String path;
+        private final String[] segments;
+        private final int literals;
+
+        Route(String method, String prefix, String template) {
+            this.method = method;
+            String path = prefix + (template.startsWith("/") || template.isEmpty() ? "" : "/") + template;
+            this.path = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+            this.segments = split(this.path);
+            int count = 0;
+            for (String segment : segments) {
+                if (!segment.startsWith(":")) {
+                    count++;
+                }
+            }
+            this.literals = count;
+        }
+
+        boolean matches(String requestMethod, String[] requestSegments) {
+            if (!method.equals(requestMethod) || segments.length != requestSegments.length) {
+                return false;
+            }
+            for (int i = 0; i < segments.length; i++) {
+                if (!segments[i].startsWith(":") && !segments[i].equals(requestSegments[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package nosql.workshop.resources;
+
+import com.google.inject.Inject;
+import net.codestory.http.Context;
+import net.codestory.http.annotations.Get;
+import net.codestory.http.payload.Payload;
+import nosql.workshop.metrics.LatencyHistogram;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.metrics.Timer;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * API REST exposant les mesures des routes et des opérations sur les bases.
+ * <p>
+ * Le format est JSON, ou le format texte de Prometheus avec <code>format=prometheus</code>
+ * ou un header <code>Accept: text/plain</code>.
+ */
+public class MetricsResource {
+
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Metrics metrics;
+
+    @Inject
+    public MetricsResource(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Get("/")
+    public Payload metrics(Context context) {
+        String accept = context.header("Accept");
+        if ("prometheus".equals(context.query().get("format")) || (accept != null && accept.contains("text/plain"))) {
+            StringBuilder text = new StringBuilder();
+            write(text, "http_request", "route", metrics.getRoutes());
+            write(text, "backend_operation", "operation", metrics.getOperations());
+            return new Payload(PROMETHEUS_CONTENT_TYPE, text.toString());
+        }
+        return new Payload(metrics.report());
+    }
+
+    /**
+     * Écrit un résumé (quantiles, somme et nombre), un compteur d'erreurs et une jauge des appels en cours
+     * par route ou opération. Les durées sont en secondes, comme le recommande Prometheus.
+     */
+    private static void write(StringBuilder text, String prefix, String label, Collection<Timer> timers) {
+        String duration = prefix + "_duration_seconds";
+        text.append("# TYPE ").append(duration).append(" summary\n");
+        for (Timer timer : timers) {
+            LatencyHistogram histogram = timer.getHistogram();
+            long[] quantiles = histogram.getQuantiles(Metrics.QUANTILES);
+            String name = escape(timer.getName());
+            for (int i = 0; i < quantiles.length; i++) {
+                text.append(duration).append('{').append(label).append("=\"").append(name)
+                        .append("\",quantile=\"").append(Metrics.QUANTILES[i]).append("\"} ")
+                        .append(seconds(quantiles[i])).append('\n');
+            }
+            sample(text, duration + "_sum", label, name, seconds(histogram.getSum()));
+            sample(text, duration + "_count", label, name, Long.toString(histogram.getCount()));
+        }
+        text.append("# TYPE ").append(prefix).append("_errors_total counter\n");
+        for (Timer timer : timers) {
+            sample(text, prefix + "_errors_total", label, escape(timer.getName()), Long.toString(timer.getErrors()));
+        }
+        text.append("# TYPE ").append(prefix).append("_in_flight gauge\n");
+        for (Timer timer : timers) {
+            sample(text, prefix + "_in_flight", label, escape(timer.getName()), Integer.toString(timer.getInFlight()));
+        }
+    }
+
+    private static void sample(StringBuilder text, String metric, String label, String name, String value) {
+        text.append(metric).append('{').append(label).append("=\"").append(name).append("\"} ").append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,29 @@
+package nosql.workshop.resources;
+
+import com.google.inject.Inject;
+import net.codestory.http.annotations.Get;
+import nosql.workshop.model.stats.ConnectionPoolStats;
+import nosql.workshop.services.MongoDB;
+
+import java.util.List;
+
+/**
+ * API REST exposant l'état de la connexion MongoDB.
+ */
+public class MongoResource {
+
+    private final MongoDB mongoDB;
+
+    @Inject
+    public MongoResource(MongoDB mongoDB) {
+        this.mongoDB = mongoDB;
+    }
+
+    /**
+     * Connexions ouvertes, empruntées et threads en attente d'une connexion, par serveur.
+     */
+    @Get("/pool")
+    public List<ConnectionPoolStats> pool() {
+        return mongoDB.getConnectionPoolStats();
+    }
+}
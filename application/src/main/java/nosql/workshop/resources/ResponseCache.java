@@ -0,0 +1,173 @@
+package nosql.workshop.resources;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import net.codestory.http.Context;
+import net.codestory.http.convert.TypeConvert;
+import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
+import nosql.workshop.services.InstallationService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Réponses conditionnelles des données qui ne changent qu'à l'import.
+ * <p>
+ * L'<code>ETag</code> d'une réponse est dérivé de la {@link InstallationService#datasetVersion() version du jeu
+ * de données} : une requête dont l'en-tête <code>If-None-Match</code> le reprend reçoit un <code>304</code> sans
+ * que rien ne soit relu ni sérialisé. Les réponses les plus demandées sont de plus gardées sérialisées et
+ * compressées en gzip, jusqu'à {@value #MAX_ENTRIES} réponses, et renvoyées telles quelles tant que la version
+ * ne change pas. La variante gzip porte un <code>ETag</code> distinct (suffixe <code>-gzip</code>), comme l'exige
+ * une validation forte ; les deux variantes valident la même donnée.
+ */
+@Singleton
+public class ResponseCache {
+
+    static final int MAX_ENTRIES = 256;
+
+    private static final String JSON = "application/json;charset=UTF-8";
+    private static final String GZIP_SUFFIX = "-gzip";
+
+    private static final class CachedResponse {
+
+        private final String etag;
+        private final Map<String, String> headers;
+        private final byte[] json;
+        private final byte[] gzip;
+
+        private CachedResponse(String etag, Map<String, String> headers, byte[] json, byte[] gzip) {
+            this.etag = etag;
+            this.headers = headers;
+            this.json = json;
+            this.gzip = gzip;
+        }
+    }
+
+    private final InstallationService installationService;
+    private final Map<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    @Inject
+    public ResponseCache(InstallationService installationService) {
+        this.installationService = installationService;
+    }
+
+    /**
+     * @param revision distingue des contenus différents pour une même version du jeu de données
+     *                 (par exemple la date de calcul des statistiques), <code>0</code> sinon.
+     * @return l'<code>ETag</code> fort, entre guillemets, de la version courante du jeu de données.
+     */
+    String etag(long revision) {
+        String version = Long.toHexString(installationService.datasetVersion());
+        return "\"" + (revision == 0 ? version : version + "-" + Long.toHexString(revision)) + "\"";
+    }
+
+    /**
+     * @return <code>true</code> si l'en-tête <code>If-None-Match</code> de la requête désigne <code>etag</code>
+     * ou sa variante gzip.
+     */
+    private static boolean notModified(Context context, String etag) {
+        String header = context.request().header("If-None-Match");
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals(gzipEtag(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Réponse <code>304</code> si la requête porte déjà <code>etag</code>, sinon <code>null</code>. L'<code>ETag</code>
+     * renvoyé est celui de la variante qu'aurait reçue la requête.
+     */
+    private static Payload notModifiedPayload(Context context, String etag) {
+        if (!notModified(context, etag)) {
+            return null;
+        }
+        return Payload.notModified().withHeader("ETag", acceptsGzip(context) ? gzipEtag(etag) : etag);
+    }
+
+    /**
+     * Réponse JSON étiquetée par <code>etag</code>, sérialisée et compressée une fois pour toutes à la première
+     * demande, puis servie depuis la mémoire tant que l'<code>ETag</code> ne change pas.
+     *
+     * @param key      identifie la réponse, par exemple son URI et ses paramètres.
+     * @param response la réponse à sérialiser, construite seulement si elle n'est pas en mémoire ; son contenu
+     *                 est un objet à convertir en JSON ou du JSON déjà sérialisé, ses en-têtes sont conservés.
+     */
+    Payload json(Context context, String key, String etag, Supplier<Payload> response) {
+        Payload notModified = notModifiedPayload(context, etag);
+        if (notModified != null) {
+            return notModified;
+        }
+        CachedResponse entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || !entry.etag.equals(etag)) {
+            Payload payload = response.get();
+            Object content = payload.rawContent();
+            byte[] json = content instanceof byte[] ? (byte[]) content : TypeConvert.toByteArray(content);
+            entry = new CachedResponse(etag, payload.headers(), json, gzip(json));
+            synchronized (entries) {
+                entries.put(key, entry);
+            }
+        }
+        return payload(context, entry);
+    }
+
+    /**
+     * Le corps compressé est écrit en flux pour que le serveur ne le compresse pas une seconde fois.
+     */
+    private static Payload payload(Context context, CachedResponse entry) {
+        if (acceptsGzip(context)) {
+            byte[] gzip = entry.gzip;
+            return new Payload(JSON, (StreamingOutput) out -> out.write(gzip))
+                    .withHeaders(entry.headers)
+                    .withHeader("Content-Encoding", "gzip")
+                    .withHeader("Content-Length", String.valueOf(gzip.length))
+                    .withHeader("ETag", gzipEtag(entry.etag))
+                    .withHeader("Vary", "Accept-Encoding");
+        }
+        return new Payload(JSON, entry.json)
+                .withHeaders(entry.headers)
+                .withHeader("ETag", entry.etag)
+                .withHeader("Vary", "Accept-Encoding");
+    }
+
+    private static boolean acceptsGzip(Context context) {
+        String acceptEncoding = context.request().header("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    private static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + "\"";
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -2,30 +2,32 @@ package nosql.workshop.resources;
 
 import com.google.inject.Inject;
 import net.codestory.http.annotations.Get;
-import nosql.workshop.model.suggest.TownSuggest;
-import nosql.workshop.services.SearchService;
+import net.codestory.http.payload.Payload;
+import nosql.workshop.services.TownService;
 
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static nosql.workshop.resources.AsyncPayloads.payload;
 
 /**
  * API REST pour les villes
  * Created by Chris on 12/02/15.
  */
 public class TownRessource {
-    private final SearchService searchService;
+    private final TownService townService;
 
     @Inject
-    public TownRessource(SearchService searchService) {
-        this.searchService = searchService;
+    public TownRessource(TownService townService) {
+        this.townService = townService;
     }
 
     @Get("suggest/:text")
-    public List<TownSuggest> suggest(String text) {
-        return searchService.suggestTownName(text);
+    public CompletableFuture<Payload> suggest(String text) {
+        return payload(townService.suggest(text));
     }
 
     @Get("location/:townName")
-    public Double[] getLocation(String townName){
-        return searchService.getTownLocation(townName);
+    public CompletableFuture<Payload> getLocation(String townName){
+        return payload(townService.getLocation(townName));
     }
 }
@@ -0,0 +1,422 @@
+package nosql.workshop.services;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Ensemble d'entiers positifs compressé, immuable, organisé comme un Roaring bitmap.
+ * <p>
+ * Les entiers sont regroupés par valeur de leurs 16 bits de poids fort ; chaque groupe est rangé dans un conteneur
+ * adapté à sa densité : tableau trié des 16 bits de poids faible jusqu'à {@value #ARRAY_MAX_SIZE} entiers, tableau
+ * de 2<sup>16</sup> bits au-delà. Un ensemble creux occupe ainsi 2 octets par entier, un ensemble dense 1 bit,
+ * et les intersections et unions travaillent conteneur par conteneur sans décompresser.
+ */
+final class CompressedBitmap {
+
+    /**
+     * Taille au-delà de laquelle un tableau trié occupe plus de place qu'un tableau de bits (8 Ko).
+     */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    private static final int WORDS = 1 << 16 >>> 6;
+
+    static final CompressedBitmap EMPTY = new CompressedBitmap(new char[0], new Container[0]);
+
+    private final char[] keys;
+    private final Container[] containers;
+
+    private CompressedBitmap(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    /**
+     * @return le nombre d'entiers de l'ensemble.
+     */
+    int cardinality() {
+        int cardinality = 0;
+        for (Container container : containers) {
+            cardinality += container.cardinality();
+        }
+        return cardinality;
+    }
+
+    boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, (char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * Parcourt les entiers par ordre croissant.
+     */
+    void forEach(IntConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * @return les entiers communs aux deux ensembles.
+     */
+    CompressedBitmap and(CompressedBitmap other) {
+        int size = Math.min(keys.length, other.keys.length);
+        char[] resultKeys = new char[size];
+        Container[] resultContainers = new Container[size];
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    resultKeys[count] = keys[i];
+                    resultContainers[count++] = container;
+                }
+                i++;
+                j++;
+            }
+        }
+        return new CompressedBitmap(Arrays.copyOf(resultKeys, count), Arrays.copyOf(resultContainers, count));
+    }
+
+    /**
+     * @return le nombre d'entiers communs aux deux ensembles, sans construire l'intersection.
+     */
+    int andCardinality(CompressedBitmap other) {
+        int cardinality = 0;
+        int i = 0, j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                cardinality += containers[i].andCardinality(other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return les entiers présents dans au moins un des deux ensembles.
+     */
+    CompressedBitmap or(CompressedBitmap other) {
+        char[] resultKeys = new char[keys.length + other.keys.length];
+        Container[] resultContainers = new Container[resultKeys.length];
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                resultKeys[count] = keys[i];
+                resultContainers[count++] = containers[i++];
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                resultKeys[count] = other.keys[j];
+                resultContainers[count++] = other.containers[j++];
+            } else {
+                resultKeys[count] = keys[i];
+                resultContainers[count++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        return new CompressedBitmap(Arrays.copyOf(resultKeys, count), Arrays.copyOf(resultContainers, count));
+    }
+
+    /**
+     * Construit un ensemble à partir d'entiers ajoutés par ordre croissant, un entier répété étant ignoré.
+     */
+    static final class Builder {
+
+        private char[] keys = new char[4];
+        private Container[] containers = new Container[4];
+        private int size;
+        private char[] values = new char[16];
+        private int valueCount;
+        private int currentKey = -1;
+        private int last = -1;
+
+        Builder add(int value) {
+            if (value == last) {
+                return this;
+            }
+            if (value < last) {
+                throw new IllegalArgumentException(value + " added after " + last);
+            }
+            last = value;
+            int key = value >>> 16;
+            if (key != currentKey) {
+                flush();
+                currentKey = key;
+            }
+            if (valueCount == values.length) {
+                values = Arrays.copyOf(values, valueCount * 2);
+            }
+            values[valueCount++] = (char) value;
+            return this;
+        }
+
+        CompressedBitmap build() {
+            flush();
+            return size == 0 ? EMPTY : new CompressedBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size));
+        }
+
+        private void flush() {
+            if (valueCount == 0) {
+                return;
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            keys[size] = (char) currentKey;
+            containers[size++] = Container.of(Arrays.copyOf(values, valueCount), valueCount);
+            valueCount = 0;
+        }
+    }
+
+    /**
+     * Les 16 bits de poids faible des entiers d'un groupe.
+     */
+    private abstract static class Container {
+
+        static Container of(char[] sorted, int cardinality) {
+            if (cardinality <= ARRAY_MAX_SIZE) {
+                return new ArrayContainer(sorted, cardinality);
+            }
+            long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[sorted[i] >>> 6] |= 1L << sorted[i];
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract void forEach(int high, IntConsumer consumer);
+
+        abstract Container and(Container other);
+
+        abstract int andCardinality(Container other);
+
+        abstract Container or(Container other);
+
+        abstract long[] toWords();
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        private final char[] values;
+        private final int cardinality;
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[Math.min(cardinality, other.cardinality())];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (!(other instanceof ArrayContainer)) {
+                return other.andCardinality(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            int count = 0;
+            int i = 0, j = 0;
+            while (i < cardinality && j < array.cardinality) {
+                if (values[i] < array.values[j]) {
+                    i++;
+                } else if (values[i] > array.values[j]) {
+                    j++;
+                } else {
+                    count++;
+                    i++;
+                    j++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof ArrayContainer)) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] result = new char[cardinality + array.cardinality];
+            int count = 0;
+            int i = 0, j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i++];
+                    j++;
+                }
+            }
+            return Container.of(result, count);
+        }
+
+        @Override
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return words;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        private final long[] words;
+        private final int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    consumer.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[WORDS];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                result[w] = words[w] & otherWords[w];
+                count += Long.bitCount(result[w]);
+            }
+            return compact(result, count);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int count = 0;
+                for (int i = 0; i < array.cardinality; i++) {
+                    if (contains(array.values[i])) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                count += Long.bitCount(words[w] & otherWords[w]);
+            }
+            return count;
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] otherWords = other.toWords();
+            long[] result = new long[WORDS];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                result[w] = words[w] | otherWords[w];
+                count += Long.bitCount(result[w]);
+            }
+            return new BitmapContainer(result, count);
+        }
+
+        @Override
+        long[] toWords() {
+            return words;
+        }
+
+        /**
+         * Repasse en tableau trié un résultat devenu creux.
+         */
+        private static Container compact(long[] words, int cardinality) {
+            if (cardinality > ARRAY_MAX_SIZE) {
+                return new BitmapContainer(words, cardinality);
+            }
+            char[] values = new char[cardinality];
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package nosql.workshop.services;
+
+import nosql.workshop.model.facet.FacetCount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index inversé en mémoire des installations par facette, immuable.
+ * <p>
+ * Chaque installation reçoit un rang (ordre des numéros) et chaque valeur d'une facette l'ensemble, compressé,
+ * des rangs des installations qui la portent. Une sélection est l'intersection, facette par facette, de l'union
+ * des valeurs demandées ; les décomptes par valeur sont des cardinalités d'intersection, calculées sans lire
+ * MongoDB. Les valeurs sont comparées sans tenir compte de la casse.
+ */
+final class FacetIndex {
+
+    static final String ACTIVITE = "activite";
+    static final String TYPE = "type";
+    static final String FAMILLE = "famille";
+    static final String COMMUNE = "commune";
+
+    /**
+     * Les facettes indexées, dans l'ordre où elles sont retournées.
+     */
+    static final List<String> FACETS = Collections.unmodifiableList(Arrays.asList(ACTIVITE, TYPE, FAMILLE, COMMUNE));
+
+    private final String[] ids;
+    private final CompressedBitmap all;
+    private final Map<String, Map<String, CompressedBitmap>> facets;
+
+    private FacetIndex(String[] ids, Map<String, Map<String, CompressedBitmap>> facets) {
+        this.ids = ids;
+        this.facets = facets;
+        CompressedBitmap.Builder all = new CompressedBitmap.Builder();
+        for (int i = 0; i < ids.length; i++) {
+            all.add(i);
+        }
+        this.all = all.build();
+    }
+
+    /**
+     * @return le nombre d'installations indexées.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Sélectionne les installations ayant, pour chaque facette de <code>filters</code>, au moins une des valeurs
+     * demandées.
+     *
+     * @param filters les valeurs demandées par facette ; sans facette, toutes les installations sont sélectionnées.
+     * @throws IllegalArgumentException si une facette n'est pas indexée.
+     */
+    CompressedBitmap select(Map<String, List<String>> filters) {
+        CompressedBitmap selection = all;
+        for (Map.Entry<String, List<String>> filter : filters.entrySet()) {
+            Map<String, CompressedBitmap> values = values(filter.getKey());
+            CompressedBitmap union = CompressedBitmap.EMPTY;
+            for (String value : filter.getValue()) {
+                CompressedBitmap installations = values.get(value);
+                if (installations != null) {
+                    union = union.or(installations);
+                }
+            }
+            selection = selection.and(union);
+        }
+        return selection;
+    }
+
+    /**
+     * Compte, pour chaque valeur d'une facette, les installations de la sélection qui la portent.
+     *
+     * @param limit nombre maximum de valeurs retournées, toutes si <code>0</code>.
+     * @return les valeurs présentes dans la sélection, de la plus fréquente à la moins fréquente.
+     * @throws IllegalArgumentException si la facette n'est pas indexée.
+     */
+    List<FacetCount> counts(String facet, CompressedBitmap selection, int limit) {
+        List<FacetCount> counts = new ArrayList<>();
+        boolean everything = selection == all;
+        for (Map.Entry<String, CompressedBitmap> value : values(facet).entrySet()) {
+            int count = everything ? value.getValue().cardinality() : selection.andCardinality(value.getValue());
+            if (count > 0) {
+                counts.add(new FacetCount(value.getKey(), count));
+            }
+        }
+        // tri stable : à égalité, ordre alphabétique des valeurs
+        counts.sort(Comparator.comparingLong(FacetCount::getCount).reversed());
+        return limit > 0 && counts.size() > limit ? new ArrayList<>(counts.subList(0, limit)) : counts;
+    }
+
+    /**
+     * @return les numéros des installations de la sélection, par ordre de numéro, à partir de la
+     * <code>from</code>-ième et au plus <code>limit</code>.
+     */
+    List<String> ids(CompressedBitmap selection, int from, int limit) {
+        List<String> page = new ArrayList<>(Math.min(limit, selection.cardinality()));
+        int[] position = {0};
+        selection.forEach(ordinal -> {
+            if (position[0]++ >= from && page.size() < limit) {
+                page.add(ids[ordinal]);
+            }
+        });
+        return page;
+    }
+
+    private Map<String, CompressedBitmap> values(String facet) {
+        Map<String, CompressedBitmap> values = facets.get(facet);
+        if (values == null) {
+            throw new IllegalArgumentException("Unknown facet " + facet + ", expected one of " + FACETS);
+        }
+        return values;
+    }
+
+    /**
+     * Construit l'index à partir des installations lues par ordre de numéro.
+     */
+    static final class Builder {
+
+        private String[] ids = new String[1024];
+        private int size;
+        private final Map<String, Map<String, CompressedBitmap.Builder>> facets = new LinkedHashMap<>();
+
+        Builder() {
+            for (String facet : FACETS) {
+                facets.put(facet, new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+            }
+        }
+
+        /**
+         * Ajoute une installation, à laquelle s'appliquent les valeurs ajoutées ensuite.
+         */
+        Builder installation(String id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+            return this;
+        }
+
+        /**
+         * Ajoute une valeur de facette à la dernière installation ; une valeur vide ou déjà ajoutée est ignorée.
+         */
+        Builder value(String facet, Object value) {
+            String text = value == null ? "" : value.toString().trim();
+            if (!text.isEmpty()) {
+                facets.get(facet).computeIfAbsent(text, v -> new CompressedBitmap.Builder()).add(size - 1);
+            }
+            return this;
+        }
+
+        FacetIndex build() {
+            Map<String, Map<String, CompressedBitmap>> built = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, CompressedBitmap.Builder>> facet : facets.entrySet()) {
+                Map<String, CompressedBitmap> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                facet.getValue().forEach((value, builder) -> values.put(value, builder.build()));
+                built.put(facet.getKey(), values);
+            }
+            return new FacetIndex(Arrays.copyOf(ids, size), built);
+        }
+    }
+}
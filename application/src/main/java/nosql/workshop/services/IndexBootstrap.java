@@ -0,0 +1,151 @@
+package nosql.workshop.services;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
+import org.elasticsearch.client.Client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vérifie au démarrage que les index de {@link IndexRegistry} existent. Le batch recrée les index MongoDB
+ * à chaque import avant de le signaler ; ils sont vérifiés de nouveau quand l'application détecte l'import,
+ * par sécurité.
+ * <p>
+ * Le comportement face à un index absent dépend de la propriété <code>index.bootstrap</code> :
+ * <ul>
+ * <li><code>create</code> (défaut) : l'index est créé ;</li>
+ * <li><code>fail</code> : le démarrage est interrompu ;</li>
+ * <li><code>warn</code> : un avertissement est affiché et l'application démarre quand même.</li>
+ * </ul>
+ */
+public class IndexBootstrap {
+
+    public static final String INDEX_BOOTSTRAP_MODE = "index.bootstrap";
+
+    public enum Mode {
+        CREATE, FAIL, WARN
+    }
+
+    private final MongoDB mongoDB;
+    private final Client elasticSearchClient;
+    private final Mode mode;
+
+    @Inject
+    public IndexBootstrap(MongoDB mongoDB, SearchService searchService, @Named(INDEX_BOOTSTRAP_MODE) String mode) {
+        this.mongoDB = mongoDB;
+        this.elasticSearchClient = searchService.elasticSearchClient;
+        this.mode = Mode.valueOf(mode.toUpperCase());
+    }
+
+    /**
+     * Vérifie chaque index requis et applique le mode configuré à ceux qui manquent.
+     *
+     * @throws IllegalStateException en mode <code>fail</code>, si au moins un index manque.
+     */
+    public void run() {
+        List<RequiredIndex> missing = check(IndexRegistry.all());
+        if (!missing.isEmpty() && mode == Mode.FAIL) {
+            throw new IllegalStateException(missing.size() + " required index(es) missing : " + missing);
+        }
+    }
+
+    /**
+     * Vérifie les index MongoDB après un import, que le batch a normalement déjà recréés, et recrée ceux
+     * qui manquent encore en mode <code>create</code>.
+     * L'application étant déjà démarrée, un index manquant est seulement signalé dans les autres modes.
+     */
+    public void runAfterImport() {
+        List<RequiredIndex> mongoIndexes = new ArrayList<>();
+        for (RequiredIndex index : IndexRegistry.all()) {
+            if (index.getBackend() == RequiredIndex.Backend.MONGODB) {
+                mongoIndexes.add(index);
+            }
+        }
+        check(mongoIndexes);
+    }
+
+    /**
+     * @return les index absents et non créés.
+     */
+    private List<RequiredIndex> check(List<RequiredIndex> indexes) {
+        List<RequiredIndex> missing = new ArrayList<>();
+        for (RequiredIndex index : indexes) {
+            if (exists(index)) {
+                System.out.println("Found " + index);
+            } else if (mode == Mode.CREATE) {
+                create(index);
+                System.out.println("Created " + index);
+            } else {
+                missing.add(index);
+                System.out.println("Missing " + index);
+            }
+        }
+        return missing;
+    }
+
+    private boolean exists(RequiredIndex index) {
+        switch (index.getBackend()) {
+            case MONGODB:
+                for (DBObject info : collection(index).getIndexInfo()) {
+                    if (index.getName().equals(info.get("name"))) {
+                        return true;
+                    }
+                }
+                return false;
+            case ELASTICSEARCH:
+                return elasticSearchClient.admin().indices()
+                        .exists(new IndicesExistsRequest(index.getName()))
+                        .actionGet()
+                        .isExists();
+            default:
+                throw new IllegalArgumentException(index.getBackend().name());
+        }
+    }
+
+    private void create(RequiredIndex index) {
+        switch (index.getBackend()) {
+            case MONGODB:
+                collection(index).createIndex(index.getKeys(), index.getOptions());
+                break;
+            case ELASTICSEARCH:
+                elasticSearchClient.admin().indices()
+                        .prepareCreate(index.getName())
+                        .setSource(readResource(index.getSourceResource()))
+                        .execute()
+                        .actionGet();
+                break;
+            default:
+                throw new IllegalArgumentException(index.getBackend().name());
+        }
+    }
+
+    private DBCollection collection(RequiredIndex index) {
+        return mongoDB.getJongo().getDatabase().getCollection(index.getCollection());
+    }
+
+    private static String readResource(String resource) {
+        try (InputStream is = IndexBootstrap.class.getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new IllegalStateException(resource + " not found");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = is.read(chunk)) != -1) {
+                bytes.write(chunk, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
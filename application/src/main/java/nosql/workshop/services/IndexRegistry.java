@@ -0,0 +1,61 @@
+package nosql.workshop.services;
+
+import com.mongodb.BasicDBObject;
+import nosql.workshop.batch.mongodb.InstallationsIndexes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Liste des index dont dépendent les requêtes de l'application.
+ * <p>
+ * Toute requête qui s'appuie sur un index doit le déclarer ici : il est vérifié (et créé si besoin)
+ * au démarrage par {@link IndexBootstrap}, jamais sur le chemin des requêtes. Les index MongoDB sont définis
+ * par le batch ({@link InstallationsIndexes}), qui les recrée à chaque import.
+ */
+public final class IndexRegistry {
+
+    /**
+     * Index texte français sur le nom et la commune.
+     */
+    public static final RequiredIndex INSTALLATIONS_TEXT = RequiredIndex.mongo(
+            InstallationService.COLLECTION_NAME,
+            InstallationsIndexes.TEXT_INDEX,
+            InstallationsIndexes.textKeys(),
+            InstallationsIndexes.textOptions(),
+            "InstallationService.search");
+
+    /**
+     * Index géographique utilisé par <code>$near</code> et <code>$geoWithin</code>.
+     */
+    public static final RequiredIndex INSTALLATIONS_LOCATION = RequiredIndex.mongo(
+            InstallationService.COLLECTION_NAME,
+            InstallationsIndexes.LOCATION_INDEX,
+            InstallationsIndexes.locationKeys(),
+            new BasicDBObject(),
+            "InstallationService.geosearch", "InstallationService.summariesWithinBox");
+
+    public static final RequiredIndex ES_INSTALLATIONS = RequiredIndex.elasticsearch(
+            SearchService.INSTALLATIONS_INDEX,
+            "/elasticsearch/installations.json",
+            "SearchService.search");
+
+    public static final RequiredIndex ES_TOWNS = RequiredIndex.elasticsearch(
+            SearchService.TOWNS_INDEX,
+            "/elasticsearch/towns.json",
+            "SearchService.suggestTownName", "SearchService.getTownLocation");
+
+    private static final List<RequiredIndex> ALL = Collections.unmodifiableList(Arrays.asList(
+            INSTALLATIONS_TEXT, INSTALLATIONS_LOCATION, ES_INSTALLATIONS, ES_TOWNS));
+
+    private IndexRegistry() {
+    }
+
+    /**
+     * @return tous les index requis.
+     */
+    public static List<RequiredIndex> all() {
+        return ALL;
+    }
+}
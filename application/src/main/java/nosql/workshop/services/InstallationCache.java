@@ -0,0 +1,159 @@
+package nosql.workshop.services;
+
+import nosql.workshop.model.Installation;
+import nosql.workshop.model.stats.CacheStats;
+import net.codestory.http.convert.TypeConvert;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache en lecture des installations, par numéro.
+ * <p>
+ * Les entrées expirent après <code>ttl</code> millisecondes et les moins récemment lues sont évincées au-delà de
+ * <code>maxEntries</code> entrées ou de <code>maxWeight</code> octets de JSON (0 : pas de limite de poids).
+ * Avec <code>storeJson</code>, chaque entrée garde aussi l'installation déjà sérialisée, renvoyée telle quelle.
+ * Les installations absentes ne sont pas mises en cache.
+ */
+class InstallationCache {
+
+    /**
+     * Une installation en cache, avec sa forme JSON si elle est conservée.
+     */
+    static final class Entry {
+        final Installation installation;
+        final byte[] json;
+        final int weight;
+        final long expiresAt;
+
+        private Entry(Installation installation, byte[] json, int weight, long expiresAt) {
+            this.installation = installation;
+            this.json = json;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return l'installation sérialisée en JSON, sans nouvelle sérialisation si elle est conservée.
+         */
+        byte[] json() {
+            return json != null ? json : TypeConvert.toByteArray(installation);
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttl;
+    private final boolean storeJson;
+
+    // ordre d'accès : la première entrée est la moins récemment lue
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    // incrémentée par invalidateAll : un chargement commencé avant n'est pas mis en cache
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    InstallationCache(int maxEntries, long maxWeight, long ttl, boolean storeJson) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttl = ttl;
+        this.storeJson = storeJson;
+    }
+
+    /**
+     * Retourne l'entrée en cache, ou la charge avec <code>loader</code> et la met en cache.
+     * Le chargement se fait hors verrou : deux lectures simultanées d'une même installation absente
+     * peuvent donc la charger deux fois. Une installation chargée avant un {@link #invalidateAll()} est
+     * retournée sans être mise en cache.
+     *
+     * @return l'entrée, ou <code>null</code> si <code>loader</code> ne trouve pas l'installation.
+     */
+    Entry get(String numero, Function<String, Installation> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(numero);
+            if (entry != null) {
+                if (entry.expiresAt > System.currentTimeMillis()) {
+                    hits++;
+                    return entry;
+                }
+                remove(numero);
+                expirations++;
+            }
+            misses++;
+            loadGeneration = generation;
+        }
+
+        Installation installation = loader.apply(numero);
+        if (installation == null) {
+            return null;
+        }
+        Entry entry = newEntry(installation);
+        synchronized (this) {
+            if (loadGeneration != generation) {
+                return entry;
+            }
+            Entry previous = entries.put(numero, entry);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += entry.weight;
+            evict();
+        }
+        return entry;
+    }
+
+    /**
+     * Vide le cache, par exemple après un rechargement de la collection.
+     */
+    synchronized void invalidateAll() {
+        entries.clear();
+        weight = 0;
+        generation++;
+        invalidations++;
+    }
+
+    synchronized CacheStats stats() {
+        CacheStats stats = new CacheStats();
+        stats.setHits(hits);
+        stats.setMisses(misses);
+        stats.setEvictions(evictions);
+        stats.setExpirations(expirations);
+        stats.setInvalidations(invalidations);
+        stats.setSize(entries.size());
+        stats.setWeight(weight);
+        return stats;
+    }
+
+    private Entry newEntry(Installation installation) {
+        long expiresAt = System.currentTimeMillis() + ttl;
+        if (!storeJson && maxWeight <= 0) {
+            return new Entry(installation, null, 1, expiresAt);
+        }
+        // le poids d'une entrée est la taille de son JSON
+        byte[] json = TypeConvert.toByteArray(installation);
+        return new Entry(installation, storeJson ? json : null, json.length, expiresAt);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext() && (entries.size() > maxEntries || (maxWeight > 0 && weight > maxWeight))) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String numero) {
+        Entry removed = entries.remove(numero);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package nosql.workshop.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tirage aléatoire de numéros d'installation, pour les serveurs MongoDB sans <code>$sample</code> (avant 3.2).
+ * <p>
+ * Les numéros sont gardés en mémoire dans un tableau rechargé périodiquement en tâche de fond :
+ * un tirage coûte un accès au tableau, sans requête.
+ */
+class InstallationIdSampler implements AutoCloseable {
+
+    private final DBCollection collection;
+    private final ScheduledExecutorService refresher;
+    private volatile String[] ids = new String[0];
+
+    /**
+     * Charge les numéros puis planifie leur rechargement.
+     *
+     * @param collection      la collection des installations.
+     * @param refreshInterval l'intervalle entre deux rechargements, en secondes.
+     */
+    InstallationIdSampler(DBCollection collection, long refreshInterval) {
+        this.collection = collection;
+        refresh();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "installation-id-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return un numéro d'installation tiré au hasard, ou <code>null</code> si la collection était vide
+     * au dernier rechargement.
+     */
+    String randomId() {
+        String[] current = ids;
+        return current.length == 0 ? null : current[ThreadLocalRandom.current().nextInt(current.length)];
+    }
+
+    private void refresh() {
+        List<String> loaded = new ArrayList<>();
+        try (DBCursor cursor = collection.find(new BasicDBObject(), new BasicDBObject("_id", 1))) {
+            while (cursor.hasNext()) {
+                loaded.add(String.valueOf(cursor.next().get("_id")));
+            }
+        }
+        ids = loaded.toArray(new String[loaded.size()]);
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // le tableau précédent reste utilisé jusqu'au prochain rechargement
+            System.out.println("Unable to refresh installation ids : " + e);
+        }
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
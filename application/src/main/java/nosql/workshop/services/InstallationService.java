@@ -1,20 +1,46 @@
 package nosql.workshop.services;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.mongodb.BasicDBObject;
-import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import nosql.workshop.batch.mongodb.CsvToMongoDb;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.model.Equipement;
 import nosql.workshop.model.Installation;
+import nosql.workshop.model.InstallationSummary;
+import nosql.workshop.model.SearchResults;
+import nosql.workshop.model.facet.FacetCount;
+import nosql.workshop.model.facet.FacetResults;
+import nosql.workshop.model.stats.CacheStats;
 import nosql.workshop.model.stats.CountByActivity;
+import nosql.workshop.model.stats.InstallationsStats;
 import org.jongo.Aggregate;
+import org.jongo.Find;
 import org.jongo.MongoCollection;
 import org.jongo.MongoCursor;
 
-import java.net.UnknownHostException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service permettant de manipuler les installations sportives.
+ * <p>
+ * Si <code>snapshot.file</code> désigne l'instantané écrit par le batch, le service est en lecture seule :
+ * les lectures unitaires, les pages, le tirage aléatoire, les recherches géographiques non streamées,
+ * les facettes et les statistiques sont servis par l'instantané projeté en mémoire, sans requête MongoDB.
+ * L'instantané est rechargé lorsque le batch en écrit un nouveau. Les lectures en streaming et la recherche
+ * <code>$text</code> restent faites dans MongoDB.
  */
 public class InstallationService {
 
@@ -23,21 +49,394 @@ public class InstallationService {
      */
     public static final String COLLECTION_NAME = "installations";
 
+    /**
+     * Intervalle de rechargement des numéros utilisés par {@link #random()} sans <code>$sample</code>, en secondes.
+     */
+    private static final long RANDOM_IDS_REFRESH_INTERVAL = 60;
+
+    /**
+     * Nombre de tirages tentés lorsque le numéro tiré a été supprimé depuis le dernier rechargement.
+     */
+    private static final int RANDOM_MAX_ATTEMPTS = 3;
+
+    public static final String CACHE_MAX_ENTRIES = "cache.installations.maxEntries";
+    public static final String CACHE_MAX_WEIGHT = "cache.installations.maxWeight";
+    public static final String CACHE_TTL = "cache.installations.ttl";
+    public static final String CACHE_STORE_JSON = "cache.installations.storeJson";
+    public static final String CURSOR_BATCH_SIZE = "mongo.cursorBatchSize";
+    public static final String MAX_RESULTS = "installations.maxResults";
+    public static final String GEO_INDEX = "geo.index";
+    public static final String SNAPSHOT_FILE = "snapshot.file";
+
+    /**
+     * Intervalle de vérification de la fin d'un import CSV, qui vide le cache, en secondes.
+     */
+    private static final long IMPORT_CHECK_INTERVAL = 10;
+
     private final MongoCollection installations;
+    private final InstallationIdSampler idSampler;
+    private final InstallationCache cache;
+    private final DBCollection importState;
+    private volatile Object lastImport;
+    private final int cursorBatchSize;
+    private final int maxResults;
+    private final boolean geoIndexEnabled;
+    private volatile SpatialIndex spatialIndex;
+    private volatile FacetIndex facetIndex;
+    private final Path snapshotFile;
+    private volatile InstallationSnapshot snapshot;
+    private final Metrics metrics;
+    private final List<Runnable> importListeners = new CopyOnWriteArrayList<>();
 
+    /**
+     * @param metrics      mesures des lectures, par opération : <code>mongo.*</code> pour les requêtes MongoDB
+     *                     (<code>mongo.get</code>, <code>mongo.list</code>...), <code>index.*</code> pour les lectures
+     *                     servies par l'index spatial ou celui des facettes, <code>snapshot.*</code> pour celles
+     *                     servies par l'instantané (<code>snapshot.get</code>, <code>snapshot.stats</code>...).
+     * @param snapshotFile l'instantané des installations servant les lectures, ou vide pour lire MongoDB.
+     */
     @Inject
-    public InstallationService(MongoDB mongoDB) throws UnknownHostException {
+    public InstallationService(MongoDB mongoDB, Metrics metrics,
+                               @Named(CACHE_MAX_ENTRIES) int cacheMaxEntries,
+                               @Named(CACHE_MAX_WEIGHT) long cacheMaxWeight,
+                               @Named(CACHE_TTL) long cacheTtl,
+                               @Named(CACHE_STORE_JSON) boolean cacheStoreJson,
+                               @Named(CURSOR_BATCH_SIZE) int cursorBatchSize,
+                               @Named(MAX_RESULTS) int maxResults,
+                               @Named(GEO_INDEX) boolean geoIndexEnabled,
+                               @Named(SNAPSHOT_FILE) String snapshotFile) {
         this.installations = mongoDB.getJongo().getCollection(COLLECTION_NAME);
+        this.metrics = metrics;
+        this.cursorBatchSize = cursorBatchSize;
+        this.maxResults = maxResults;
+        this.snapshotFile = snapshotFile.isEmpty() ? null : Paths.get(snapshotFile);
+        // en lecture seule, les recherches géographiques ne sont servies sans MongoDB que par l'index spatial
+        this.geoIndexEnabled = geoIndexEnabled || this.snapshotFile != null;
+        this.cache = new InstallationCache(cacheMaxEntries, cacheMaxWeight, TimeUnit.SECONDS.toMillis(cacheTtl), cacheStoreJson);
+        this.importState = mongoDB.getJongo().getDatabase().getCollection(CsvToMongoDb.IMPORT_STATE_COLLECTION);
+        if (this.snapshotFile != null) {
+            this.snapshot = openSnapshot(this.snapshotFile);
+            this.idSampler = null;
+            this.lastImport = snapshot.version();
+        } else {
+            // $sample est disponible à partir de MongoDB 3.2
+            this.idSampler = mongoDB.isServerVersionAtLeast(3, 2)
+                    ? null
+                    : new InstallationIdSampler(installations.getDBCollection(), RANDOM_IDS_REFRESH_INTERVAL);
+            this.lastImport = readLastImport();
+        }
+        if (this.geoIndexEnabled) {
+            this.spatialIndex = loadSpatialIndex();
+        }
+        this.facetIndex = loadFacetIndex();
+        ScheduledExecutorService importWatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "import-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        importWatcher.scheduleWithFixedDelay(this::checkImport, IMPORT_CHECK_INTERVAL, IMPORT_CHECK_INTERVAL, TimeUnit.SECONDS);
     }
 
     /**
-     * Retourne une installation étant donné son numéro.
+     * Retourne une installation étant donné son numéro, depuis le cache si possible.
      *
      * @param numero le numéro de l'installation.
      * @return l'installation correspondante, ou <code>null</code> si non trouvée.
      */
     public Installation get(String numero) {
-        return installations.findOne("{_id: # }",numero).as(Installation.class);
+        InstallationCache.Entry entry = cache.get(numero, this::load);
+        return entry == null ? null : entry.installation;
+    }
+
+    /**
+     * Retourne une installation sérialisée en JSON, étant donné son numéro. Si le cache conserve le JSON,
+     * une installation en cache n'est pas sérialisée à nouveau.
+     *
+     * @param numero le numéro de l'installation.
+     * @return le JSON de l'installation correspondante, ou <code>null</code> si non trouvée.
+     */
+    public byte[] getAsJson(String numero) {
+        InstallationCache.Entry entry = cache.get(numero, this::load);
+        return entry == null ? null : entry.json();
+    }
+
+    /**
+     * @return les compteurs du cache des installations.
+     */
+    public CacheStats cacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Version du jeu de données, changée par chaque import du batch : date du dernier import signalé dans MongoDB,
+     * ou version de l'instantané en lecture seule. Les réponses qui ne dépendent que des données importées
+     * peuvent être identifiées par cette version.
+     *
+     * @return la version, en millisecondes, ou <code>0</code> si aucun import n'a été signalé.
+     */
+    public long datasetVersion() {
+        Object current = lastImport;
+        if (current instanceof Date) {
+            return ((Date) current).getTime();
+        }
+        return current instanceof Long ? (Long) current : 0;
+    }
+
+    /**
+     * @return <code>true</code> si les installations sont lues dans l'instantané plutôt que dans MongoDB.
+     */
+    public boolean isReadOnly() {
+        return snapshotFile != null;
+    }
+
+    /**
+     * Enregistre une tâche à exécuter après chaque nouvel import, une fois les caches vidés et les index en mémoire
+     * reconstruits. Les tâches sont exécutées par le thread qui surveille les imports.
+     */
+    public void onImport(Runnable listener) {
+        importListeners.add(listener);
+    }
+
+    private Installation load(String numero) {
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            return metrics.time("snapshot.get", () -> {
+                int ordinal = current.find(numero);
+                return ordinal < 0 ? null : current.installation(ordinal);
+            });
+        }
+        return metrics.time("mongo.get", () -> installations.findOne("{_id: # }",numero).as(Installation.class));
+    }
+
+    private Object readLastImport() {
+        DBObject state = importState.findOne(new BasicDBObject("_id", CsvToMongoDb.IMPORT_STATE_ID));
+        return state == null ? null : state.get("lastRun");
+    }
+
+    private static InstallationSnapshot openSnapshot(Path file) {
+        try {
+            InstallationSnapshot snapshot = InstallationSnapshot.open(file);
+            System.out.println("Snapshot " + file + " mapped with " + snapshot.size() + " installations, version "
+                    + new Date(snapshot.version()));
+            return snapshot;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Détecte un nouvel import, signalé par le batch dans MongoDB ou, en lecture seule, par la version
+     * de l'instantané, puis vide le cache, reconstruit les index en mémoire et prévient les tâches enregistrées
+     * par {@link #onImport(Runnable)}.
+     */
+    private void checkImport() {
+        try {
+            Object current = snapshotFile != null ? InstallationSnapshot.readVersion(snapshotFile) : readLastImport();
+            if (!Objects.equals(current, lastImport)) {
+                if (snapshotFile != null) {
+                    snapshot = openSnapshot(snapshotFile);
+                }
+                cache.invalidateAll();
+                System.out.println("Installations reloaded at " + current + ", cache invalidated");
+                if (geoIndexEnabled) {
+                    spatialIndex = loadSpatialIndex();
+                }
+                facetIndex = loadFacetIndex();
+                // publiée en dernier : une réponse étiquetée avec la nouvelle version porte les nouvelles données
+                lastImport = current;
+                for (Runnable listener : importListeners) {
+                    try {
+                        listener.run();
+                    } catch (RuntimeException e) {
+                        System.out.println("Import listener failed : " + e);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to check the last import : " + e);
+        }
+    }
+
+    /**
+     * Construit l'index spatial en mémoire à partir du numéro, du nom et des coordonnées des installations.
+     * Les recherches en cours continuent sur l'index précédent jusqu'au remplacement de la référence.
+     */
+    private SpatialIndex loadSpatialIndex() {
+        long start = System.currentTimeMillis();
+        int capacity = 1024;
+        String[] ids = new String[capacity];
+        String[] names = new String[capacity];
+        double[] latitudes = new double[capacity];
+        double[] longitudes = new double[capacity];
+        int size = 0;
+
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            ids = new String[current.size()];
+            names = new String[current.size()];
+            latitudes = new double[current.size()];
+            longitudes = new double[current.size()];
+            for (int i = 0; i < current.size(); i++) {
+                if (current.isLocated(i)) {
+                    ids[size] = current.numero(i);
+                    names[size] = current.nom(i);
+                    latitudes[size] = current.latitude(i);
+                    longitudes[size] = current.longitude(i);
+                    size++;
+                }
+            }
+            return spatialIndex(ids, names, latitudes, longitudes, size, start);
+        }
+
+        DBObject projection = new BasicDBObject("nom", 1).append("location.coordinates", 1);
+        try (DBCursor cursor = installations.getDBCollection().find(new BasicDBObject(), projection)) {
+            while (cursor.hasNext()) {
+                DBObject installation = cursor.next();
+                DBObject location = (DBObject) installation.get("location");
+                List<?> coordinates = location == null ? null : (List<?>) location.get("coordinates");
+                if (coordinates == null || coordinates.size() < 2) {
+                    continue;
+                }
+                if (size == capacity) {
+                    capacity *= 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    names = Arrays.copyOf(names, capacity);
+                    latitudes = Arrays.copyOf(latitudes, capacity);
+                    longitudes = Arrays.copyOf(longitudes, capacity);
+                }
+                ids[size] = String.valueOf(installation.get("_id"));
+                names[size] = (String) installation.get("nom");
+                longitudes[size] = ((Number) coordinates.get(0)).doubleValue();
+                latitudes[size] = ((Number) coordinates.get(1)).doubleValue();
+                size++;
+            }
+        }
+        return spatialIndex(ids, names, latitudes, longitudes, size, start);
+    }
+
+    private static SpatialIndex spatialIndex(String[] ids, String[] names, double[] latitudes, double[] longitudes,
+                                             int size, long start) {
+        SpatialIndex index = new SpatialIndex(ids, names, latitudes, longitudes, size);
+        System.out.println("Spatial index built with " + index.size() + " installations in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return index;
+    }
+
+    /**
+     * Construit l'index des facettes en mémoire à partir de la commune et des activités, types et familles
+     * des équipements des installations, lues par ordre de numéro.
+     */
+    private FacetIndex loadFacetIndex() {
+        long start = System.currentTimeMillis();
+        FacetIndex.Builder builder = new FacetIndex.Builder();
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            for (int i = 0; i < current.size(); i++) {
+                Installation installation = current.installation(i);
+                builder.installation(installation.getNumero());
+                if (installation.getAdresse() != null) {
+                    builder.value(FacetIndex.COMMUNE, installation.getAdresse().getCommune());
+                }
+                for (Equipement equipement : installation.getEquipements() == null
+                        ? Collections.<Equipement>emptyList() : installation.getEquipements()) {
+                    builder.value(FacetIndex.TYPE, equipement.getType());
+                    builder.value(FacetIndex.FAMILLE, equipement.getFamille());
+                    if (equipement.getActivites() != null) {
+                        equipement.getActivites().forEach(activite -> builder.value(FacetIndex.ACTIVITE, activite));
+                    }
+                }
+            }
+            return facetIndex(builder, start);
+        }
+        DBObject projection = new BasicDBObject("adresse.commune", 1)
+                .append("equipements.activites", 1)
+                .append("equipements.type", 1)
+                .append("equipements.famille", 1);
+        try (DBCursor cursor = installations.getDBCollection().find(new BasicDBObject(), projection)
+                .sort(new BasicDBObject("_id", 1))) {
+            while (cursor.hasNext()) {
+                DBObject installation = cursor.next();
+                builder.installation(String.valueOf(installation.get("_id")));
+                DBObject adresse = (DBObject) installation.get("adresse");
+                if (adresse != null) {
+                    builder.value(FacetIndex.COMMUNE, adresse.get("commune"));
+                }
+                List<?> equipements = (List<?>) installation.get("equipements");
+                if (equipements == null) {
+                    continue;
+                }
+                for (Object item : equipements) {
+                    DBObject equipement = (DBObject) item;
+                    builder.value(FacetIndex.TYPE, equipement.get("type"));
+                    builder.value(FacetIndex.FAMILLE, equipement.get("famille"));
+                    List<?> activites = (List<?>) equipement.get("activites");
+                    if (activites != null) {
+                        for (Object activite : activites) {
+                            builder.value(FacetIndex.ACTIVITE, activite);
+                        }
+                    }
+                }
+            }
+        }
+        return facetIndex(builder, start);
+    }
+
+    private static FacetIndex facetIndex(FacetIndex.Builder builder, long start) {
+        FacetIndex index = builder.build();
+        System.out.println("Facet index built with " + index.size() + " installations in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return index;
+    }
+
+    /**
+     * @return les facettes par lesquelles filtrer et compter les installations.
+     */
+    public List<String> facetNames() {
+        return FacetIndex.FACETS;
+    }
+
+    /**
+     * Compte les installations correspondant à une sélection, valeur par valeur pour chacune des facettes
+     * demandées, depuis l'index des facettes en mémoire.
+     *
+     * @param filters les valeurs demandées par facette : une installation doit avoir une des valeurs de chaque facette.
+     * @param facets  les facettes dont les valeurs sont comptées, parmi {@link #facetNames()}.
+     * @param limit   nombre maximum de valeurs par facette, toutes si <code>0</code>.
+     * @return le nombre d'installations sélectionnées et les décomptes par facette.
+     * @throws IllegalArgumentException si une facette n'est pas indexée.
+     */
+    public FacetResults facets(Map<String, List<String>> filters, List<String> facets, int limit) {
+        return metrics.time("facets.counts", () -> {
+            FacetIndex index = facetIndex;
+            CompressedBitmap selection = index.select(filters);
+            Map<String, List<FacetCount>> counts = new LinkedHashMap<>();
+            for (String facet : facets) {
+                counts.put(facet, index.counts(facet, selection, limit));
+            }
+            FacetResults results = new FacetResults();
+            results.setTotal(selection.cardinality());
+            results.setFacets(counts);
+            return results;
+        });
+    }
+
+    /**
+     * Retourne une page des installations correspondant à une sélection de facettes, par ordre de numéro,
+     * par exemple les installations offrant une activité dans une commune.
+     *
+     * @param filters les valeurs demandées par facette : une installation doit avoir une des valeurs de chaque facette.
+     * @param from    le rang de la première installation retournée.
+     * @param limit   nombre maximum d'installations, borné par <code>installations.maxResults</code>.
+     * @return les installations et le nombre total d'installations sélectionnées.
+     * @throws IllegalArgumentException si une facette n'est pas indexée.
+     */
+    public SearchResults findByFacets(Map<String, List<String>> filters, int from, int limit) {
+        return metrics.time("facets.installations", () -> {
+            FacetIndex index = facetIndex;
+            CompressedBitmap selection = index.select(filters);
+            List<String> numeros = index.ids(selection, Math.max(from, 0), boundedLimit(limit));
+            return new SearchResults(hydrateAll(numeros), selection.cardinality(), null);
+        });
     }
 
     /**
@@ -48,25 +447,91 @@ public class InstallationService {
      * @return la liste des installations.
      */
     public List<Installation> list(int page, int pageSize) {
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            return metrics.time("snapshot.list", () -> range(current, (page - 1) * pageSize, pageSize));
+        }
+        return metrics.time("mongo.list", () -> {
+            Iterator<Installation> all = installations.find().skip((page - 1) * pageSize).limit(pageSize).as(Installation.class).iterator();
+            List<Installation> list = new ArrayList<>();
+            while (all.hasNext()){
+                list.add(all.next());
+            }
+            return list;
+        });
+    }
 
-        Iterator<Installation> all = installations.find().skip((page - 1) * pageSize).limit(pageSize).as(Installation.class).iterator();
+    /**
+     * Retourne une page d'installations triées par numéro, à partir d'un numéro donné (pagination par clé).
+     * <p>
+     * Contrairement à {@link #list(int, int)}, le coût ne dépend pas de la profondeur de la page :
+     * la recherche démarre directement sur l'index de <code>_id</code>.
+     *
+     * @param afterNumero le numéro de la dernière installation de la page précédente, ou <code>null</code>
+     *                    pour la première page.
+     * @param limit       le nombre maximum d'installations à retourner.
+     * @return les installations dont le numéro suit <code>afterNumero</code>.
+     */
+    public List<Installation> listAfter(String afterNumero, int limit) {
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            return metrics.time("snapshot.list",
+                    () -> range(current, afterNumero == null ? 0 : current.after(afterNumero), limit));
+        }
+        return metrics.time("mongo.list", () -> {
+            Find find = afterNumero == null ? installations.find() : installations.find("{_id: {$gt: #}}", afterNumero);
+            Iterator<Installation> all = find.sort("{_id: 1}").limit(limit).as(Installation.class).iterator();
+            List<Installation> list = new ArrayList<>();
+            while (all.hasNext()){
+                list.add(all.next());
+            }
+            return list;
+        });
+    }
+
+    /**
+     * Reconstruit au plus <code>limit</code> installations de l'instantané, à partir du rang <code>from</code>.
+     */
+    private static List<Installation> range(InstallationSnapshot snapshot, int from, int limit) {
         List<Installation> list = new ArrayList<>();
-        while (all.hasNext()){
-            list.add(all.next());
+        for (int i = Math.max(from, 0); i < snapshot.size() && list.size() < limit; i++) {
+            list.add(snapshot.installation(i));
         }
         return list;
     }
 
     /**
      * Retourne une installation aléatoirement.
+     * <p>
+     * Le tirage est fait dans l'instantané en lecture seule, sinon par le serveur (<code>$sample</code>)
+     * s'il le permet, sinon dans le tableau des numéros tenu en mémoire, suivi d'une lecture par <code>_id</code>.
      *
-     * @return une installation.
+     * @return une installation, ou <code>null</code> s'il n'y en a aucune.
      */
     public Installation random() {
-        long count = count();
-        int random = new Random().nextInt((int) count);
-
-        return installations.find().skip(random).limit(1).as(Installation.class).iterator().next();
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            return metrics.time("snapshot.random", () -> current.size() == 0
+                    ? null
+                    : current.installation(ThreadLocalRandom.current().nextInt(current.size())));
+        }
+        if (idSampler == null) {
+            return metrics.time("mongo.random", () -> {
+                Iterator<Installation> sample = installations.aggregate("{$sample: {size: 1}}").as(Installation.class).iterator();
+                return sample.hasNext() ? sample.next() : null;
+            });
+        }
+        for (int attempt = 0; attempt < RANDOM_MAX_ATTEMPTS; attempt++) {
+            String numero = idSampler.randomId();
+            if (numero == null) {
+                return null;
+            }
+            Installation installation = get(numero);
+            if (installation != null) {
+                return installation;
+            }
+        }
+        return null;
     }
 
     /**
@@ -75,46 +540,95 @@ public class InstallationService {
      * @return le nombre total d'installations
      */
     public long count() {
-        return installations.count();
+        InstallationSnapshot current = snapshot;
+        return current != null ? current.size() : installations.count();
     }
 
     /**
-     * Retourne l'installation avec le plus d'équipements.
+     * Compte le nombre d'installations par activité, depuis l'index des facettes en mémoire : une installation
+     * dont plusieurs équipements proposent la même activité est comptée une fois, comme dans les facettes.
      *
-     * @return l'installation avec le plus d'équipements.
+     * @return le nombre d'installations par activité, de la plus fréquente à la moins fréquente.
      */
-    public Installation installationWithMaxEquipments() {
-        Installation ins = installations.aggregate("{$project: {total : { $size: '$equipements'},nom: 1,equipements: 1}}")
-                .and("{$sort : {total : -1}}")
-                .and("{$limit : 1}")
-                .as(Installation.class).iterator().next();
-        return ins;
-
+    public List<CountByActivity> countByActivity() {
+        FacetIndex index = facetIndex;
+        return metrics.time("index.countByActivity", () -> {
+            List<CountByActivity> ret = new ArrayList<>();
+            for (FacetCount facetCount : index.counts(FacetIndex.ACTIVITE, index.select(Collections.emptyMap()), 0)) {
+                CountByActivity count = new CountByActivity();
+                count.setActivite(facetCount.getValue());
+                count.setTotal(facetCount.getCount());
+                ret.add(count);
+            }
+            return ret;
+        });
     }
 
     /**
-     * Compte le nombre d'installations par activité.
+     * Calcule toutes les statistiques en un seul parcours de la collection, en ne lisant que le numéro
+     * des équipements, puis lit l'installation ayant le plus d'équipements. Le nombre d'installations par activité
+     * est celui de l'index des facettes ({@link #countByActivity()}).
      *
-     * @return le nombre d'installations par activité.
+     * @return les statistiques des installations.
      */
-    public List<CountByActivity> countByActivity() {
-        Iterator<CountByActivity> all = installations
-                .aggregate("{$unwind : '$equipements'}")
-                .and("{$unwind : '$equipements.activites'}")
-                .and("{$group: {_id:'$equipements.activites', total: {$sum:1} }}")
-                .and("{$project : {activite : '$_id' , total : '$total' } }")
-                .and("{$sort : { total : -1 } }")
-                .as(CountByActivity.class).iterator();
-        List<CountByActivity> ret = new ArrayList<>();
-        while (all.hasNext()){
-            ret.add(all.next());
+    public InstallationsStats computeStats() {
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            return metrics.time("snapshot.stats", () -> snapshotStats(current));
         }
-        return ret;
+        return metrics.time("mongo.stats", this::scanStats);
     }
 
-    public double averageEquipmentsPerInstallation() {
-        long ret = installations.aggregate("{$unwind : '$equipements' }").as(Object.class).size();
-        return ((double)ret) / ((double)this.count());
+    private InstallationsStats scanStats() {
+        long totalCount = 0;
+        long equipementsCount = 0;
+        int maxEquipments = -1;
+        String maxNumero = null;
+
+        DBObject projection = new BasicDBObject("equipements.numero", 1);
+        try (DBCursor cursor = installations.getDBCollection().find(new BasicDBObject(), projection)) {
+            while (cursor.hasNext()) {
+                DBObject installation = cursor.next();
+                List<?> equipements = (List<?>) installation.get("equipements");
+                int size = equipements == null ? 0 : equipements.size();
+                totalCount++;
+                equipementsCount += size;
+                if (size > maxEquipments) {
+                    maxEquipments = size;
+                    maxNumero = String.valueOf(installation.get("_id"));
+                }
+            }
+        }
+        return stats(totalCount, equipementsCount, maxNumero);
+    }
+
+    /**
+     * Comme {@link #scanStats()}, en parcourant l'instantané.
+     */
+    private InstallationsStats snapshotStats(InstallationSnapshot snapshot) {
+        long equipementsCount = 0;
+        int maxEquipments = -1;
+        String maxNumero = null;
+        for (int i = 0; i < snapshot.size(); i++) {
+            List<Equipement> equipements = snapshot.installation(i).getEquipements();
+            int size = equipements == null ? 0 : equipements.size();
+            equipementsCount += size;
+            if (size > maxEquipments) {
+                maxEquipments = size;
+                maxNumero = snapshot.numero(i);
+            }
+        }
+        return stats(snapshot.size(), equipementsCount, maxNumero);
+    }
+
+    private InstallationsStats stats(long totalCount, long equipementsCount, String maxNumero) {
+        InstallationsStats stats = new InstallationsStats();
+        stats.setTotalCount(totalCount);
+        stats.setCountByActivity(countByActivity());
+        stats.setInstallationWithMaxEquipments(maxNumero == null ? null : get(maxNumero));
+        stats.setAverageEquipmentsPerInstallation(totalCount == 0 ? 0 : (double) equipementsCount / totalCount);
+        stats.setComputedAt(new Date());
+        return stats;
     }
 
     /**
@@ -122,48 +636,205 @@ public class InstallationService {
      *
      * @param searchQuery la requête de recherche.
      * @return les résultats correspondant à la requête.
+     * @see IndexRegistry#INSTALLATIONS_TEXT
      */
     public List<Installation> search(String searchQuery) {
-
-
-        BasicDBObject index = new BasicDBObject();
-            index.put("nom", "text");
-            index.put("adresse.commune", "text");
-
-        BasicDBObject weights = new BasicDBObject("nom", 3).append("adresse.commune", 10);
-        BasicDBObject options = new BasicDBObject("weights", weights).append("default_language", "french");
-
-        installations.getDBCollection().createIndex(index, options);
-
-        Iterator<Installation> all = installations.find("{$text: {$search: #, $language : 'french'}},{score: {$meta: 'textScore'}}", searchQuery).as(Installation.class).iterator();
-        List<Installation> list = new ArrayList<>();
-        while (all.hasNext()){
-            list.add(all.next());
-        }
-        return list;
+        return metrics.time("mongo.search", () -> {
+            Iterator<Installation> all = capped(installations.find("{$text: {$search: #, $language : 'french'}},{score: {$meta: 'textScore'}}", searchQuery)).as(Installation.class).iterator();
+            List<Installation> list = new ArrayList<>();
+            while (all.hasNext()){
+                list.add(all.next());
+            }
+            return list;
+        });
     }
 
     /**
      * Recherche des installations sportives par proximité géographique.
+     * <p>
+     * Si l'index spatial en mémoire est chargé, il sélectionne les installations et MongoDB n'est lu
+     * que pour les documents complets, en une seule requête <code>$in</code> sur leurs numéros (ou pas du tout
+     * en lecture seule, les documents étant reconstruits depuis l'instantané).
      *
      * @param lat      latitude du point de départ.
      * @param lng      longitude du point de départ.
      * @param distance rayon de recherche.
+     * @param limit    nombre maximum d'installations, borné par <code>installations.maxResults</code>.
      * @return les installations dans la zone géographique demandée.
+     * @see IndexRegistry#INSTALLATIONS_LOCATION
      */
-    public List<Installation> geosearch(double lat, double lng, double distance) {
+    public List<Installation> geosearch(double lat, double lng, double distance, int limit) {
+        SpatialIndex index = spatialIndex;
+        if (index != null) {
+            return hydrate(metrics.time("index.geosearch", () -> index.near(lat, lng, distance, boundedLimit(limit))));
+        }
+        return metrics.time("mongo.geosearch", () -> {
+            MongoCursor<Installation> it = streamGeosearch(lat, lng, distance, limit);
 
-        DBObject index2d = BasicDBObjectBuilder.start("location", "2dsphere").get();
-        installations.getDBCollection().createIndex(index2d);
+            List<Installation> all = new ArrayList<>();
+            while (it.hasNext()){
+                all.add(it.next());
+            }
+            return all;
+        });
+    }
 
-        MongoCursor<Installation> it = installations.find("{ location : { $near :{ $geometry :{ type : 'Point' ,coordinates : [ "+lng+", "+lat+" ]},$maxDistance : " + distance + "}}}").as(Installation.class);
+    /**
+     * Comme {@link #geosearch(double, double, double, int)}, les installations étant lues au fur et à mesure
+     * par lots de <code>mongo.cursorBatchSize</code> documents. Le curseur doit être fermé par l'appelant.
+     *
+     * @return un curseur sur au plus <code>limit</code> installations, de la plus proche à la plus éloignée.
+     */
+    public MongoCursor<Installation> streamGeosearch(double lat, double lng, double distance, int limit) {
+        return installations.find("{location: {$near: {$geometry: {type: 'Point', coordinates: [#, #]}, $maxDistance: #}}}",
+                lng, lat, distance)
+                .limit(boundedLimit(limit))
+                .with(cursor -> cursor.batchSize(cursorBatchSize))
+                .as(Installation.class);
+    }
+
+    /**
+     * Recherche les installations les plus proches d'un point et retourne leur résumé, avec la distance calculée
+     * par le serveur (<code>$geoNear</code>), ou sans accès à MongoDB par l'index spatial en mémoire s'il est chargé.
+     *
+     * @param lat      latitude du point de départ.
+     * @param lng      longitude du point de départ.
+     * @param distance rayon de recherche, en mètres.
+     * @param limit    nombre maximum d'installations, borné par <code>installations.maxResults</code>.
+     * @return les installations, de la plus proche à la plus éloignée.
+     * @see IndexRegistry#INSTALLATIONS_LOCATION
+     */
+    public List<InstallationSummary> geoNear(double lat, double lng, double distance, int limit) {
+        SpatialIndex index = spatialIndex;
+        if (index != null) {
+            return metrics.time("index.geoNear", () -> index.near(lat, lng, distance, boundedLimit(limit)));
+        }
+        return metrics.time("mongo.geoNear", () -> {
+            Iterator<InstallationSummary> all = installations
+                    .aggregate("{$geoNear: {near: {type: 'Point', coordinates: [#, #]}, distanceField: 'distance', maxDistance: #, spherical: true, limit: #}}",
+                            lng, lat, distance, boundedLimit(limit))
+                    .and("{$project: {nom: 1, location: 1, distance: 1}}")
+                    .as(InstallationSummary.class).iterator();
+            List<InstallationSummary> list = new ArrayList<>();
+            while (all.hasNext()){
+                list.add(all.next());
+            }
+            return list;
+        });
+    }
+
+    /**
+     * Recherche les installations situées dans un rectangle et retourne leur résumé.
+     *
+     * @param limit nombre maximum d'installations, borné par <code>installations.maxResults</code>.
+     * @return les installations, sans ordre particulier.
+     * @see #withinBox(double, double, double, double, int, Class)
+     */
+    public List<InstallationSummary> summariesWithinBox(double minLat, double minLng, double maxLat, double maxLng,
+                                                        int limit) {
+        SpatialIndex index = spatialIndex;
+        if (index != null) {
+            return metrics.time("index.withinBox", () -> index.within(minLat, minLng, maxLat, maxLng, boundedLimit(limit)));
+        }
+        return metrics.time("mongo.withinBox", () -> {
+            List<InstallationSummary> list = new ArrayList<>();
+            try (MongoCursor<InstallationSummary> all = withinBox(minLat, minLng, maxLat, maxLng, limit, InstallationSummary.class)) {
+                while (all.hasNext()){
+                    list.add(all.next());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return list;
+        });
+    }
+
+    /**
+     * Lit en une requête les installations complètes correspondant à des résumés, dans l'ordre des résumés.
+     */
+    private List<Installation> hydrate(List<InstallationSummary> summaries) {
+        List<String> numeros = new ArrayList<>(summaries.size());
+        for (InstallationSummary summary : summaries) {
+            numeros.add(summary.getNumero());
+        }
+        return hydrateAll(numeros);
+    }
 
-        List<Installation> all = new ArrayList<>();
-        while (it.hasNext()){
-            all.add(it.next());
+    /**
+     * Lit en une requête les installations complètes correspondant à des numéros, dans l'ordre des numéros,
+     * ou les reconstruit depuis l'instantané en lecture seule.
+     */
+    private List<Installation> hydrateAll(List<String> numeros) {
+        InstallationSnapshot current = snapshot;
+        if (current != null) {
+            return metrics.time("snapshot.hydrate", () -> {
+                List<Installation> list = new ArrayList<>(numeros.size());
+                for (String numero : numeros) {
+                    int ordinal = current.find(numero);
+                    if (ordinal >= 0) {
+                        list.add(current.installation(ordinal));
+                    }
+                }
+                return list;
+            });
+        }
+        Map<String, Installation> byNumero = metrics.time("mongo.hydrate", () -> {
+            Map<String, Installation> found = new HashMap<>();
+            for (Installation installation : installations.find("{_id: {$in: #}}", numeros).as(Installation.class)) {
+                found.put(installation.getNumero(), installation);
+            }
+            return found;
+        });
+        List<Installation> list = new ArrayList<>(numeros.size());
+        for (String numero : numeros) {
+            Installation installation = byNumero.get(numero);
+            if (installation != null) {
+                list.add(installation);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Recherche les installations situées dans un rectangle, par exemple la zone affichée d'une carte.
+     *
+     * @param limit nombre maximum d'installations, borné par <code>installations.maxResults</code>.
+     * @param type  {@link Installation}, ou {@link InstallationSummary} pour ne lire que le numéro, le nom
+     *              et la localisation des installations.
+     * @return un curseur sur les installations, à fermer par l'appelant.
+     * @see IndexRegistry#INSTALLATIONS_LOCATION
+     */
+    public <T> MongoCursor<T> withinBox(double minLat, double minLng, double maxLat, double maxLng, int limit,
+                                        Class<T> type) {
+        // polygone GeoJSON plutôt que $box, que l'index 2dsphere ne prend pas en charge
+        Find find = installations.find("{location: {$geoWithin: {$geometry: {type: 'Polygon', coordinates: [[[#, #], [#, #], [#, #], [#, #], [#, #]]]}}}}",
+                minLng, minLat, maxLng, minLat, maxLng, maxLat, minLng, maxLat, minLng, minLat);
+        if (type == InstallationSummary.class) {
+            find = find.projection("{nom: 1, location: 1}");
         }
-        return all;
+        return find.limit(boundedLimit(limit)).with(cursor -> cursor.batchSize(cursorBatchSize)).as(type);
+    }
+
+    /**
+     * Parcourt toutes les installations par numéro, par lots de <code>mongo.cursorBatchSize</code> documents.
+     * Le curseur doit être fermé par l'appelant.
+     *
+     * @return un curseur sur au plus <code>installations.maxResults</code> installations.
+     */
+    public MongoCursor<Installation> streamAll() {
+        return capped(installations.find().sort("{_id: 1}")).as(Installation.class);
+    }
+
+    /**
+     * Borne une requête à <code>installations.maxResults</code> résultats lus par lots de
+     * <code>mongo.cursorBatchSize</code> documents.
+     */
+    private Find capped(Find find) {
+        return find.limit(maxResults).with(cursor -> cursor.batchSize(cursorBatchSize));
+    }
 
+    private int boundedLimit(int limit) {
+        return limit <= 0 ? maxResults : Math.min(limit, maxResults);
     }
 
 }
@@ -0,0 +1,259 @@
+package nosql.workshop.services;
+
+import nosql.workshop.model.Equipement;
+import nosql.workshop.model.Installation;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Instantané binaire des installations écrit par le batch (<code>InstallationsSnapshotWriter</code>, qui en décrit
+ * le format), projeté en mémoire en lecture seule.
+ * <p>
+ * Le fichier reste hors du tas : seules les installations lues sont reconstruites, à partir des colonnes de taille
+ * fixe, du dictionnaire de chaînes et des équipements. Les installations sont triées par numéro, ce qui permet
+ * de retrouver un numéro par dichotomie et de paginer sans index supplémentaire.
+ */
+final class InstallationSnapshot {
+
+    static final int MAGIC = 0x4E57534E;
+    static final int FORMAT_VERSION = 1;
+
+    static final int FLAG_MULTI_COMMUNE = 1;
+    static final int FLAG_ADRESSE = 2;
+    static final int FLAG_EQUIPEMENTS = 4;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int NONE = -1;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long version;
+    private final int size;
+
+    private final int stringOffsets;
+    private final int stringData;
+    private final int numeros;
+    private final int noms;
+    private final int adresses;
+    private final int longitudes;
+    private final int latitudes;
+    private final int parkings;
+    private final int parkingsHandicapes;
+    private final int dates;
+    private final int flags;
+    private final int equipementOffsets;
+    private final int equipementData;
+
+    private InstallationSnapshot(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not an installations snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException(file + " has format " + buffer.getInt(4) + ", expected " + FORMAT_VERSION);
+        }
+        this.version = buffer.getLong(8);
+        this.size = buffer.getInt(16);
+        int stringCount = buffer.getInt(20);
+        int stringBytes = buffer.getInt(24);
+        int equipementBytes = buffer.getInt(28);
+
+        this.stringOffsets = HEADER_SIZE;
+        this.stringData = stringOffsets + (stringCount + 1) * Integer.BYTES;
+        this.numeros = stringData + stringBytes;
+        this.noms = numeros + size * Integer.BYTES;
+        // numéro de voie, voie, lieu-dit, code postal et commune
+        this.adresses = noms + size * Integer.BYTES;
+        this.longitudes = adresses + 5 * size * Integer.BYTES;
+        this.latitudes = longitudes + size * Double.BYTES;
+        this.parkings = latitudes + size * Double.BYTES;
+        this.parkingsHandicapes = parkings + size * Integer.BYTES;
+        this.dates = parkingsHandicapes + size * Integer.BYTES;
+        this.flags = dates + size * Long.BYTES;
+        this.equipementOffsets = flags + size;
+        this.equipementData = equipementOffsets + (size + 1) * Integer.BYTES;
+        if (buffer.limit() != equipementData + equipementBytes) {
+            throw new IOException(file + " is truncated or corrupted");
+        }
+    }
+
+    /**
+     * Projette un instantané en mémoire. Le fichier peut ensuite être remplacé (renommage) sans affecter
+     * la projection.
+     */
+    static InstallationSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new InstallationSnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Lit la version des données d'un instantané sans le projeter.
+     */
+    static long readVersion(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            DataInputStream data = new DataInputStream(input);
+            if (data.readInt() != MAGIC) {
+                throw new IOException(file + " is not an installations snapshot");
+            }
+            data.readInt();
+            return data.readLong();
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * @return la version des données, c'est-à-dire la date de l'import en millisecondes.
+     */
+    long version() {
+        return version;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return le rang de l'installation de ce numéro, ou <code>-1</code> si elle n'existe pas.
+     */
+    int find(String numero) {
+        int index = search(numero);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @return le rang de la première installation dont le numéro suit <code>numero</code>.
+     */
+    int after(String numero) {
+        int index = search(numero);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private int search(String numero) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = numero(middle).compareTo(numero);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    String numero(int ordinal) {
+        return string(buffer.getInt(numeros + ordinal * Integer.BYTES));
+    }
+
+    String nom(int ordinal) {
+        return string(buffer.getInt(noms + ordinal * Integer.BYTES));
+    }
+
+    boolean isLocated(int ordinal) {
+        return !Double.isNaN(longitude(ordinal));
+    }
+
+    double longitude(int ordinal) {
+        return buffer.getDouble(longitudes + ordinal * Double.BYTES);
+    }
+
+    double latitude(int ordinal) {
+        return buffer.getDouble(latitudes + ordinal * Double.BYTES);
+    }
+
+    /**
+     * Reconstruit une installation complète.
+     */
+    Installation installation(int ordinal) {
+        Installation installation = new Installation();
+        installation.setNumero(numero(ordinal));
+        installation.setNom(nom(ordinal));
+        int flag = buffer.get(flags + ordinal);
+        if ((flag & FLAG_ADRESSE) != 0) {
+            Installation.Adresse adresse = installation.new Adresse();
+            adresse.setNumero(adresse(ordinal, 0));
+            adresse.setVoie(adresse(ordinal, 1));
+            adresse.setLieuDit(adresse(ordinal, 2));
+            adresse.setCodePostal(adresse(ordinal, 3));
+            adresse.setCommune(adresse(ordinal, 4));
+            installation.setAdresse(adresse);
+        }
+        if (isLocated(ordinal)) {
+            Installation.Location location = new Installation.Location();
+            location.setType("Point");
+            location.setCoordinates(new double[]{longitude(ordinal), latitude(ordinal)});
+            installation.setLocation(location);
+        }
+        installation.setMultiCommune((flag & FLAG_MULTI_COMMUNE) != 0);
+        installation.setNbPlacesParking(buffer.getInt(parkings + ordinal * Integer.BYTES));
+        installation.setNbPlacesParkingHandicapes(buffer.getInt(parkingsHandicapes + ordinal * Integer.BYTES));
+        long date = buffer.getLong(dates + ordinal * Long.BYTES);
+        installation.setDateMiseAJourFiche(date == Long.MIN_VALUE ? null : new Date(date));
+        if ((flag & FLAG_EQUIPEMENTS) != 0) {
+            installation.setEquipements(equipements(ordinal));
+        }
+        return installation;
+    }
+
+    private String adresse(int ordinal, int field) {
+        return string(buffer.getInt(adresses + (field * size + ordinal) * Integer.BYTES));
+    }
+
+    private List<Equipement> equipements(int ordinal) {
+        int position = equipementData + buffer.getInt(equipementOffsets + ordinal * Integer.BYTES);
+        int end = equipementData + buffer.getInt(equipementOffsets + (ordinal + 1) * Integer.BYTES);
+        List<Equipement> equipements = new ArrayList<>();
+        while (position < end) {
+            Equipement equipement = new Equipement();
+            equipement.setNumero(string(buffer.getInt(position)));
+            equipement.setNom(string(buffer.getInt(position + 4)));
+            equipement.setType(string(buffer.getInt(position + 8)));
+            equipement.setFamille(string(buffer.getInt(position + 12)));
+            int activiteCount = buffer.getInt(position + 16);
+            position += 20;
+            if (activiteCount != NONE) {
+                List<String> activites = new ArrayList<>(activiteCount);
+                for (int a = 0; a < activiteCount; a++) {
+                    activites.add(string(buffer.getInt(position)));
+                    position += Integer.BYTES;
+                }
+                equipement.setActivites(activites);
+            }
+            equipements.add(equipement);
+        }
+        return equipements;
+    }
+
+    private String string(int index) {
+        if (index == NONE) {
+            return null;
+        }
+        int start = buffer.getInt(stringOffsets + index * Integer.BYTES);
+        int end = buffer.getInt(stringOffsets + (index + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(stringData + start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,27 +1,119 @@
 package nosql.workshop.services;
 
-import com.mongodb.DB;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import nosql.workshop.model.stats.ConnectionPoolStats;
 import org.jongo.Jongo;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Classe utilitaire permettant de fournir une connexion à la base MongoDB.
+ * Fournit la connexion à la base MongoDB.
+ * <p>
+ * Un seul {@link MongoClient} (et donc un seul pool de connexions) est créé pour toute l'application ;
+ * il doit être fermé par {@link #close()} à l'arrêt.
  */
-public class MongoDB {
+@Singleton
+public class MongoDB implements AutoCloseable {
 
     public static final String DB_NAME = "nosql-workshop";
 
+    public static final String MONGO_HOST = "mongo.host";
+    public static final String MONGO_PORT = "mongo.port";
+    public static final String MONGO_CONNECTIONS_PER_HOST = "mongo.connectionsPerHost";
+    public static final String MONGO_MAX_WAIT_TIME = "mongo.maxWaitTime";
+    public static final String MONGO_CONNECT_TIMEOUT = "mongo.connectTimeout";
+    public static final String MONGO_SOCKET_TIMEOUT = "mongo.socketTimeout";
+    public static final String MONGO_READ_PREFERENCE = "mongo.readPreference";
+
+    private static final String POOL_MBEANS = "org.mongodb.driver:type=ConnectionPool,*";
+
+    private final MongoClient mongoClient;
+    private final Jongo jongo;
+
+    @Inject
+    public MongoDB(@Named(MONGO_HOST) String host,
+                   @Named(MONGO_PORT) int port,
+                   @Named(MONGO_CONNECTIONS_PER_HOST) int connectionsPerHost,
+                   @Named(MONGO_MAX_WAIT_TIME) int maxWaitTime,
+                   @Named(MONGO_CONNECT_TIMEOUT) int connectTimeout,
+                   @Named(MONGO_SOCKET_TIMEOUT) int socketTimeout,
+                   @Named(MONGO_READ_PREFERENCE) String readPreference) throws UnknownHostException {
+        MongoClientOptions options = MongoClientOptions.builder()
+                .description("nosql-workshop-application")
+                .connectionsPerHost(connectionsPerHost)
+                .maxWaitTime(maxWaitTime)
+                .connectTimeout(connectTimeout)
+                .socketTimeout(socketTimeout)
+                .readPreference(ReadPreference.valueOf(readPreference))
+                .build();
+        this.mongoClient = new MongoClient(new ServerAddress(host, port), options);
+        this.jongo = new Jongo(mongoClient.getDB(DB_NAME));
+    }
+
+    /**
+     * Retourne l'instance Jongo permettant d'accéder à la base MongoDB.
+     *
+     * @return l'instance Jongo, partagée par tous les services.
+     */
+    public Jongo getJongo() {
+        return jongo;
+    }
+
     /**
-     * Retourne une instance Jongo permettant de se connecter à la base MongoDB.
+     * Indique si la version du serveur MongoDB est au moins celle demandée.
      *
-     * @return l'instance Jongo.
-     * @throws UnknownHostException si la base n'est pas disponible.
+     * @param major version majeure minimale.
+     * @param minor version mineure minimale.
+     */
+    public boolean isServerVersionAtLeast(int major, int minor) {
+        List<?> version = (List<?>) jongo.getDatabase().command("buildInfo").get("versionArray");
+        int serverMajor = ((Number) version.get(0)).intValue();
+        int serverMinor = ((Number) version.get(1)).intValue();
+        return serverMajor > major || (serverMajor == major && serverMinor >= minor);
+    }
+
+    /**
+     * Retourne l'état des pools de connexions du driver, tel qu'il est publié en JMX.
+     *
+     * @return une entrée par serveur MongoDB connecté.
+     */
+    public List<ConnectionPoolStats> getConnectionPoolStats() {
+        List<ConnectionPoolStats> stats = new ArrayList<>();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (ObjectName name : server.queryNames(new ObjectName(POOL_MBEANS), null)) {
+                ConnectionPoolStats pool = new ConnectionPoolStats();
+                pool.setHost(String.valueOf(server.getAttribute(name, "Host")));
+                pool.setPort((Integer) server.getAttribute(name, "Port"));
+                pool.setSize((Integer) server.getAttribute(name, "Size"));
+                pool.setMaxSize((Integer) server.getAttribute(name, "MaxSize"));
+                pool.setCheckedOutCount((Integer) server.getAttribute(name, "CheckedOutCount"));
+                pool.setWaitQueueSize((Integer) server.getAttribute(name, "WaitQueueSize"));
+                stats.add(pool);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to read MongoDB connection pool statistics", e);
+        }
+        return stats;
+    }
+
+    /**
+     * Ferme le client et son pool de connexions.
      */
-    public Jongo getJongo() throws UnknownHostException {
-        MongoClient mongoClient = new MongoClient();
-        DB db = mongoClient.getDB(DB_NAME);
-        return new Jongo(db);
+    @Override
+    public void close() {
+        mongoClient.close();
     }
 }
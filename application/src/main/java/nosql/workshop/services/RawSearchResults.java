@@ -0,0 +1,69 @@
+package nosql.workshop.services;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Une page de résultats de recherche conservée sous forme brute : le <code>_source</code> JSON de chaque résultat,
+ * tel que renvoyé par Elasticsearch, sans conversion en chaîne ni en objet.
+ */
+public class RawSearchResults {
+
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] SEPARATOR = {','};
+    private static final byte[] ARRAY_END = {']'};
+
+    private final BytesReference[] sources;
+    private final long total;
+    private final String scrollId;
+
+    RawSearchResults(SearchHit[] hits, long total, String scrollId) {
+        this.sources = new BytesReference[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            // décompressé si besoin, sans analyse
+            sources[i] = hits[i].sourceRef();
+        }
+        this.total = total;
+        this.scrollId = scrollId;
+    }
+
+    /**
+     * @param sources le JSON de chaque résultat, par exemple produit par un service de remplacement.
+     */
+    public RawSearchResults(BytesReference[] sources, long total, String scrollId) {
+        this.sources = sources;
+        this.total = total;
+        this.scrollId = scrollId;
+    }
+
+    /**
+     * Écrit les résultats sous forme de tableau JSON.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(ARRAY_START);
+        for (int i = 0; i < sources.length; i++) {
+            if (i > 0) {
+                output.write(SEPARATOR);
+            }
+            sources[i].writeTo(output);
+        }
+        output.write(ARRAY_END);
+    }
+
+    /**
+     * @return le nombre total d'installations correspondant à la recherche.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return l'identifiant permettant de lire la page suivante, ou <code>null</code> hors mode scroll.
+     */
+    public String getScrollId() {
+        return scrollId;
+    }
+}
@@ -0,0 +1,96 @@
+package nosql.workshop.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index dont dépend une requête de l'application : index MongoDB d'une collection, ou index Elasticsearch.
+ */
+public final class RequiredIndex {
+
+    public enum Backend {
+        MONGODB, ELASTICSEARCH
+    }
+
+    private final Backend backend;
+    private final String collection;
+    private final String name;
+    private final DBObject keys;
+    private final DBObject options;
+    private final String sourceResource;
+    private final List<String> usedBy;
+
+    private RequiredIndex(Backend backend, String collection, String name, DBObject keys, DBObject options,
+                          String sourceResource, String... usedBy) {
+        this.backend = backend;
+        this.collection = collection;
+        this.name = name;
+        this.keys = keys;
+        this.options = options;
+        this.sourceResource = sourceResource;
+        this.usedBy = Collections.unmodifiableList(Arrays.asList(usedBy));
+    }
+
+    /**
+     * Index MongoDB.
+     *
+     * @param collection la collection indexée.
+     * @param name       le nom de l'index, qui sert à vérifier son existence.
+     * @param keys       les clés de l'index.
+     * @param options    les options de création (le nom y est ajouté).
+     * @param usedBy     les requêtes qui en dépendent.
+     */
+    static RequiredIndex mongo(String collection, String name, DBObject keys, DBObject options, String... usedBy) {
+        DBObject namedOptions = new BasicDBObject(options.toMap()).append("name", name);
+        return new RequiredIndex(Backend.MONGODB, collection, name, keys, namedOptions, null, usedBy);
+    }
+
+    /**
+     * Index Elasticsearch.
+     *
+     * @param name           le nom de l'index.
+     * @param sourceResource la ressource du classpath contenant les settings et mappings de création.
+     * @param usedBy         les requêtes qui en dépendent.
+     */
+    static RequiredIndex elasticsearch(String name, String sourceResource, String... usedBy) {
+        return new RequiredIndex(Backend.ELASTICSEARCH, null, name, null, null, sourceResource, usedBy);
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DBObject getKeys() {
+        return keys;
+    }
+
+    public DBObject getOptions() {
+        return options;
+    }
+
+    public String getSourceResource() {
+        return sourceResource;
+    }
+
+    public List<String> getUsedBy() {
+        return usedBy;
+    }
+
+    @Override
+    public String toString() {
+        String target = collection == null ? name : collection + "." + name;
+        return backend.name().toLowerCase() + " index " + target + " (used by " + String.join(", ", usedBy) + ")";
+    }
+}
@@ -0,0 +1,106 @@
+package nosql.workshop.services;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Réglages d'une recherche Elasticsearch : type de recherche, explication des scores, champs retournés et pagination.
+ * <p>
+ * Par défaut, aucune explication n'est calculée et seuls les champs affichés par l'interface
+ * ({@link #INSTALLATION_FIELDS}) sont lus dans <code>_source</code>.
+ */
+public class SearchProfile {
+
+    public static final int DEFAULT_SIZE = 10;
+    public static final int MAX_SIZE = 100;
+
+    /**
+     * Champs des installations affichés par les pages de recherche (voir <code>Installation.js</code>).
+     */
+    public static final String[] INSTALLATION_FIELDS = {
+            "_id", "nom", "adresse", "location", "nbPlacesParking",
+            "equipements.numero", "equipements.nom", "equipements.type", "equipements.famille", "equipements.activites"
+    };
+
+    private SearchType searchType;
+    private boolean explain;
+    private String[] includes = INSTALLATION_FIELDS;
+    private int from;
+    private int size = DEFAULT_SIZE;
+    private TimeValue scroll;
+
+    public SearchProfile(SearchType searchType) {
+        this.searchType = searchType;
+    }
+
+    public SearchProfile searchType(SearchType searchType) {
+        this.searchType = searchType;
+        return this;
+    }
+
+    /**
+     * Demande l'explication du score de chaque résultat, coûteuse : à réserver au débogage.
+     */
+    public SearchProfile explain(boolean explain) {
+        this.explain = explain;
+        return this;
+    }
+
+    /**
+     * @param includes les champs de <code>_source</code> à retourner, ou <code>null</code> pour le document complet.
+     */
+    public SearchProfile includes(String... includes) {
+        this.includes = includes;
+        return this;
+    }
+
+    public SearchProfile from(int from) {
+        this.from = Math.max(0, from);
+        return this;
+    }
+
+    /**
+     * @param size le nombre de résultats par page, ramené à {@link #MAX_SIZE} au plus ({@link #DEFAULT_SIZE} si négatif ou nul).
+     */
+    public SearchProfile size(int size) {
+        this.size = size <= 0 ? DEFAULT_SIZE : Math.min(size, MAX_SIZE);
+        return this;
+    }
+
+    /**
+     * @param scroll la durée de conservation du contexte de défilement entre deux pages, ou <code>null</code>
+     *               pour une pagination par <code>from</code>/<code>size</code>.
+     */
+    public SearchProfile scroll(TimeValue scroll) {
+        this.scroll = scroll;
+        return this;
+    }
+
+    public TimeValue getScroll() {
+        return scroll;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Applique les réglages à une requête de recherche, par exemple pour la mesurer hors de l'application.
+     */
+    public void applyTo(SearchRequestBuilder request) {
+        request.setSearchType(searchType)
+                .setExplain(explain)
+                .setFetchSource(includes, null)
+                .setSize(size);
+        if (scroll != null) {
+            request.setScroll(scroll);
+        } else {
+            request.setFrom(from);
+        }
+    }
+}
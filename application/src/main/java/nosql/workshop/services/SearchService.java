@@ -4,8 +4,13 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import nosql.workshop.metrics.Metrics;
 import nosql.workshop.model.Installation;
+import nosql.workshop.model.SearchResults;
 import nosql.workshop.model.suggest.TownSuggest;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
@@ -13,6 +18,9 @@ import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.indexing.IndexingStats;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
@@ -21,8 +29,21 @@ import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 /**
  *
@@ -33,21 +54,119 @@ public class SearchService {
     public static final String INSTALLATION_TYPE = "installation";
     public static final String TOWNS_INDEX = "towns";
     private static final String TOWN_TYPE = "town";
+    private static final TimeValue TOWNS_SCROLL_TIMEOUT = TimeValue.timeValueMinutes(1);
+    private static final int TOWNS_SCROLL_SIZE = 500;
 
 
     public static final String ES_HOST = "es.host";
     public static final String ES_TRANSPORT_PORT = "es.transport.port";
+    public static final String SEARCH_TIMEOUT = "search.timeout";
+    public static final String SEARCH_MAX_IN_FLIGHT = "search.maxInFlight";
+    public static final String SEARCH_TYPE = "search.type";
 
     final Client elasticSearchClient;
     final ObjectMapper objectMapper;
+    private final long timeout;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService timeouts;
+    private final SearchType searchType;
+    private final Metrics metrics;
 
+    /**
+     * @param timeout     durée maximale d'une recherche, en millisecondes.
+     * @param maxInFlight nombre maximum de recherches simultanées ; au-delà, les recherches sont refusées.
+     * @param searchType  type de recherche par défaut, par exemple <code>query_then_fetch</code>.
+     * @param metrics     mesures des recherches, par opération (<code>es.search</code>, <code>es.suggestTownName</code>...).
+     */
     @Inject
-    public SearchService(@Named(ES_HOST) String host, @Named(ES_TRANSPORT_PORT) int transportPort) {
-        Settings settings = ImmutableSettings.settingsBuilder().put("client.transport.sniff", true).build();
-        elasticSearchClient = new TransportClient(settings).addTransportAddress(new InetSocketTransportAddress(host, transportPort));
+    public SearchService(@Named(ES_HOST) String host, @Named(ES_TRANSPORT_PORT) int transportPort,
+                         @Named(SEARCH_TIMEOUT) long timeout, @Named(SEARCH_MAX_IN_FLIGHT) int maxInFlight,
+                         @Named(SEARCH_TYPE) String searchType, Metrics metrics) {
+        this(transportClient(host, transportPort), timeout, maxInFlight, searchType, metrics);
+    }
+
+    /**
+     * Pour les services de remplacement, par exemple en test de charge : <code>client</code> peut être
+     * <code>null</code> si les méthodes publiques qui interrogent Elasticsearch sont redéfinies.
+     */
+    protected SearchService(Client client, long timeout, int maxInFlight, String searchType, Metrics metrics) {
+        elasticSearchClient = client;
 
         objectMapper = new ObjectMapper();
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        this.timeout = timeout;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.searchType = SearchType.fromString(searchType);
+        this.metrics = metrics;
+    }
+
+    private static Client transportClient(String host, int transportPort) {
+        Settings settings = ImmutableSettings.settingsBuilder().put("client.transport.sniff", true).build();
+        return new TransportClient(settings).addTransportAddress(new InetSocketTransportAddress(host, transportPort));
+    }
+
+    /**
+     * @return un profil de recherche avec les réglages par défaut, à adapter à la requête.
+     */
+    public SearchProfile newProfile() {
+        return new SearchProfile(searchType);
+    }
+
+    /**
+     * Lance une recherche sans bloquer le thread appelant : le résultat est transformé par <code>mapper</code>
+     * dans le thread qui reçoit la réponse d'Elasticsearch.
+     * <p>
+     * Le futur échoue avec une {@link RejectedExecutionException} si <code>maxInFlight</code> recherches sont déjà
+     * en cours, et avec une {@link TimeoutException} si la réponse n'arrive pas dans le délai.
+     * Une recherche expirée occupe sa place jusqu'à la réponse d'Elasticsearch.
+     *
+     * @param operation nom sous lequel la durée de la recherche est mesurée.
+     */
+    private <T> CompletableFuture<T> executeAsync(String operation, ActionRequestBuilder<?, SearchResponse, ?, ?> request,
+                                                  Function<SearchResponse, T> mapper) {
+        return metrics.timeAsync(operation, () -> executeAsync(request, mapper));
+    }
+
+    private <T> CompletableFuture<T> executeAsync(ActionRequestBuilder<?, SearchResponse, ?, ?> request,
+                                                  Function<SearchResponse, T> mapper) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!inFlight.tryAcquire()) {
+            future.completeExceptionally(new RejectedExecutionException(maxInFlight + " searches already in flight"));
+            return future;
+        }
+        if (request instanceof SearchRequestBuilder) {
+            ((SearchRequestBuilder) request).setTimeout(TimeValue.timeValueMillis(timeout));
+        }
+        request.execute(new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                inFlight.release();
+                try {
+                    future.complete(mapper.apply(response));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                inFlight.release();
+                future.completeExceptionally(e);
+            }
+        });
+        ScheduledFuture<?> expiration = timeouts.schedule(
+                () -> future.completeExceptionally(new TimeoutException("No search response after " + timeout + " ms")),
+                timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, error) -> expiration.cancel(false));
+        return future;
     }
 
     /**
@@ -68,78 +187,192 @@ public class SearchService {
     /**
      * Recherche les installations à l'aide d'une requête full-text
      * @param searchQuery la requête
-     * @return la listes de installations
+     * @param profile les réglages de la recherche (voir {@link #newProfile()})
+     * @return la page de résultats, sans bloquer le thread appelant
      */
-    public List<Installation> search(String searchQuery) {
+    public CompletableFuture<SearchResults> search(String searchQuery, SearchProfile profile) {
+        return executeAsync("es.search", prepareInstallationSearch(searchQuery, profile), this::mapToResults);
+    }
 
+    /**
+     * Comme {@link #search(String, SearchProfile)}, les résultats étant gardés sous la forme du JSON
+     * renvoyé par Elasticsearch, pour être recopiés tels quels dans la réponse.
+     */
+    public CompletableFuture<RawSearchResults> searchRaw(String searchQuery, SearchProfile profile) {
+        return executeAsync("es.search", prepareInstallationSearch(searchQuery, profile), SearchService::mapToRawResults);
+    }
 
-        SearchResponse response = elasticSearchClient.prepareSearch("installations")
-                .setTypes("installation")
-                .setSearchType(SearchType.QUERY_AND_FETCH)
-                .setQuery(QueryBuilders.boolQuery().must(QueryBuilders.queryString(searchQuery)))
-                .setExplain(true)
-                .execute()
-                .actionGet();
+    /**
+     * Lit la page suivante d'une recherche lancée avec {@link SearchProfile#scroll}.
+     *
+     * @param scrollId l'identifiant retourné avec la page précédente.
+     * @param scroll   la durée de conservation du contexte de défilement.
+     * @return la page suivante, vide à la fin des résultats.
+     */
+    public CompletableFuture<SearchResults> scroll(String scrollId, TimeValue scroll) {
+        return executeAsync("es.scroll", elasticSearchClient.prepareSearchScroll(scrollId).setScroll(scroll), this::mapToResults);
+    }
 
+    /**
+     * Comme {@link #scroll(String, TimeValue)}, les résultats étant gardés sous la forme du JSON renvoyé
+     * par Elasticsearch.
+     */
+    public CompletableFuture<RawSearchResults> scrollRaw(String scrollId, TimeValue scroll) {
+        return executeAsync("es.scroll", elasticSearchClient.prepareSearchScroll(scrollId).setScroll(scroll),
+                SearchService::mapToRawResults);
+    }
+
+    private SearchRequestBuilder prepareInstallationSearch(String searchQuery, SearchProfile profile) {
+        SearchRequestBuilder request = elasticSearchClient.prepareSearch(INSTALLATIONS_INDEX)
+                .setTypes(INSTALLATION_TYPE)
+                .setQuery(QueryBuilders.boolQuery().must(QueryBuilders.queryString(searchQuery)));
+        profile.applyTo(request);
+        return request;
+    }
+
+    private static RawSearchResults mapToRawResults(SearchResponse response) {
+        return new RawSearchResults(response.getHits().getHits(), response.getHits().getTotalHits(), response.getScrollId());
+    }
+
+    private SearchResults mapToResults(SearchResponse response) {
         List<Installation> installations = new ArrayList<>();
         SearchHit[] hits = response.getHits().getHits();
         for (SearchHit sh : hits){
             installations.add(mapToInstallation(sh));
         }
-
-        return installations;
+        return new SearchResults(installations, response.getHits().getTotalHits(), response.getScrollId());
     }
 
-    public List<TownSuggest> suggestTownName(String townName){
+    public CompletableFuture<List<TownSuggest>> suggestTownName(String townName){
 
         CompletionSuggestionBuilder compBuilder = new CompletionSuggestionBuilder("towns");
         compBuilder.text(townName);
         compBuilder.field("townNameSuggest");
 
-        SearchResponse searchResponse = elasticSearchClient.prepareSearch("towns")
+        SearchRequestBuilder request = elasticSearchClient.prepareSearch("towns")
                 .setTypes("completion")
                 .setQuery(QueryBuilders.matchAllQuery())
-                .addSuggestion(compBuilder)
-                .execute().actionGet();
+                .addSuggestion(compBuilder);
 
-        CompletionSuggestion compSuggestion = searchResponse.getSuggest().getSuggestion("towns");
+        return executeAsync("es.suggestTownName", request, searchResponse -> {
+            CompletionSuggestion compSuggestion = searchResponse.getSuggest().getSuggestion("towns");
 
-        List<TownSuggest> suggestions =  new ArrayList<>();
-        List<CompletionSuggestion.Entry.Option> opts = compSuggestion.iterator().next().getOptions();
+            List<TownSuggest> suggestions =  new ArrayList<>();
+            List<CompletionSuggestion.Entry.Option> opts = compSuggestion.iterator().next().getOptions();
+
+            for (CompletionSuggestion.Entry.Option opt : opts){
+                try {
+                    suggestions.add(objectMapper.readValue(opt.getPayloadAsString(), TownSuggest.class));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
 
-        for (CompletionSuggestion.Entry.Option opt : opts){
-            try {
-                suggestions.add(objectMapper.readValue(opt.getPayloadAsString(), TownSuggest.class));
-            } catch (IOException e) {
-                e.printStackTrace();
+            return suggestions;
+        });
+    }
+
+    /**
+     * Lit toutes les villes de l'index <code>towns</code>, par pages de défilement (scroll). Le contexte
+     * de défilement est libéré dès la fin de la lecture plutôt qu'à son expiration.
+     *
+     * @return le nom et la localisation de chaque ville, sans doublon.
+     */
+    public List<TownSuggest> allTowns() {
+        Set<TownSuggest> towns = new LinkedHashSet<>();
+        SearchResponse response = elasticSearchClient.prepareSearch(TOWNS_INDEX)
+                .setTypes(TOWN_TYPE)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(TOWNS_SCROLL_TIMEOUT)
+                .setSize(TOWNS_SCROLL_SIZE)
+                .setFetchSource(new String[]{"townName", "location"}, null)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .execute()
+                .actionGet();
+        String scrollId = response.getScrollId();
+        try {
+            while (true) {
+                response = elasticSearchClient.prepareSearchScroll(scrollId)
+                        .setScroll(TOWNS_SCROLL_TIMEOUT)
+                        .execute()
+                        .actionGet();
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    return new ArrayList<>(towns);
+                }
+                for (SearchHit hit : hits) {
+                    Map<String, Object> source = hit.getSource();
+                    @SuppressWarnings("unchecked")
+                    List<Number> location = (List<Number>) source.get("location");
+                    towns.add(new TownSuggest((String) source.get("townName"),
+                            Arrays.asList(location.get(0).doubleValue(), location.get(1).doubleValue())));
+                }
             }
+        } finally {
+            clearScroll(scrollId);
         }
+    }
 
-        return suggestions;
+    /**
+     * Libère un contexte de défilement ; en cas d'échec, il expirera de lui-même.
+     */
+    private void clearScroll(String scrollId) {
+        try {
+            elasticSearchClient.prepareClearScroll().addScrollId(scrollId).execute().actionGet();
+        } catch (RuntimeException e) {
+            System.out.println("Unable to clear scroll " + scrollId + " : " + e);
+        }
     }
 
-    public Double[] getTownLocation(String townName)  {
+    /**
+     * Localise une ville par recherche approchée sur son nom (tolérance aux fautes de frappe).
+     *
+     * @param townName le nom de la ville.
+     * @return longitude et latitude de la ville la plus pertinente, ou <code>null</code> si aucune ne correspond,
+     * sans bloquer le thread appelant.
+     */
+    public CompletableFuture<Double[]> getTownLocation(String townName)  {
 
-        SearchResponse response = elasticSearchClient.prepareSearch("towns")
+        SearchRequestBuilder request = elasticSearchClient.prepareSearch("towns")
                 .setTypes("town")
-                .setSearchType(SearchType.QUERY_AND_FETCH)
+                .setSearchType(searchType)
                 .addField("location")
-                .setQuery(QueryBuilders.matchQuery("townName", townName))
-                .setExplain(true)
-                .execute()
-                .actionGet();
+                .setQuery(QueryBuilders.matchQuery("townName", townName).fuzziness(Fuzziness.AUTO))
+                .setSize(1);
 
-        SearchHit[] hits = response.getHits().getHits();
-        if(hits.length != 0){
-            List<Object> values = hits[0].field("location").values();
+        return executeAsync("es.townLocation", request, response -> {
+            SearchHit[] hits = response.getHits().getHits();
+            if(hits.length != 0){
+                List<Object> values = hits[0].field("location").values();
+
+                Double[] ret = new Double[values.size()];
+                for(int i =0; i<values.size();i++){
+                    ret[i] = (Double) values.get(i);
+                }
+                return ret;
 
-            Double[] ret = new Double[values.size()];
-            for(int i =0; i<values.size();i++){
-                ret[i] = (Double) values.get(i);
             }
-            return ret;
+            return null;
+        });
+    }
 
-        }
-        return null;
+    /**
+     * Retourne un compteur qui change à chaque écriture dans l'index <code>towns</code>,
+     * par exemple lors d'un import des villes.
+     *
+     * @return le nombre d'indexations et de suppressions sur les shards primaires depuis leur démarrage.
+     */
+    public long townsIndexVersion() {
+        IndexingStats.Stats indexing = elasticSearchClient.admin().indices()
+                .prepareStats(TOWNS_INDEX)
+                .clear()
+                .setIndexing(true)
+                .execute()
+                .actionGet()
+                .getPrimaries()
+                .getIndexing()
+                .getTotal();
+        return indexing.getIndexCount() + indexing.getDeleteCount();
     }
 }
@@ -0,0 +1,218 @@
+package nosql.workshop.services;
+
+import nosql.workshop.model.Installation;
+import nosql.workshop.model.InstallationSummary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index spatial en mémoire des installations, immuable.
+ * <p>
+ * Les points sont rangés par cellule d'une grille régulière en degrés : les tableaux de coordonnées sont triés par
+ * cellule et <code>cellStart[c]</code> donne l'indice du premier point de la cellule <code>c</code>. Une recherche
+ * ne parcourt que les cellules qui recouvrent la zone demandée, puis filtre les points par distance (haversine)
+ * ou par rectangle. Les distances sont calculées sur la même sphère que MongoDB.
+ * <p>
+ * La grille a au plus {@value #MAX_CELLS_PER_SIDE} cellules de côté : si les points s'étendent au-delà
+ * (départements d'outre-mer, coordonnées aberrantes), les cellules sont agrandies plutôt que multipliées.
+ */
+final class SpatialIndex {
+
+    /**
+     * Rayon terrestre utilisé par MongoDB pour les requêtes sphériques, en mètres.
+     */
+    private static final double EARTH_RADIUS = 6378100;
+
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    /**
+     * Côté d'une cellule, en degrés (environ 2 km) : de l'ordre du rayon des recherches de la carte.
+     */
+    private static final double CELL_SIZE = 0.02;
+
+    /**
+     * Nombre maximum de lignes et de colonnes de la grille, qui borne sa taille à environ 4 Mo.
+     */
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+
+    private final String[] ids;
+    private final String[] names;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double minLat;
+    private final double minLng;
+    private final double latCellSize;
+    private final double lngCellSize;
+    private final int rows;
+    private final int cols;
+    private final int[] cellStart;
+
+    /**
+     * @param ids        numéros des installations.
+     * @param names      noms des installations.
+     * @param latitudes  latitudes des installations.
+     * @param longitudes longitudes des installations.
+     * @param size       nombre d'installations (les tableaux peuvent être plus grands).
+     */
+    SpatialIndex(String[] ids, String[] names, double[] latitudes, double[] longitudes, int size) {
+        double minLatitude = Double.POSITIVE_INFINITY, maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minLatitude = Math.min(minLatitude, latitudes[i]);
+            maxLatitude = Math.max(maxLatitude, latitudes[i]);
+            minLongitude = Math.min(minLongitude, longitudes[i]);
+            maxLongitude = Math.max(maxLongitude, longitudes[i]);
+        }
+        this.minLat = size == 0 ? 0 : minLatitude;
+        this.minLng = size == 0 ? 0 : minLongitude;
+        double latExtent = size == 0 ? 0 : maxLatitude - minLatitude;
+        double lngExtent = size == 0 ? 0 : maxLongitude - minLongitude;
+        this.latCellSize = Math.max(CELL_SIZE, latExtent / MAX_CELLS_PER_SIDE);
+        this.lngCellSize = Math.max(CELL_SIZE, lngExtent / MAX_CELLS_PER_SIDE);
+        this.rows = cellCount(latExtent, latCellSize);
+        this.cols = cellCount(lngExtent, lngCellSize);
+
+        // tri par cellule : comptage, sommes cumulées, puis placement
+        int[] cells = new int[size];
+        this.cellStart = new int[rows * cols + 1];
+        for (int i = 0; i < size; i++) {
+            cells[i] = row(latitudes[i]) * cols + col(longitudes[i]);
+            cellStart[cells[i] + 1]++;
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = Arrays.copyOf(cellStart, rows * cols);
+        this.ids = new String[size];
+        this.names = new String[size];
+        this.latitudes = new double[size];
+        this.longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            int position = next[cells[i]]++;
+            this.ids[position] = ids[i];
+            this.names[position] = names[i];
+            this.latitudes[position] = latitudes[i];
+            this.longitudes[position] = longitudes[i];
+        }
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param distance rayon de recherche, en mètres.
+     * @param limit    nombre maximum d'installations.
+     * @return les installations à moins de <code>distance</code> mètres du point, de la plus proche à la plus
+     * éloignée, avec leur distance.
+     */
+    List<InstallationSummary> near(double lat, double lng, double distance, int limit) {
+        double latDelta = distance / METERS_PER_DEGREE;
+        double lngDelta = latDelta / Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+
+        int[] found = new int[16];
+        double[] distances = new double[16];
+        int count = 0;
+        for (int row = row(lat - latDelta), maxRow = row(lat + latDelta); row <= maxRow; row++) {
+            for (int col = col(lng - lngDelta), maxCol = col(lng + lngDelta); col <= maxCol; col++) {
+                int cell = row * cols + col;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    double d = haversine(lat, lng, latitudes[i], longitudes[i]);
+                    if (d <= distance) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                            distances = Arrays.copyOf(distances, count * 2);
+                        }
+                        found[count] = i;
+                        distances[count] = d;
+                        count++;
+                    }
+                }
+            }
+        }
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        double[] sortDistances = distances;
+        Arrays.sort(order, Comparator.comparingDouble(i -> sortDistances[i]));
+
+        List<InstallationSummary> summaries = new ArrayList<>(Math.min(count, limit));
+        for (int i = 0; i < count && i < limit; i++) {
+            summaries.add(summary(found[order[i]], distances[order[i]]));
+        }
+        return summaries;
+    }
+
+    /**
+     * @param limit nombre maximum d'installations.
+     * @return les installations situées dans le rectangle, sans ordre particulier.
+     */
+    List<InstallationSummary> within(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                                     int limit) {
+        List<InstallationSummary> summaries = new ArrayList<>();
+        for (int row = row(minLatitude), maxRow = row(maxLatitude); row <= maxRow; row++) {
+            for (int col = col(minLongitude), maxCol = col(maxLongitude); col <= maxCol; col++) {
+                int cell = row * cols + col;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    if (latitudes[i] >= minLatitude && latitudes[i] <= maxLatitude
+                            && longitudes[i] >= minLongitude && longitudes[i] <= maxLongitude) {
+                        summaries.add(summary(i, null));
+                        if (summaries.size() == limit) {
+                            return summaries;
+                        }
+                    }
+                }
+            }
+        }
+        return summaries;
+    }
+
+    private InstallationSummary summary(int i, Double distance) {
+        Installation.Location location = new Installation.Location();
+        location.setType("Point");
+        location.setCoordinates(new double[]{longitudes[i], latitudes[i]});
+        InstallationSummary summary = new InstallationSummary();
+        summary.setNumero(ids[i]);
+        summary.setNom(names[i]);
+        summary.setLocation(location);
+        summary.setDistance(distance);
+        return summary;
+    }
+
+    /**
+     * Ligne de la grille, ramenée dans les bornes.
+     */
+    private int row(double lat) {
+        return clamp((int) Math.floor((lat - minLat) / latCellSize), rows);
+    }
+
+    /**
+     * Colonne de la grille, ramenée dans les bornes.
+     */
+    private int col(double lng) {
+        return clamp((int) Math.floor((lng - minLng) / lngCellSize), cols);
+    }
+
+    /**
+     * Nombre de cellules couvrant <code>extent</code> degrés, au plus {@value #MAX_CELLS_PER_SIDE} + 1.
+     */
+    private static int cellCount(double extent, double cellSize) {
+        return (int) Math.min(extent / cellSize, MAX_CELLS_PER_SIDE) + 1;
+    }
+
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(value, count - 1));
+    }
+
+    private static double haversine(double lat1, double lng1, double lat2, double lng2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLng = Math.sin(Math.toRadians(lng2 - lng1) / 2);
+        double a = sinLat * sinLat + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLng * sinLng;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
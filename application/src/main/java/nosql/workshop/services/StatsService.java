@@ -0,0 +1,118 @@
+package nosql.workshop.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import nosql.workshop.model.stats.InstallationsStats;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistiques des installations, calculées en tâche de fond et servies depuis la mémoire.
+ * <p>
+ * Le calcul ({@link InstallationService#computeStats()}) est relancé toutes les <code>stats.refreshInterval</code>
+ * secondes, après chaque import détecté par {@link InstallationService}, ou à la demande par {@link #refresh()}.
+ * Les calculs sont faits un par un par un même thread : une demande faite pendant un calcul en attend le résultat.
+ */
+@Singleton
+public class StatsService implements AutoCloseable {
+
+    public static final String STATS_REFRESH_INTERVAL = "stats.refreshInterval";
+
+    /**
+     * Âge en dessous duquel une demande de recalcul retourne les statistiques courantes, en secondes.
+     */
+    private static final long MIN_REFRESH_INTERVAL = 10;
+
+    private final InstallationService installationService;
+    private final ScheduledExecutorService refresher;
+    private volatile InstallationsStats stats;
+    private CompletableFuture<InstallationsStats> pending;
+
+    @Inject
+    public StatsService(InstallationService installationService, @Named(STATS_REFRESH_INTERVAL) long refreshInterval) {
+        this.installationService = installationService;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+        installationService.onImport(() -> refresher.execute(this::refreshQuietly));
+    }
+
+    /**
+     * @return les dernières statistiques calculées ; le premier appel attend le premier calcul.
+     */
+    public InstallationsStats get() {
+        InstallationsStats current = stats;
+        return current != null ? current : await(request());
+    }
+
+    /**
+     * Recalcule les statistiques, sauf si elles ont moins de {@value #MIN_REFRESH_INTERVAL} secondes ; si un calcul
+     * est déjà en cours, son résultat est retourné plutôt que d'en lancer un autre.
+     *
+     * @return les nouvelles statistiques.
+     */
+    public InstallationsStats refresh() {
+        InstallationsStats current = stats;
+        if (current != null
+                && System.currentTimeMillis() - current.getComputedAt().getTime() < TimeUnit.SECONDS.toMillis(MIN_REFRESH_INTERVAL)) {
+            return current;
+        }
+        return await(request());
+    }
+
+    /**
+     * @return le calcul en cours ou en attente, ou un nouveau calcul confié au thread de rafraîchissement.
+     */
+    private synchronized CompletableFuture<InstallationsStats> request() {
+        if (pending == null) {
+            CompletableFuture<InstallationsStats> request = CompletableFuture.supplyAsync(this::compute, refresher);
+            pending = request;
+            request.whenComplete((computed, failure) -> {
+                synchronized (this) {
+                    if (pending == request) {
+                        pending = null;
+                    }
+                }
+            });
+        }
+        return pending;
+    }
+
+    private InstallationsStats compute() {
+        long start = System.currentTimeMillis();
+        InstallationsStats computed = installationService.computeStats();
+        stats = computed;
+        System.out.println("Installations stats computed in " + (System.currentTimeMillis() - start) + " ms");
+        return computed;
+    }
+
+    private void refreshQuietly() {
+        try {
+            compute();
+        } catch (RuntimeException e) {
+            // les statistiques précédentes restent servies jusqu'au prochain calcul
+            System.out.println("Unable to refresh installations stats : " + e);
+        }
+    }
+
+    private static InstallationsStats await(CompletableFuture<InstallationsStats> request) {
+        try {
+            return request.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,121 @@
+package nosql.workshop.services;
+
+import nosql.workshop.model.suggest.TownSuggest;
+
+import java.util.List;
+
+/**
+ * Table de géocodage des villes, immuable : nom normalisé ({@link TownNames}) vers longitude et latitude.
+ * <p>
+ * Table à adressage ouvert (sondage linéaire) : les clés sont dans un tableau de chaînes et les coordonnées
+ * dans deux tableaux de <code>double</code>. Une recherche normalise le nom à la volée, caractère par caractère,
+ * et n'alloue donc rien. Si plusieurs villes ont le même nom normalisé, la première lue est retenue.
+ */
+final class TownLocationTable {
+
+    private final String[] keys;
+    private final double[] longitudes;
+    private final double[] latitudes;
+    private final int mask;
+    private int size;
+
+    TownLocationTable(List<TownSuggest> towns) {
+        // capacité : puissance de deux, taux de remplissage inférieur à 1/2
+        int capacity = Integer.highestOneBit(Math.max(2, towns.size()) * 4 - 1);
+        this.keys = new String[capacity];
+        this.longitudes = new double[capacity];
+        this.latitudes = new double[capacity];
+        this.mask = capacity - 1;
+        for (TownSuggest town : towns) {
+            put(TownNames.normalize(town.getTownName()), town.getLocation()[0], town.getLocation()[1]);
+        }
+    }
+
+    /**
+     * @param townName le nom de la ville, accents, casse et ponctuation ignorés.
+     * @return la position de la ville dans la table, ou -1 si elle est absente.
+     */
+    int indexOf(CharSequence townName) {
+        for (int slot = hash(townName) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (matches(keys[slot], townName)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    double longitude(int index) {
+        return longitudes[index];
+    }
+
+    double latitude(int index) {
+        return latitudes[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void put(String key, double longitude, double latitude) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        longitudes[slot] = longitude;
+        latitudes[slot] = latitude;
+        size++;
+    }
+
+    /**
+     * Hash de la forme normalisée de <code>name</code>, calculé sans la construire.
+     */
+    private static int hash(CharSequence name) {
+        int hash = 0;
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0; i < name.length(); i++) {
+            char folded = TownNames.fold(name.charAt(i));
+            if (folded == ' ') {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                hash = 31 * hash + ' ';
+                pendingSpace = false;
+            }
+            hash = 31 * hash + folded;
+            started = true;
+        }
+        // dispersion des bits de poids fort, la table étant indexée par les bits de poids faible
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compare une clé normalisée à la forme normalisée de <code>name</code>, sans la construire.
+     */
+    private static boolean matches(String key, CharSequence name) {
+        int position = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < name.length(); i++) {
+            char folded = TownNames.fold(name.charAt(i));
+            if (folded == ' ') {
+                pendingSpace = position > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                if (position >= key.length() || key.charAt(position++) != ' ') {
+                    return false;
+                }
+                pendingSpace = false;
+            }
+            if (position >= key.length() || key.charAt(position++) != folded) {
+                return false;
+            }
+        }
+        return position == key.length();
+    }
+}
@@ -0,0 +1,57 @@
+package nosql.workshop.services;
+
+import java.text.Normalizer;
+
+/**
+ * Normalisation des noms de villes pour les index en mémoire : minuscules, sans accents,
+ * tout caractère autre qu'une lettre ou un chiffre remplacé par un espace, espaces consécutifs fusionnés.
+ * <p>
+ * Ainsi « Saint-Étienne-de-Montluc » et « saint etienne de montluc » ont la même clé.
+ */
+final class TownNames {
+
+    /**
+     * Caractères pris en charge par la table de repli : latin de base, latin-1 et latin étendu A et B.
+     */
+    private static final int FOLD_TABLE_SIZE = 0x250;
+
+    private static final char[] FOLD_TABLE = new char[FOLD_TABLE_SIZE];
+
+    static {
+        for (char c = 0; c < FOLD_TABLE_SIZE; c++) {
+            char base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0);
+            FOLD_TABLE[c] = Character.isLetterOrDigit(base) ? Character.toLowerCase(base) : ' ';
+        }
+    }
+
+    private TownNames() {
+    }
+
+    /**
+     * Replie un caractère : minuscule sans accent, ou espace si ce n'est ni une lettre ni un chiffre.
+     */
+    static char fold(char c) {
+        if (c < FOLD_TABLE_SIZE) {
+            return FOLD_TABLE[c];
+        }
+        return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ';
+    }
+
+    /**
+     * @return la clé normalisée d'un nom de ville.
+     */
+    static String normalize(CharSequence name) {
+        StringBuilder key = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char folded = fold(name.charAt(i));
+            if (folded != ' ' || (key.length() > 0 && key.charAt(key.length() - 1) != ' ')) {
+                key.append(folded);
+            }
+        }
+        int length = key.length();
+        if (length > 0 && key.charAt(length - 1) == ' ') {
+            key.setLength(length - 1);
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package nosql.workshop.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.model.suggest.TownSuggest;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suggestion et géocodage de villes servis depuis la mémoire.
+ * <p>
+ * Les villes sont lues dans Elasticsearch au démarrage, puis relues lorsque l'index <code>towns</code> est modifié
+ * (import des villes). Tant qu'elles n'ont pas pu être chargées (Elasticsearch indisponible, index vide),
+ * les suggestions sont demandées à Elasticsearch. Un nom de ville inconnu de la table de géocodage
+ * est recherché dans Elasticsearch, avec tolérance aux fautes de frappe. Les recherches en mémoire sont mesurées
+ * sous <code>index.suggestTownName</code> et <code>index.townLocation</code>, celles d'Elasticsearch sous
+ * <code>es.*</code>.
+ */
+@Singleton
+public class TownService {
+
+    /**
+     * Nombre de suggestions retournées, comme la taille par défaut du completion suggester.
+     */
+    public static final int MAX_SUGGESTIONS = 5;
+
+    /**
+     * Intervalle de vérification des modifications de l'index <code>towns</code>, en secondes.
+     */
+    private static final long TOWNS_CHECK_INTERVAL = 60;
+
+    private final SearchService searchService;
+    private final Metrics metrics;
+    private volatile TownSuggestIndex suggestIndex;
+    private volatile TownLocationTable locationTable;
+    private volatile long loadedVersion = -1;
+
+    @Inject
+    public TownService(SearchService searchService, Metrics metrics) {
+        this.searchService = searchService;
+        this.metrics = metrics;
+        load();
+        ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "towns-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::reloadIfChanged, TOWNS_CHECK_INTERVAL, TOWNS_CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Suggère des villes dont le nom commence par le texte saisi, accents et tirets ignorés.
+     *
+     * @param text le début du nom de la ville.
+     * @return au plus {@link #MAX_SUGGESTIONS} villes.
+     */
+    public CompletableFuture<List<TownSuggest>> suggest(String text) {
+        TownSuggestIndex index = suggestIndex;
+        if (index == null) {
+            return searchService.suggestTownName(text);
+        }
+        return CompletableFuture.completedFuture(
+                metrics.time("index.suggestTownName", () -> index.suggest(text, MAX_SUGGESTIONS)));
+    }
+
+    /**
+     * Localise une ville par son nom exact (accents, casse et ponctuation ignorés), ou par recherche approchée
+     * dans Elasticsearch si le nom est inconnu.
+     *
+     * @param townName le nom de la ville.
+     * @return longitude et latitude, ou <code>null</code> si aucune ville ne correspond.
+     */
+    public CompletableFuture<Double[]> getLocation(String townName) {
+        TownLocationTable table = locationTable;
+        int index = table == null ? -1 : metrics.time("index.townLocation", () -> table.indexOf(townName));
+        if (index < 0) {
+            return searchService.getTownLocation(townName);
+        }
+        return CompletableFuture.completedFuture(new Double[]{table.longitude(index), table.latitude(index)});
+    }
+
+    /**
+     * (Re)charge les villes depuis Elasticsearch. En cas d'échec, les index précédents sont conservés.
+     */
+    public void load() {
+        long start = System.currentTimeMillis();
+        try {
+            // version lue avant les villes : une écriture concurrente provoquera un nouveau chargement
+            long version = searchService.townsIndexVersion();
+            List<TownSuggest> towns = searchService.allTowns();
+            loadedVersion = version;
+            if (towns.isEmpty()) {
+                System.out.println("No town found in Elasticsearch, town lookups delegated to Elasticsearch");
+                return;
+            }
+            suggestIndex = new TownSuggestIndex(towns);
+            locationTable = new TownLocationTable(towns);
+            System.out.println("Loaded " + towns.size() + " towns in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            System.out.println("Unable to load towns, town lookups delegated to Elasticsearch : " + e);
+        }
+    }
+
+    private void reloadIfChanged() {
+        try {
+            if (searchService.townsIndexVersion() != loadedVersion) {
+                load();
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Unable to check the towns index : " + e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package nosql.workshop.services;
+
+import nosql.workshop.model.suggest.TownSuggest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index de préfixes des noms de villes, immuable.
+ * <p>
+ * Les clés normalisées ({@link TownNames#normalize}) sont triées dans un tableau : les villes commençant par
+ * un préfixe forment un intervalle contigu, trouvé par recherche dichotomique.
+ */
+final class TownSuggestIndex {
+
+    private final String[] keys;
+    private final TownSuggest[] towns;
+
+    TownSuggestIndex(List<TownSuggest> suggestions) {
+        String[] unsortedKeys = new String[suggestions.size()];
+        Integer[] order = new Integer[suggestions.size()];
+        for (int i = 0; i < order.length; i++) {
+            unsortedKeys[i] = TownNames.normalize(suggestions.get(i).getTownName());
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> unsortedKeys[i]));
+
+        this.keys = new String[order.length];
+        this.towns = new TownSuggest[order.length];
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = unsortedKeys[order[i]];
+            towns[i] = suggestions.get(order[i]);
+        }
+    }
+
+    /**
+     * @param prefix le début du nom de la ville, avec ou sans accents.
+     * @param max    le nombre maximum de suggestions.
+     * @return les villes dont le nom commence par <code>prefix</code>, par ordre alphabétique.
+     */
+    List<TownSuggest> suggest(String prefix, int max) {
+        String key = TownNames.normalize(prefix);
+        List<TownSuggest> suggestions = new ArrayList<>(max);
+        if (key.isEmpty()) {
+            return suggestions;
+        }
+        int from = Arrays.binarySearch(keys, key);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        for (int i = from; i < keys.length && suggestions.size() < max && keys[i].startsWith(key); i++) {
+            suggestions.add(towns[i]);
+        }
+        return suggestions;
+    }
+
+    int size() {
+        return keys.length;
+    }
+}
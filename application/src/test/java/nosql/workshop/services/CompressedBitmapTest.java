@@ -0,0 +1,192 @@
+package nosql.workshop.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opérations de {@link CompressedBitmap} comparées à {@link BitSet}, pour chaque combinaison de conteneurs
+ * (tableau trié jusqu'à 4096 entiers par groupe de 2<sup>16</sup>, tableau de bits au-delà).
+ */
+public class CompressedBitmapTest {
+
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int GROUP = 1 << 16;
+
+    @Test
+    public void buildIgnoresRepeatedValues() {
+        CompressedBitmap bitmap = new CompressedBitmap.Builder().add(1).add(1).add(5).add(5).add(GROUP).build();
+
+        assertEquals(3, bitmap.cardinality());
+        assertEquals(list(1, 5, GROUP), values(bitmap));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildRejectsDecreasingValues() {
+        new CompressedBitmap.Builder().add(5).add(1);
+    }
+
+    @Test
+    public void emptyBuildIsEmpty() {
+        assertSame(CompressedBitmap.EMPTY, new CompressedBitmap.Builder().build());
+        assertEquals(0, CompressedBitmap.EMPTY.and(CompressedBitmap.EMPTY).cardinality());
+        assertEquals(0, CompressedBitmap.EMPTY.or(CompressedBitmap.EMPTY).cardinality());
+    }
+
+    @Test
+    public void containsAndForEachAtTheArrayBoundary() {
+        for (int cardinality : new int[]{ARRAY_MAX_SIZE - 1, ARRAY_MAX_SIZE, ARRAY_MAX_SIZE + 1}) {
+            BitSet expected = new BitSet();
+            for (int i = 0; i < cardinality; i++) {
+                expected.set(i * 3);
+            }
+            CompressedBitmap bitmap = bitmap(expected);
+
+            assertEquals(cardinality, bitmap.cardinality());
+            assertEquals(toList(expected), values(bitmap));
+            assertTrue(bitmap.contains(0));
+            assertTrue(bitmap.contains((cardinality - 1) * 3));
+            assertFalse(bitmap.contains(1));
+            assertFalse(bitmap.contains(cardinality * 3));
+            assertFalse(bitmap.contains(GROUP));
+        }
+    }
+
+    @Test
+    public void andOrAcrossContainerKinds() {
+        Random random = new Random(42);
+        // densités d'un groupe : conteneur tableau (1 %, 6 %), juste autour de 4096 entiers, tableau de bits (50 %)
+        double[] densities = {0.01, 0.06, 0.0625, 0.063, 0.5};
+        for (double left : densities) {
+            for (double right : densities) {
+                BitSet a = randomSet(random, left, 3);
+                BitSet b = randomSet(random, right, 3);
+                assertOperations(a, b);
+            }
+        }
+    }
+
+    @Test
+    public void andOfDenseSetsBecomesSparse() {
+        // deux tableaux de bits dont l'intersection tient dans un tableau trié
+        BitSet a = new BitSet();
+        BitSet b = new BitSet();
+        for (int i = 0; i < GROUP; i += 2) {
+            a.set(i);
+        }
+        for (int i = 0; i < GROUP; i += 3) {
+            b.set(i);
+        }
+        b.set(1, 1 + 2 * 100);
+        assertOperations(a, b);
+
+        BitSet exactly = new BitSet();
+        for (int i = 0; i < ARRAY_MAX_SIZE; i++) {
+            exactly.set(i * 2);
+        }
+        BitSet dense = new BitSet();
+        dense.set(0, 2 * ARRAY_MAX_SIZE + 100);
+        assertOperations(dense, exactly);
+    }
+
+    @Test
+    public void orOfSparseSetsBecomesDense() {
+        BitSet even = new BitSet();
+        BitSet odd = new BitSet();
+        for (int i = 0; i < ARRAY_MAX_SIZE; i++) {
+            even.set(2 * i);
+            odd.set(2 * i + 1);
+        }
+        assertOperations(even, odd);
+
+        CompressedBitmap union = bitmap(even).or(bitmap(odd));
+        assertEquals(2 * ARRAY_MAX_SIZE, union.cardinality());
+        // le résultat d'une union se combine encore correctement
+        BitSet third = new BitSet();
+        third.set(10, 20000, true);
+        BitSet both = (BitSet) even.clone();
+        both.or(odd);
+        assertEquals(toList(intersection(both, third)), values(union.and(bitmap(third))));
+        assertEquals(intersection(both, third).cardinality(), union.andCardinality(bitmap(third)));
+    }
+
+    @Test
+    public void disjointGroups() {
+        BitSet a = new BitSet();
+        BitSet b = new BitSet();
+        a.set(5);
+        a.set(2 * GROUP + 7);
+        b.set(GROUP + 5);
+        b.set(3 * GROUP);
+        assertOperations(a, b);
+        assertEquals(0, bitmap(a).and(bitmap(b)).cardinality());
+    }
+
+    private static void assertOperations(BitSet a, BitSet b) {
+        CompressedBitmap left = bitmap(a);
+        CompressedBitmap right = bitmap(b);
+
+        BitSet and = intersection(a, b);
+        BitSet or = (BitSet) a.clone();
+        or.or(b);
+
+        assertEquals(toList(and), values(left.and(right)));
+        assertEquals(toList(and), values(right.and(left)));
+        assertEquals(and.cardinality(), left.and(right).cardinality());
+        assertEquals(and.cardinality(), left.andCardinality(right));
+        assertEquals(and.cardinality(), right.andCardinality(left));
+        assertEquals(toList(or), values(left.or(right)));
+        assertEquals(toList(or), values(right.or(left)));
+        assertEquals(or.cardinality(), left.or(right).cardinality());
+    }
+
+    private static BitSet randomSet(Random random, double density, int groups) {
+        BitSet set = new BitSet();
+        for (int i = 0; i < groups * GROUP; i++) {
+            if (random.nextDouble() < density) {
+                set.set(i);
+            }
+        }
+        return set;
+    }
+
+    private static BitSet intersection(BitSet a, BitSet b) {
+        BitSet and = (BitSet) a.clone();
+        and.and(b);
+        return and;
+    }
+
+    private static CompressedBitmap bitmap(BitSet set) {
+        CompressedBitmap.Builder builder = new CompressedBitmap.Builder();
+        set.stream().forEach(builder::add);
+        return builder.build();
+    }
+
+    private static List<Integer> values(CompressedBitmap bitmap) {
+        List<Integer> values = new ArrayList<>();
+        bitmap.forEach(values::add);
+        return values;
+    }
+
+    private static List<Integer> toList(BitSet set) {
+        List<Integer> values = new ArrayList<>();
+        set.stream().forEach(values::add);
+        return values;
+    }
+
+    private static List<Integer> list(int... values) {
+        List<Integer> list = new ArrayList<>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,168 @@
+package nosql.workshop.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import nosql.workshop.batch.mongodb.InstallationsSnapshotWriter;
+import nosql.workshop.model.Equipement;
+import nosql.workshop.model.Installation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Un instantané écrit par le batch ({@link InstallationsSnapshotWriter}) et relu par l'application : les deux côtés
+ * du format doivent rester d'accord.
+ */
+public class InstallationSnapshotTest {
+
+    private static final long VERSION = 1425168000000L;
+    private static final Date DATE = new Date(1420070400000L);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readerAndWriterShareTheFormatConstants() {
+        assertEquals(InstallationsSnapshotWriter.MAGIC, InstallationSnapshot.MAGIC);
+        assertEquals(InstallationsSnapshotWriter.FORMAT_VERSION, InstallationSnapshot.FORMAT_VERSION);
+        assertEquals(InstallationsSnapshotWriter.FLAG_MULTI_COMMUNE, InstallationSnapshot.FLAG_MULTI_COMMUNE);
+        assertEquals(InstallationsSnapshotWriter.FLAG_ADRESSE, InstallationSnapshot.FLAG_ADRESSE);
+        assertEquals(InstallationsSnapshotWriter.FLAG_EQUIPEMENTS, InstallationSnapshot.FLAG_EQUIPEMENTS);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("installations.snapshot");
+        // dans le désordre : l'écriture trie par numéro
+        List<DBObject> installations = Arrays.asList(complete(), bare(), withoutActivites());
+
+        assertEquals(3, InstallationsSnapshotWriter.write(file, VERSION, installations));
+        assertFalse(Files.exists(file.resolveSibling("installations.snapshot.tmp")));
+        assertEquals(VERSION, InstallationSnapshot.readVersion(file));
+
+        InstallationSnapshot snapshot = InstallationSnapshot.open(file);
+        assertEquals(VERSION, snapshot.version());
+        assertEquals(3, snapshot.size());
+        assertEquals("440010001", snapshot.numero(0));
+        assertEquals("440020002", snapshot.numero(1));
+        assertEquals("440030003", snapshot.numero(2));
+        assertEquals(1, snapshot.find("440020002"));
+        assertEquals(-1, snapshot.find("440020003"));
+        assertEquals(0, snapshot.after(""));
+        assertEquals(1, snapshot.after("440010001"));
+        assertEquals(2, snapshot.after("440020003"));
+        assertEquals(3, snapshot.after("440030003"));
+
+        Installation first = snapshot.installation(snapshot.find("440010001"));
+        assertEquals("440010001", first.getNumero());
+        assertEquals("Complexe sportif Léo Lagrange", first.getNom());
+        assertEquals("12", first.getAdresse().getNumero());
+        assertEquals("Rue de l'Île", first.getAdresse().getVoie());
+        assertNull(first.getAdresse().getLieuDit());
+        assertEquals("44000", first.getAdresse().getCodePostal());
+        assertEquals("Nantes", first.getAdresse().getCommune());
+        assertTrue(snapshot.isLocated(0));
+        assertEquals("Point", first.getLocation().getType());
+        assertArrayEquals(new double[]{-1.5536, 47.2173}, first.getLocation().getCoordinates(), 0);
+        assertEquals(-1.5536, snapshot.longitude(0), 0);
+        assertEquals(47.2173, snapshot.latitude(0), 0);
+        assertTrue(first.isMultiCommune());
+        assertEquals(120, first.getNbPlacesParking());
+        assertEquals(4, first.getNbPlacesParkingHandicapes());
+        assertEquals(DATE, first.getDateMiseAJourFiche());
+        assertEquals(2, first.getEquipements().size());
+        Equipement bassin = first.getEquipements().get(0);
+        assertEquals("E1", bassin.getNumero());
+        assertEquals("Bassin sportif", bassin.getNom());
+        assertEquals("Bassin de natation", bassin.getType());
+        assertEquals("Bassins aquatiques", bassin.getFamille());
+        assertEquals(Arrays.asList("Natation", "Plongée"), bassin.getActivites());
+        assertEquals(Arrays.asList("Natation"), first.getEquipements().get(1).getActivites());
+
+        Installation second = snapshot.installation(1);
+        assertEquals("Salle sans adresse", second.getNom());
+        assertNull(second.getAdresse());
+        assertNull(second.getLocation());
+        assertFalse(snapshot.isLocated(1));
+        assertFalse(second.isMultiCommune());
+        assertEquals(0, second.getNbPlacesParking());
+        assertNull(second.getDateMiseAJourFiche());
+        assertNull(second.getEquipements());
+
+        Installation third = snapshot.installation(2);
+        assertEquals(1, third.getEquipements().size());
+        assertNull(third.getEquipements().get(0).getActivites());
+        assertNull(third.getEquipements().get(0).getFamille());
+    }
+
+    @Test
+    public void emptySnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.snapshot");
+
+        assertEquals(0, InstallationsSnapshotWriter.write(file, VERSION, Arrays.asList()));
+
+        InstallationSnapshot snapshot = InstallationSnapshot.open(file);
+        assertEquals(0, snapshot.size());
+        assertEquals(-1, snapshot.find("440010001"));
+        assertEquals(0, snapshot.after("440010001"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnotherFile() throws IOException {
+        Path file = folder.newFile("other").toPath();
+        Files.write(file, new byte[64]);
+        InstallationSnapshot.open(file);
+    }
+
+    private static DBObject complete() {
+        return new BasicDBObject("_id", "440010001")
+                .append("nom", "Complexe sportif Léo Lagrange")
+                .append("adresse", new BasicDBObject("numero", "12")
+                        .append("voie", "Rue de l'Île")
+                        .append("codePostal", "44000")
+                        .append("commune", "Nantes"))
+                .append("location", new BasicDBObject("type", "Point")
+                        .append("coordinates", Arrays.asList(-1.5536, 47.2173)))
+                .append("multiCommune", true)
+                .append("nbPlacesParking", 120)
+                .append("nbPlacesParkingHandicapes", 4)
+                .append("dateMiseAJourFiche", DATE)
+                .append("equipements", Arrays.asList(
+                        new BasicDBObject("numero", "E1")
+                                .append("nom", "Bassin sportif")
+                                .append("type", "Bassin de natation")
+                                .append("famille", "Bassins aquatiques")
+                                .append("activites", Arrays.asList("Natation", "Plongée")),
+                        new BasicDBObject("numero", "E2")
+                                .append("nom", "Bassin ludique")
+                                .append("type", "Bassin de natation")
+                                .append("famille", "Bassins aquatiques")
+                                .append("activites", Arrays.asList("Natation"))));
+    }
+
+    private static DBObject bare() {
+        return new BasicDBObject("_id", "440020002")
+                .append("nom", "Salle sans adresse")
+                .append("multiCommune", false);
+    }
+
+    private static DBObject withoutActivites() {
+        return new BasicDBObject("_id", "440030003")
+                .append("nom", "Plateau d'évolution")
+                .append("equipements", Arrays.asList(
+                        new BasicDBObject("numero", "E3").append("nom", "Plateau").append("type", "Plateau EPS")));
+    }
+}
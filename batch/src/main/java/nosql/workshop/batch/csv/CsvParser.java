@@ -0,0 +1,97 @@
+package nosql.workshop.batch.csv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Découpe des octets CSV (séparateur ',', délimiteur '"', fins de ligne LF ou CRLF) en lignes et en champs.
+ */
+final class CsvParser {
+
+    private static final byte SEPARATOR = ',';
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private CsvParser() {
+    }
+
+    /**
+     * Retourne la position de fin de la ligne commençant en <code>start</code> (position du '\n', ou <code>end</code>).
+     * Les fins de ligne situées entre guillemets font partie du champ.
+     */
+    static int lineEnd(ByteBuffer buffer, int start, int end) {
+        boolean quoted = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == QUOTE) {
+                quoted = !quoted;
+            } else if (b == LF && !quoted) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Retourne la position qui suit le prochain '\n' à partir de <code>position</code>, sans tenir compte des guillemets.
+     */
+    static int nextLineStart(ByteBuffer buffer, int position, int end) {
+        for (int i = position; i < end; i++) {
+            if (buffer.get(i) == LF) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Analyse la ligne <code>[start, end)</code> et enregistre la position de ses champs dans <code>row</code>.
+     */
+    static void parseLine(ByteBuffer buffer, int start, int end, int lineNumber, CsvRow row) {
+        if (end > start && buffer.get(end - 1) == CR) {
+            end--;
+        }
+        row.reset(buffer, lineNumber, start, end);
+        if (start == end) {
+            return;
+        }
+
+        int position = start;
+        while (true) {
+            if (position < end && buffer.get(position) == QUOTE) {
+                // champ entre guillemets : "" représente un guillemet
+                int contentStart = position + 1;
+                int i = contentStart;
+                boolean hasEscapedQuotes = false;
+                while (i < end) {
+                    if (buffer.get(i) == QUOTE) {
+                        if (i + 1 < end && buffer.get(i + 1) == QUOTE) {
+                            hasEscapedQuotes = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                row.addField(contentStart, i, hasEscapedQuotes);
+                position = i;
+                while (position < end && buffer.get(position) != SEPARATOR) {
+                    position++;
+                }
+            } else {
+                int i = position;
+                while (i < end && buffer.get(i) != SEPARATOR) {
+                    i++;
+                }
+                row.addField(position, i, false);
+                position = i;
+            }
+
+            if (position >= end) {
+                return;
+            }
+            position++;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package nosql.workshop.batch.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Lecteur CSV commun aux jobs d'import.
+ * <p>
+ * Le fichier est projeté en mémoire ({@link FileChannel#map}) et ses lignes sont présentées une à une
+ * à un {@link RowHandler} sous forme de {@link CsvRow} réutilisée : aucun tableau de chaînes n'est créé par ligne.
+ * {@link #parallelForEach(RowHandler)} découpe le fichier en blocs alignés sur les fins de ligne et les analyse
+ * sur tous les cœurs ; les champs entre guillemets ne doivent alors pas contenir de retour à la ligne.
+ */
+public final class CsvReader {
+
+    /**
+     * Taille minimale d'un bloc analysé en parallèle, pour ne pas découper les petits fichiers inutilement.
+     */
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    @FunctionalInterface
+    public interface RowHandler {
+        void onRow(CsvRow row);
+    }
+
+    private final ByteBuffer buffer;
+    private final int end;
+    private int start;
+    private int firstLineNumber = 1;
+
+    private CsvReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.end = buffer.limit();
+        this.start = hasBom(buffer) ? 3 : 0;
+    }
+
+    /**
+     * Ouvre un fichier en le projetant en mémoire.
+     *
+     * @param file le fichier CSV (2 Go au plus).
+     */
+    public static CsvReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped (" + channel.size() + " bytes)");
+            }
+            return new CsvReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Ouvre une ressource du classpath : projetée en mémoire si elle est sur le disque, chargée sinon (jar).
+     *
+     * @param resource le chemin de la ressource, par exemple <code>/csv/installations.csv</code>.
+     */
+    public static CsvReader fromResource(String resource) throws IOException {
+        URL url = CsvReader.class.getResource(resource);
+        if (url == null) {
+            throw new FileNotFoundException(resource);
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return open(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        try (InputStream is = url.openStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = is.read(chunk)) != -1) {
+                bytes.write(chunk, 0, read);
+            }
+            return new CsvReader(ByteBuffer.wrap(bytes.toByteArray()));
+        }
+    }
+
+    /**
+     * Ignore la première ligne (en-têtes).
+     */
+    public CsvReader skipHeader() {
+        start = Math.min(CsvParser.lineEnd(buffer, start, end) + 1, end);
+        firstLineNumber++;
+        return this;
+    }
+
+    /**
+     * Parcourt les lignes non vides dans l'ordre du fichier, dans le thread courant.
+     *
+     * @return le nombre de lignes lues.
+     */
+    public long forEach(RowHandler handler) {
+        return parse(start, end, firstLineNumber, new CsvRow(), handler);
+    }
+
+    /**
+     * Parcourt les lignes non vides en parallèle. L'ordre n'est pas garanti, le handler doit être thread-safe
+     * et {@link CsvRow#lineNumber()} vaut 0.
+     *
+     * @return le nombre de lignes lues.
+     */
+    public long parallelForEach(RowHandler handler) {
+        int length = end - start;
+        int chunkCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), length / MIN_CHUNK_SIZE));
+        if (chunkCount == 1) {
+            return forEach(handler);
+        }
+
+        int[] boundaries = new int[chunkCount + 1];
+        boundaries[0] = start;
+        boundaries[chunkCount] = end;
+        for (int i = 1; i < chunkCount; i++) {
+            int approximate = start + (int) ((long) length * i / chunkCount);
+            boundaries[i] = Math.max(boundaries[i - 1], CsvParser.nextLineStart(buffer, approximate, end));
+        }
+
+        return IntStream.range(0, chunkCount)
+                .parallel()
+                .mapToLong(i -> parse(boundaries[i], boundaries[i + 1], 0, new CsvRow(), handler))
+                .sum();
+    }
+
+    private long parse(int from, int to, int lineNumber, CsvRow row, RowHandler handler) {
+        long count = 0;
+        int position = from;
+        while (position < to) {
+            int lineEnd = CsvParser.lineEnd(buffer, position, to);
+            CsvParser.parseLine(buffer, position, lineEnd, lineNumber, row);
+            if (row.fieldCount() > 0) {
+                handler.onRow(row);
+                count++;
+            }
+            position = lineEnd + 1;
+            if (lineNumber > 0) {
+                lineNumber++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean hasBom(ByteBuffer buffer) {
+        return buffer.limit() >= 3
+                && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF;
+    }
+}
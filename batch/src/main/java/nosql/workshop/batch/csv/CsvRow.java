@@ -0,0 +1,318 @@
+package nosql.workshop.batch.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Vue sur une ligne CSV, réutilisée d'une ligne à l'autre.
+ * <p>
+ * Les champs ne sont pas copiés : la ligne ne conserve que leurs positions dans le buffer lu par le {@link CsvReader}.
+ * Les conversions numériques se font directement sur les octets ; seul {@link #getString(int)} alloue.
+ * Une instance n'est valide que pendant l'appel au {@link CsvReader.RowHandler} qui la reçoit et ne doit pas être
+ * partagée entre threads.
+ */
+public final class CsvRow {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_FAST_PATH_DIGITS = 15;
+
+    private ByteBuffer buffer;
+    private int lineNumber;
+    private int lineStart;
+    private int lineEnd;
+    private int fieldCount;
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private boolean[] escaped = new boolean[32];
+    private byte[] scratch = new byte[256];
+
+    CsvRow() {
+    }
+
+    /**
+     * Analyse une ligne isolée. Pratique pour les données déjà lues sous forme de texte (fichiers temporaires, tests).
+     *
+     * @param line la ligne CSV, sans fin de ligne.
+     * @return la ligne analysée.
+     */
+    public static CsvRow parse(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        CsvRow row = new CsvRow();
+        CsvParser.parseLine(ByteBuffer.wrap(bytes), 0, bytes.length, 0, row);
+        return row;
+    }
+
+    void reset(ByteBuffer buffer, int lineNumber, int lineStart, int lineEnd) {
+        this.buffer = buffer;
+        this.lineNumber = lineNumber;
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+        this.fieldCount = 0;
+    }
+
+    void addField(int start, int end, boolean hasEscapedQuotes) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+            escaped = Arrays.copyOf(escaped, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        escaped[fieldCount] = hasEscapedQuotes;
+        fieldCount++;
+    }
+
+    /**
+     * @return le numéro de la ligne dans le fichier (la première ligne porte le numéro 1), ou 0 si inconnu.
+     */
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return <code>true</code> si le champ est absent ou vide (espaces exclus).
+     */
+    public boolean isEmpty(int index) {
+        if (index >= fieldCount) {
+            return true;
+        }
+        int start = trimStart(index);
+        return start == trimEnd(index, start);
+    }
+
+    /**
+     * Retourne le contenu du champ, guillemets d'échappement retirés.
+     *
+     * @param index l'index du champ (à partir de 0).
+     * @return le contenu du champ, ou une chaîne vide si le champ est absent.
+     */
+    public String getString(int index) {
+        if (index >= fieldCount) {
+            return "";
+        }
+        return decode(starts[index], ends[index], escaped[index]);
+    }
+
+    /**
+     * Retourne le contenu du champ sans les espaces de début et de fin.
+     */
+    public String getTrimmedString(int index) {
+        if (index >= fieldCount) {
+            return "";
+        }
+        int start = trimStart(index);
+        return decode(start, trimEnd(index, start), escaped[index]);
+    }
+
+    /**
+     * Compare le champ (espaces exclus) à une valeur ASCII, sans tenir compte de la casse.
+     */
+    public boolean equalsIgnoreCase(int index, String value) {
+        if (index >= fieldCount) {
+            return false;
+        }
+        int start = trimStart(index);
+        int end = trimEnd(index, start);
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.toLowerCase((char) buffer.get(start + i)) != Character.toLowerCase(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lit un entier.
+     *
+     * @param index        l'index du champ.
+     * @param defaultValue la valeur retournée si le champ est vide ou n'est pas un entier.
+     */
+    public int getInt(int index, int defaultValue) {
+        if (index >= fieldCount) {
+            return defaultValue;
+        }
+        int start = trimStart(index);
+        int end = trimEnd(index, start);
+        if (start == end) {
+            return defaultValue;
+        }
+        boolean negative = false;
+        byte first = buffer.get(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+            if (start == end) {
+                return defaultValue;
+            }
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return defaultValue;
+            }
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? defaultValue : (int) value;
+    }
+
+    /**
+     * Lit un nombre décimal (séparateur '.').
+     * <p>
+     * Les valeurs d'au plus 15 chiffres significatifs sont converties sans allocation, avec un arrondi exact ;
+     * les autres passent par {@link Double#parseDouble(String)}.
+     *
+     * @throws NumberFormatException si le champ n'est pas un nombre.
+     */
+    public double getDouble(int index) {
+        int start = index < fieldCount ? trimStart(index) : 0;
+        int end = index < fieldCount ? trimEnd(index, start) : 0;
+        if (start == end) {
+            throw new NumberFormatException("Empty field " + index + " at line " + lineNumber);
+        }
+        int i = start;
+        boolean negative = false;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        boolean anyDigit = false;
+        int decimals = 0;
+        boolean dot = false;
+        boolean fastPath = i < end;
+        for (; i < end && fastPath; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && !dot) {
+                dot = true;
+            } else if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (digits > 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (dot) {
+                    decimals++;
+                }
+                fastPath = digits <= MAX_FAST_PATH_DIGITS && decimals < POWERS_OF_TEN.length;
+            } else {
+                fastPath = false;
+            }
+        }
+        if (!fastPath || !anyDigit) {
+            return Double.parseDouble(decode(start, end, false));
+        }
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Lit une date au format <code>yyyy-MM-dd</code>.
+     *
+     * @return la date à minuit dans le fuseau par défaut, ou <code>null</code> si le champ n'est pas une date valide.
+     */
+    public Date getDate(int index) {
+        if (index >= fieldCount) {
+            return null;
+        }
+        int start = trimStart(index);
+        int end = trimEnd(index, start);
+        if (end - start != 10 || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-') {
+            return null;
+        }
+        int year = digits(start, 4);
+        int month = digits(start + 5, 2);
+        int day = digits(start + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return null;
+        }
+        try {
+            return Date.from(LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        } catch (java.time.DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Retourne le texte brut de la ligne, pour la conserver au-delà de l'appel et la relire avec {@link #parse(String)}.
+     */
+    public String getLine() {
+        return decode(lineStart, lineEnd, false);
+    }
+
+    /**
+     * Copie les champs dans un tableau. Alloue : à réserver aux cas où la ligne doit survivre à l'appel.
+     */
+    public String[] toArray() {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = getString(i);
+        }
+        return fields;
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int trimStart(int index) {
+        int start = starts[index];
+        int end = ends[index];
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int index, int start) {
+        int end = ends[index];
+        while (end > start && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private String decode(int start, int end, boolean hasEscapedQuotes) {
+        int length = end - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        int size = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            scratch[size++] = b;
+            if (hasEscapedQuotes && b == '"') {
+                i++;
+            }
+        }
+        return new String(scratch, 0, size, StandardCharsets.UTF_8);
+    }
+}
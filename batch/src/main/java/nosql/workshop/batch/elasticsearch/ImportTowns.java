@@ -1,15 +1,14 @@
 package nosql.workshop.batch.elasticsearch;
 
-import nosql.workshop.batch.elasticsearch.util.ElasticSearchBatchUtils;
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.csv.CsvRow;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -22,18 +21,15 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 public class ImportTowns {
 
     public static void main(String[] args) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ImportTowns.class.getResourceAsStream("/csv/towns_paysdeloire.csv")));
-
-             Client elasticSearchClient = new TransportClient().addTransportAddress(new InetSocketTransportAddress(ES_DEFAULT_HOST, ES_DEFAULT_PORT));) {
+        try (Client elasticSearchClient = new TransportClient().addTransportAddress(new InetSocketTransportAddress(ES_DEFAULT_HOST, ES_DEFAULT_PORT));) {
 
             checkIndexExists("towns", elasticSearchClient);
 
             BulkRequestBuilder bulkRequest = elasticSearchClient.prepareBulk();
 
-            reader.lines()
-                    .skip(1)
-                    .filter(line -> line.length() > 0)
-                    .forEach(line -> insertTown(line, bulkRequest, elasticSearchClient));
+            CsvReader.fromResource("/csv/towns_paysdeloire.csv")
+                    .skipHeader()
+                    .forEach(row -> insertTown(row, bulkRequest, elasticSearchClient));
 
             BulkResponse bulkItemResponses = bulkRequest.execute().actionGet();
             System.out.print("Town Ok");
@@ -42,16 +38,11 @@ public class ImportTowns {
 
     }
 
-    private static void insertTown(String line, BulkRequestBuilder bulkRequest, Client elasticSearchClient) {
-        line = ElasticSearchBatchUtils.handleComma(line);
-        String[] split = line.split(",");
-
-        String townName = split[1].replaceAll("\"", "");
+    private static void insertTown(CsvRow row, BulkRequestBuilder bulkRequest, Client elasticSearchClient) {
+        String townName = row.getString(1);
 
         // location
-        Double longitude = Double.valueOf(split[6]);
-        Double latitude = Double.valueOf(split[7]);
-        Double[] coordinates = {longitude,latitude};
+        Double[] coordinates = coordinates(row);
 
         // payload
         Map<String, Object> payloadMap = new HashMap<>();
@@ -71,4 +62,34 @@ public class ImportTowns {
         bulkRequest.add(elasticSearchClient.prepareIndex("towns", "town").setSource(map));
 
     }
+
+    /**
+     * Les coordonnées X et Y du fichier utilisent la virgule comme séparateur décimal sans être entre guillemets :
+     * chacune occupe donc deux colonnes, ou une seule si elle est entière.
+     *
+     * @return longitude et latitude.
+     */
+    public static Double[] coordinates(CsvRow row) {
+        switch (row.fieldCount()) {
+            case 8:
+                return new Double[]{row.getDouble(6), row.getDouble(7)};
+            case 10:
+                return new Double[]{decimal(row, 6), decimal(row, 8)};
+            case 9:
+                // Une seule des deux coordonnées est entière. Si la dernière colonne ne peut pas être une latitude
+                // entière (zéro en tête, ou hors de [10, 90] : le fichier ne couvre que la France métropolitaine),
+                // c'est la partie décimale de Y et X est entier.
+                int last = row.getInt(8, -1);
+                if (row.getTrimmedString(8).startsWith("0") || last < 10 || last > 90) {
+                    return new Double[]{row.getDouble(6), decimal(row, 7)};
+                }
+                return new Double[]{decimal(row, 6), row.getDouble(8)};
+            default:
+                throw new IllegalArgumentException("Unexpected town line " + row.getLine());
+        }
+    }
+
+    private static Double decimal(CsvRow row, int integerPart) {
+        return Double.valueOf(row.getTrimmedString(integerPart) + "." + row.getTrimmedString(integerPart + 1));
+    }
 }
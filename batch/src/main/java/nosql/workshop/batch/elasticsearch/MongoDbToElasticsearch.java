@@ -1,31 +1,61 @@
 package nosql.workshop.batch.elasticsearch;
 
 import com.mongodb.*;
-import nosql.workshop.batch.elasticsearch.util.ElasticSearchBatchUtils;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
+import nosql.workshop.batch.elasticsearch.util.BulkIndexer;
+import nosql.workshop.batch.elasticsearch.util.SyncCheckpoint;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
 
-import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 import static nosql.workshop.batch.elasticsearch.util.ElasticSearchBatchUtils.*;
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 /**
  * Transferts les documents depuis MongoDB vers Elasticsearch.
+ * <p>
+ * Les documents sont lus au fil du curseur et envoyés par lots bornés via un {@link BulkIndexer}, réglable
+ * par les propriétés système <code>sync.bulkActions</code>, <code>sync.bulkSizeMb</code>,
+ * <code>sync.concurrentRequests</code>, <code>sync.maxRetries</code> et <code>sync.closeTimeoutSeconds</code>.
+ * <p>
+ * Avec <code>-Dsync.mode=incremental</code>, seules les installations dont <code>dateMiseAJourFiche</code> est
+ * postérieure ou égale au point de reprise ({@link SyncCheckpoint}) sont réindexées. Le point de reprise est mis
+ * à jour si aucun élément n'a échoué.
+ * <p>
+ * En mode complet, les documents Elasticsearch dont la source a disparu de MongoDB sont ensuite supprimés
+ * (<code>-Dsync.deletions=false</code> pour l'éviter). Ce balayage parcourt tout l'index : en mode incrémental,
+ * il n'a lieu qu'avec <code>-Dsync.deletions=true</code>.
  */
 public class MongoDbToElasticsearch {
 
-    public static void main(String[] args) throws UnknownHostException {
+    public static final String BULK_ACTIONS_PROPERTY = "sync.bulkActions";
+    public static final String BULK_SIZE_MB_PROPERTY = "sync.bulkSizeMb";
+    public static final String CONCURRENT_REQUESTS_PROPERTY = "sync.concurrentRequests";
+    public static final String MAX_RETRIES_PROPERTY = "sync.maxRetries";
+    public static final String CLOSE_TIMEOUT_PROPERTY = "sync.closeTimeoutSeconds";
+    public static final String MODE_PROPERTY = "sync.mode";
+    public static final String DELETIONS_PROPERTY = "sync.deletions";
+    public static final String INCREMENTAL_MODE = "incremental";
+
+    private static final String DATE_FIELD = "dateMiseAJourFiche";
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    public static void main(String[] args) throws UnknownHostException, InterruptedException {
 
         MongoClient mongoClient = null;
 
-        long startTime = System.currentTimeMillis();
         Settings settings = ImmutableSettings.settingsBuilder().put("cluster.name", "elasticsearch").build();
         try (Client elasticSearchClient =
                      new TransportClient(settings).addTransportAddress(new InetSocketTransportAddress(ES_DEFAULT_HOST, ES_DEFAULT_PORT));) {
@@ -33,25 +63,55 @@ public class MongoDbToElasticsearch {
             checkIndexExists("installations", elasticSearchClient);
 
             mongoClient = new MongoClient();
-
-            // cursor all database objects from mongo db
-            DBCursor cursor = ElasticSearchBatchUtils.getMongoCursorToAllInstallations(mongoClient);
-            BulkRequestBuilder bulkRequest = elasticSearchClient.prepareBulk();
-
-            while (cursor.hasNext()) {
-                DBObject object = cursor.next();
-                String objectId = (String)object.get("_id");
-
-                object.removeField("dateMiseAJourFiche");
-
-                bulkRequest.add(elasticSearchClient.prepareIndex("installations", "installation", objectId).setSource(object.toMap()));
-
+            DBCollection installations = mongoClient.getDB("nosql-workshop").getCollection("installations");
+            SyncCheckpoint checkpoint = new SyncCheckpoint(mongoClient.getDB("nosql-workshop"), "installations");
+
+            int bulkActions = Integer.getInteger(BULK_ACTIONS_PROPERTY, BulkIndexer.DEFAULT_BULK_ACTIONS);
+            BulkIndexer indexer = new BulkIndexer(elasticSearchClient,
+                    bulkActions,
+                    Integer.getInteger(BULK_SIZE_MB_PROPERTY, BulkIndexer.DEFAULT_BULK_SIZE_MB),
+                    Integer.getInteger(CONCURRENT_REQUESTS_PROPERTY, BulkIndexer.DEFAULT_CONCURRENT_REQUESTS),
+                    Integer.getInteger(MAX_RETRIES_PROPERTY, BulkIndexer.DEFAULT_MAX_RETRIES),
+                    BulkIndexer.DEFAULT_INITIAL_BACKOFF_MS,
+                    Integer.getInteger(CLOSE_TIMEOUT_PROPERTY, BulkIndexer.DEFAULT_CLOSE_TIMEOUT_SECONDS));
+
+            boolean incremental = INCREMENTAL_MODE.equals(System.getProperty(MODE_PROPERTY));
+            boolean deletions = Boolean.parseBoolean(System.getProperty(DELETIONS_PROPERTY, String.valueOf(!incremental)));
+            Date since = incremental ? checkpoint.getHighWaterMark() : null;
+            Date highWaterMark = since;
+
+            // La date de la fiche a une précision d'un jour : les fiches du jour du point de reprise sont réindexées
+            DBObject query = new BasicDBObject();
+            if (since != null) {
+                installations.createIndex(new BasicDBObject(DATE_FIELD, 1));
+                query.put(DATE_FIELD, new BasicDBObject("$gte", since));
+                System.out.println("Incremental sync of installations updated since " + since);
             }
-            BulkResponse bulkItemResponses = bulkRequest.execute().actionGet();
 
-            dealWithFailures(bulkItemResponses);
+            DBCursor cursor = installations.find(query).batchSize(bulkActions);
+            try {
+                while (cursor.hasNext()) {
+                    DBObject object = cursor.next();
+                    String objectId = (String)object.get("_id");
+
+                    Date date = (Date) object.get(DATE_FIELD);
+                    if (date != null && (highWaterMark == null || date.after(highWaterMark))) {
+                        highWaterMark = date;
+                    }
+
+                    indexer.add(elasticSearchClient.prepareIndex("installations", "installation", objectId).setSource(object.toMap()).request());
+                }
+                if (deletions) {
+                    deleteRemovedInstallations(elasticSearchClient, installations, indexer, bulkActions);
+                }
+            } finally {
+                cursor.close();
+                indexer.close();
+            }
 
-            System.out.println("Inserted all documents in " + (System.currentTimeMillis() - startTime) + " ms");
+            if (indexer.getFailedCount() == 0 && highWaterMark != null) {
+                checkpoint.save(highWaterMark);
+            }
         } finally {
             if (mongoClient != null) {
                 mongoClient.close();
@@ -61,4 +121,60 @@ public class MongoDbToElasticsearch {
 
     }
 
+    /**
+     * Supprime d'Elasticsearch les installations qui n'existent plus dans MongoDB.
+     * <p>
+     * Les identifiants indexés sont parcourus par pages (scroll, sans source) et chaque page est comparée
+     * à MongoDB par une requête <code>$in</code> sur <code>_id</code> : la mémoire utilisée reste celle d'une page.
+     * Le contexte de scroll est libéré à la fin du parcours.
+     */
+    private static void deleteRemovedInstallations(Client elasticSearchClient, DBCollection installations,
+                                                   BulkIndexer indexer, int pageSize) {
+        long deleted = 0;
+        SearchResponse response = elasticSearchClient.prepareSearch("installations")
+                .setTypes("installation")
+                .setSearchType(SearchType.SCAN)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setNoFields()
+                .setSize(pageSize)
+                .execute().actionGet();
+        String scrollId = response.getScrollId();
+        try {
+            while (true) {
+                response = elasticSearchClient.prepareSearchScroll(scrollId)
+                        .setScroll(SCROLL_KEEP_ALIVE)
+                        .execute().actionGet();
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    break;
+                }
+
+                Set<String> missing = new HashSet<>();
+                for (SearchHit hit : hits) {
+                    missing.add(hit.getId());
+                }
+                DBCursor existing = installations.find(
+                        new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(missing))),
+                        new BasicDBObject("_id", 1));
+                try {
+                    while (existing.hasNext()) {
+                        missing.remove(existing.next().get("_id"));
+                    }
+                } finally {
+                    existing.close();
+                }
+
+                for (String id : missing) {
+                    indexer.add(new DeleteRequest("installations", "installation", id));
+                }
+                deleted += missing.size();
+            }
+        } finally {
+            elasticSearchClient.prepareClearScroll().addScrollId(scrollId).execute().actionGet();
+        }
+        System.out.println("Deleting " + deleted + " installations removed from MongoDB");
+    }
+
 }
@@ -0,0 +1,213 @@
+package nosql.workshop.batch.elasticsearch.util;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Envoie des requêtes d'indexation à Elasticsearch par lots bornés.
+ * <p>
+ * Un lot part dès qu'il atteint <code>bulkActions</code> documents ou <code>bulkSizeMb</code> Mo, et au plus
+ * <code>concurrentRequests</code> lots sont en cours simultanément ; au-delà, {@link #add(ActionRequest)} bloque.
+ * Les éléments en échec pour une cause transitoire (surcharge, erreur serveur) sont renvoyés avec un délai
+ * doublé à chaque tentative, jusqu'à <code>maxRetries</code> fois. {@link #close()} attend au plus
+ * <code>closeTimeoutSeconds</code> les réponses restantes ; les éléments toujours sans réponse sont alors comptés
+ * en échec, et une réponse arrivée ensuite est seulement signalée, sans modifier le bilan.
+ */
+public class BulkIndexer implements AutoCloseable {
+
+    public static final int DEFAULT_BULK_ACTIONS = 1000;
+    public static final int DEFAULT_BULK_SIZE_MB = 5;
+    public static final int DEFAULT_CONCURRENT_REQUESTS = 4;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 200;
+    public static final int DEFAULT_CLOSE_TIMEOUT_SECONDS = 300;
+
+    private final BulkProcessor processor;
+    private final ScheduledExecutorService retryScheduler;
+    private final int maxRetries;
+    private final long initialBackoffMs;
+    private final int closeTimeoutSeconds;
+    private final long startTime = System.currentTimeMillis();
+
+    private final Map<ActionRequest, Integer> attempts = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final AtomicLong pending = new AtomicLong();
+    /**
+     * Passe à <code>true</code> quand {@link #close()} cesse d'attendre les réponses ; protégé par <code>pending</code>.
+     */
+    private boolean abandoned;
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong bulkCount = new AtomicLong();
+    private final AtomicLong bulkBytes = new AtomicLong();
+
+    public BulkIndexer(Client client) {
+        this(client, DEFAULT_BULK_ACTIONS, DEFAULT_BULK_SIZE_MB, DEFAULT_CONCURRENT_REQUESTS, DEFAULT_MAX_RETRIES,
+                DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_CLOSE_TIMEOUT_SECONDS);
+    }
+
+    public BulkIndexer(Client client, int bulkActions, int bulkSizeMb, int concurrentRequests, int maxRetries,
+                       long initialBackoffMs, int closeTimeoutSeconds) {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoffMs;
+        this.closeTimeoutSeconds = closeTimeoutSeconds;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-indexer-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.processor = BulkProcessor.builder(client, new Listener())
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+                .setConcurrentRequests(concurrentRequests)
+                // envoie les éléments renvoyés après échec même si plus rien n'est ajouté
+                .setFlushInterval(TimeValue.timeValueSeconds(1))
+                .build();
+    }
+
+    /**
+     * Ajoute une requête (index ou suppression). Bloque si <code>concurrentRequests</code> lots sont déjà en cours.
+     */
+    public void add(ActionRequest request) {
+        pending.incrementAndGet();
+        processor.add(request);
+    }
+
+    /**
+     * @return le nombre d'éléments définitivement en échec.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Envoie les éléments restants, attend la fin des lots et des renvois, puis affiche le bilan. Passé
+     * <code>closeTimeoutSeconds</code>, les éléments sans réponse sont comptés en échec.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        processor.flush();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(closeTimeoutSeconds);
+        long unanswered;
+        synchronized (pending) {
+            long remaining;
+            while (pending.get() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                pending.wait(Math.min(remaining, 1000));
+            }
+            abandoned = true;
+            unanswered = pending.getAndSet(0);
+        }
+        if (unanswered > 0) {
+            failed.addAndGet(unanswered);
+            System.out.println("No response for " + unanswered + " bulk item(s) after " + closeTimeoutSeconds
+                    + " s, counted as failures");
+        }
+        processor.awaitClose(1, TimeUnit.MINUTES);
+        retryScheduler.shutdownNow();
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        long docsPerSecond = elapsed == 0 ? succeeded.get() : succeeded.get() * 1000 / elapsed;
+        System.out.println("Indexed " + succeeded.get() + " documents in " + bulkCount.get() + " bulk requests ("
+                + new ByteSizeValue(bulkBytes.get()) + "), " + retried.get() + " retries, " + failed.get() + " failures, "
+                + elapsed + " ms (" + docsPerSecond + " docs/s)");
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private void handleFailure(ActionRequest request, RestStatus status, String message) {
+        int attempt = attempts.merge(request, 1, Integer::sum);
+        if (isTransient(status) && attempt <= maxRetries) {
+            retried.incrementAndGet();
+            long delay = initialBackoffMs << (attempt - 1);
+            retryScheduler.schedule(() -> processor.add(request), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        attempts.remove(request);
+        failed.incrementAndGet();
+        System.out.println("Bulk item failed after " + attempt + " attempt(s) : " + message);
+        done();
+    }
+
+    private static boolean isTransient(RestStatus status) {
+        return status == null || status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * Une réponse arrivée après que {@link #close()} a cessé d'attendre est déjà comptée en échec : elle est
+     * seulement signalée. À appeler en tenant le verrou de <code>pending</code>.
+     *
+     * @return <code>true</code> si la réponse arrive trop tard.
+     */
+    private boolean late(long executionId, int itemCount) {
+        if (abandoned) {
+            System.out.println("Late response for bulk request #" + executionId + " (" + itemCount
+                    + " item(s)) after close, ignored");
+        }
+        return abandoned;
+    }
+
+    private class Listener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            bulkCount.incrementAndGet();
+            bulkBytes.addAndGet(request.estimatedSizeInBytes());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            List<ActionRequest> requests = request.requests();
+            synchronized (pending) {
+                if (late(executionId, requests.size())) {
+                    return;
+                }
+                for (BulkItemResponse item : response.getItems()) {
+                    ActionRequest itemRequest = requests.get(item.getItemId());
+                    if (item.isFailed()) {
+                        handleFailure(itemRequest, item.getFailure().getStatus(), item.getFailureMessage());
+                    } else {
+                        attempts.remove(itemRequest);
+                        succeeded.incrementAndGet();
+                        done();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            synchronized (pending) {
+                if (late(executionId, request.requests().size())) {
+                    return;
+                }
+                System.out.println("Bulk request #" + executionId + " failed : " + failure);
+                for (ActionRequest itemRequest : request.requests()) {
+                    handleFailure(itemRequest, null, failure.toString());
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,5 @@
 package nosql.workshop.batch.elasticsearch.util;
 
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.MongoClient;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkResponse;
@@ -19,19 +15,13 @@ public abstract class ElasticSearchBatchUtils {
     public static final String ES_DEFAULT_HOST = "172.17.3.218";
     public static final int ES_DEFAULT_PORT = 9300;
 
-    private ElasticSearchBatchUtils(){}
-
+    private static final Pattern DECIMAL_COMMAS = Pattern.compile("(.*\\d+),(\\d+,\\d+),(\\d+.*)");
 
-    public static DBCursor getMongoCursorToAllInstallations(MongoClient mongoClient) {
-        DB db = mongoClient.getDB("nosql-workshop");
-        DBCollection installationsCollection = db.getCollection("installations");
+    private ElasticSearchBatchUtils(){}
 
-        return installationsCollection.find();
-    }
 
     public static String handleComma(String line) {
-        Pattern pattern = Pattern.compile("(.*\\d+),(\\d+,\\d+),(\\d+.*)");
-        Matcher matcher = pattern.matcher(line);
+        Matcher matcher = DECIMAL_COMMAS.matcher(line);
 
         if(matcher.matches()){
             line = matcher.group(1) + "." + matcher.group(2) + "." + matcher.group(3);
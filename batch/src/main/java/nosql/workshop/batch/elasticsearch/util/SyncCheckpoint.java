@@ -0,0 +1,51 @@
+package nosql.workshop.batch.elasticsearch.util;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.Date;
+
+/**
+ * Point de reprise de la synchronisation MongoDB → Elasticsearch.
+ * <p>
+ * Conserve, dans la collection <code>syncState</code>, la plus grande date <code>dateMiseAJourFiche</code>
+ * indexée lors de la dernière synchronisation réussie. Cette collection n'est pas touchée par l'import CSV,
+ * qui signale ses imports dans sa propre collection ({@link nosql.workshop.batch.mongodb.CsvToMongoDb#IMPORT_STATE_COLLECTION}).
+ */
+public class SyncCheckpoint {
+
+    public static final String COLLECTION_NAME = "syncState";
+
+    private final DBCollection collection;
+    private final String name;
+
+    /**
+     * @param db   la base MongoDB.
+     * @param name l'identifiant de la synchronisation, par exemple le nom de l'index cible.
+     */
+    public SyncCheckpoint(DB db, String name) {
+        this.collection = db.getCollection(COLLECTION_NAME);
+        this.name = name;
+    }
+
+    /**
+     * @return la date de mise à jour la plus récente déjà indexée, ou <code>null</code> si aucune synchronisation
+     * n'a abouti.
+     */
+    public Date getHighWaterMark() {
+        DBObject state = collection.findOne(new BasicDBObject("_id", name));
+        return state == null ? null : (Date) state.get("highWaterMark");
+    }
+
+    /**
+     * Enregistre la date de mise à jour la plus récente indexée.
+     */
+    public void save(Date highWaterMark) {
+        DBObject state = new BasicDBObject("_id", name)
+                .append("highWaterMark", highWaterMark)
+                .append("lastRun", new Date());
+        collection.save(state);
+    }
+}
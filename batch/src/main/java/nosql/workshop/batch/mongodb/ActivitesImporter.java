@@ -3,9 +3,11 @@ package nosql.workshop.batch.mongodb;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.csv.CsvRow;
 
-import java.io.*;
-import java.util.Date;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 
 public class ActivitesImporter {
@@ -19,32 +21,25 @@ public class ActivitesImporter {
     }
 
     public void run() {
-        InputStream is = CsvToMongoDb.class.getResourceAsStream("/csv/activites.csv");
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            reader.lines()
-                    .skip(1)
-                    .filter(line -> line.length() > 0)
-                    .forEach(line -> updateEquipement(line));
+        try {
+            CsvReader.fromResource("/csv/activites.csv")
+                    .skipHeader()
+                    .forEach(this::updateEquipement);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private void updateEquipement(final String line) {
-        String[] columns = line
-                .substring(1, line.length() - 1)
-                .split("\",\"");
-
+    private void updateEquipement(final CsvRow row) {
         // Programmation défensive : certaines lignes n'ont pas d'activités de définies
-        if (columns.length >= 6) {
-            String equipementId = columns[2].trim();
+        if (!row.isEmpty(5)) {
+            String equipementId = row.getTrimmedString(2);
 
             DBObject toEdit ;
             BasicDBObject query = new BasicDBObject().append("equipements.numero", equipementId);
             BasicDBObject update = new BasicDBObject();
             update.append("$push",
-                    new BasicDBObject().append("equipements.$.activites", columns[5])
+                    new BasicDBObject().append("equipements.$.activites", row.getString(5))
             );
             installationsCollection.update(query,update);
 
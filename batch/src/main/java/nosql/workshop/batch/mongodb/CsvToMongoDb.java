@@ -1,14 +1,44 @@
 package nosql.workshop.batch.mongodb;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
 
+import java.nio.file.Paths;
+import java.util.Date;
+
 /**
  * Importe les données issues des fichiers CSV dans la base MongoDB.
+ * <p>
+ * Les propriétés système <code>import.batchSize</code> et <code>import.queueCapacity</code> permettent
+ * de régler l'import par lots des installations (<code>-Dimport.batchSize=1</code> pour un <code>save()</code> par ligne).
+ * <code>-Dimport.engine=join</code> utilise le {@link JoinImporter}, qui écrit chaque installation complète en une fois
+ * (nombre de partitions réglable via <code>import.partitions</code>).
+ * <p>
+ * L'import terminé, un instantané binaire des installations est écrit dans le fichier <code>import.snapshot</code>
+ * (<code>installations.snapshot</code> par défaut, vide pour ne pas l'écrire), voir {@link InstallationsSnapshotWriter}.
+ * Les index de la collection, supprimés avec elle, sont recréés avant que l'import ne soit signalé
+ * (voir {@link InstallationsIndexes}).
  */
 public class CsvToMongoDb {
 
+    public static final String BATCH_SIZE_PROPERTY = "import.batchSize";
+    public static final String QUEUE_CAPACITY_PROPERTY = "import.queueCapacity";
+    public static final String ENGINE_PROPERTY = "import.engine";
+    public static final String PARTITIONS_PROPERTY = "import.partitions";
+    public static final String JOIN_ENGINE = "join";
+    public static final String SNAPSHOT_PROPERTY = "import.snapshot";
+    public static final String DEFAULT_SNAPSHOT = "installations.snapshot";
+
+    /**
+     * Document <code>{_id: "csvImport", lastRun: date}</code> mis à jour à la fin de chaque import réussi, que
+     * l'application surveille. Collection distincte de celle des points de reprise de la synchronisation
+     * Elasticsearch.
+     */
+    public static final String IMPORT_STATE_COLLECTION = "importState";
+    public static final String IMPORT_STATE_ID = "csvImport";
+
     public static void main(String[] args) {
         MongoClient mongoClient = null;
         try {
@@ -21,14 +51,38 @@ public class CsvToMongoDb {
             installationsCollection.drop();
 
             // Import des données
-            new InstallationsImporter(installationsCollection).run();
-            System.out.println("installations Ok");
+            int batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, MongoBulkWriter.DEFAULT_BATCH_SIZE);
+            int queueCapacity = Integer.getInteger(QUEUE_CAPACITY_PROPERTY, MongoBulkWriter.DEFAULT_QUEUE_CAPACITY);
+            if (JOIN_ENGINE.equals(System.getProperty(ENGINE_PROPERTY))) {
+                int partitions = Integer.getInteger(PARTITIONS_PROPERTY, JoinImporter.DEFAULT_PARTITION_COUNT);
+                new JoinImporter(installationsCollection, partitions, batchSize, queueCapacity).run();
+                System.out.println("installations, equipements, activites Ok");
+            } else {
+                new InstallationsImporter(installationsCollection, batchSize, queueCapacity).run();
+                System.out.println("installations Ok");
+
+                new EquipementsImporter(installationsCollection).run();
+                System.out.println("equipements Ok");
 
-            new EquipementsImporter(installationsCollection).run();
-            System.out.println("equipements Ok");
+                new ActivitesImporter(installationsCollection).run();
+                System.out.println("activites Ok");
+            }
+
+            // Index dont dépend l'application, supprimés avec la collection : recréés avant de signaler l'import
+            InstallationsIndexes.create(installationsCollection);
+            System.out.println("indexes Ok");
+
+            // Instantané des installations, de même version que l'import signalé ci-dessous
+            Date lastRun = new Date();
+            String snapshot = System.getProperty(SNAPSHOT_PROPERTY, DEFAULT_SNAPSHOT);
+            if (!snapshot.isEmpty()) {
+                int count = new InstallationsSnapshotWriter(installationsCollection).write(Paths.get(snapshot), lastRun.getTime());
+                System.out.println("snapshot Ok : " + count + " installations in " + snapshot);
+            }
 
-            new ActivitesImporter(installationsCollection).run();
-            System.out.println("activites Ok");
+            // Signale le rechargement à l'application, qui vide alors ses caches
+            db.getCollection(IMPORT_STATE_COLLECTION)
+                    .save(new BasicDBObject("_id", IMPORT_STATE_ID).append("lastRun", lastRun));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -3,12 +3,13 @@ package nosql.workshop.batch.mongodb;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.csv.CsvRow;
 
-import java.io.*;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 
 public class EquipementsImporter {
 
@@ -21,38 +22,35 @@ public class EquipementsImporter {
     }
 
     public void run() {
-        InputStream is = CsvToMongoDb.class.getResourceAsStream("/csv/equipements.csv");
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            reader.lines()
-                    .skip(1)
-                    .filter(line -> line.length() > 0)
-                    .forEach(line -> updateInstallation(line));
+        try {
+            CsvReader.fromResource("/csv/equipements.csv")
+                    .skipHeader()
+                    .forEach(this::updateInstallation);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private void updateInstallation(final String line) {
-        String[] columns = line.split(",");
+    private void updateInstallation(final CsvRow row) {
+        String installationId = row.getTrimmedString(2);
 
         DBObject toEdit ;
         BasicDBObject query = new BasicDBObject();
-        query.put("_id", columns[2]);
+        query.put("_id", installationId);
 
-        if (!installs.containsKey(columns[2])) {
+        if (!installs.containsKey(installationId)) {
             toEdit = this.installationsCollection.findOne(query);
-            installs.put(columns[2], toEdit);
+            installs.put(installationId, toEdit);
         }else{
-            toEdit = installs.get(columns[2]);
+            toEdit = installs.get(installationId);
         }
         toEdit.put("dateMiseAJourFiche", new Date());
 
         BasicDBObject dbObject = new BasicDBObject();
-        dbObject.put("numero",columns[4]);
-        dbObject.put("nom", columns[4]);
-        dbObject.put("type", columns[7]);
-        dbObject.put("famille", columns[8]);
+        dbObject.put("numero", row.getString(4));
+        dbObject.put("nom", row.getString(4));
+        dbObject.put("type", row.getString(7));
+        dbObject.put("famille", row.getString(8));
 
         DBObject listItem = new BasicDBObject("equipements", dbObject);
         DBObject updateQuery = new BasicDBObject("$push", listItem);
@@ -3,10 +3,11 @@ package nosql.workshop.batch.mongodb;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.csv.CsvRow;
 
-import java.io.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Date;
 
 /**
@@ -15,75 +16,82 @@ import java.util.Date;
 public class InstallationsImporter {
 
     private final DBCollection installationsCollection;
+    private final int batchSize;
+    private final int queueCapacity;
 
 
     public InstallationsImporter(DBCollection installationsCollection) {
+        this(installationsCollection, 1, 0);
+    }
+
+    /**
+     * @param installationsCollection la collection cible.
+     * @param batchSize               nombre de documents par écriture bulk (1 pour un <code>save()</code> par ligne).
+     * @param queueCapacity           taille de la file entre le parsing et l'écriture.
+     */
+    public InstallationsImporter(DBCollection installationsCollection, int batchSize, int queueCapacity) {
         this.installationsCollection = installationsCollection;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
     }
 
     public void run() {
-        InputStream is = CsvToMongoDb.class.getResourceAsStream("/csv/installations.csv");
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            reader.lines()
-                    .skip(1)
-                    .filter(line -> line.length() > 0)
-                    .forEach(line -> installationsCollection.save(toDbObject(line)));
+        if (batchSize > 1) {
+            runBulk();
+            return;
+        }
+        try {
+            CsvReader.fromResource("/csv/installations.csv")
+                    .skipHeader()
+                    .parallelForEach(row -> installationsCollection.save(toDbObject(row)));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private DBObject toDbObject(final String line) {
-        String[] columns = line.substring(1, line.length() - 1).split("\",\"");
+    /**
+     * Import par lots : le parsing se fait en parallèle, l'écriture dans le thread du {@link MongoBulkWriter}.
+     */
+    private void runBulk() {
+        try (MongoBulkWriter writer = new MongoBulkWriter(installationsCollection, batchSize, queueCapacity)) {
+            CsvReader.fromResource("/csv/installations.csv")
+                    .skipHeader()
+                    .parallelForEach(row -> writer.write(toDbObject(row)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
+    /**
+     * Convertit une ligne de <code>installations.csv</code> en document MongoDB, sans équipements.
+     */
+    public static DBObject toDbObject(final CsvRow row) {
         BasicDBObject dbObject = new BasicDBObject();
-        dbObject.put("_id", columns[1]);
-        dbObject.put("nom", columns[0]);
+        dbObject.put("_id", row.getTrimmedString(1));
+        dbObject.put("nom", row.getString(0));
 
         BasicDBObject adresseObject = new BasicDBObject();
-        adresseObject.put("numero", columns[6]);
-        adresseObject.put("voie", columns[7]);
-        adresseObject.put("lieuDit", columns[5]);
-        adresseObject.put("codePostal",columns[4] );
-        adresseObject.put("commune", columns[2]);
+        adresseObject.put("numero", row.getString(6));
+        adresseObject.put("voie", row.getString(7));
+        adresseObject.put("lieuDit", row.getString(5));
+        adresseObject.put("codePostal", row.getString(4));
+        adresseObject.put("commune", row.getString(2));
         dbObject.put("adresse", adresseObject);
 
         BasicDBObject locationObject = new BasicDBObject();
         locationObject.put("type", "Point");
         double[] locations = new double[2];
-        locations[0] = Double.parseDouble(columns[9]);
-        locations[1] = Double.parseDouble(columns[10]);
+        locations[0] = row.getDouble(9);
+        locations[1] = row.getDouble(10);
         locationObject.put("coordinates", locations);
         dbObject.put("location",locationObject);
 
+        dbObject.put("multiCommune", row.equalsIgnoreCase(16, "true"));
+        dbObject.put("nbPlacesParking", row.getInt(17, 0));
+        dbObject.put("nbPlacesParkingHandicapes", row.getInt(18, 0));
 
-        try {
-            dbObject.put("multiCommune", Boolean.parseBoolean(columns[16]));
-        } catch (NumberFormatException e) {
-            dbObject.put("multiCommune",0);
-        }
-        try {
-            dbObject.put("nbPlacesParking", Integer.parseInt(columns[17]));
-        } catch (NumberFormatException e) {
-            dbObject.put("nbPlacesParking", 0);
-        }
-        try {
-            dbObject.put("nbPlacesParkingHandicapes", Integer.parseInt(columns[18]));
-        } catch (NumberFormatException e) {
-            dbObject.put("nbPlacesParkingHandicapes", 0);
-        }
-
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MMM-dd");
-
-
-        try {
-            Date date = formatter.parse(columns[28]);
-            dbObject.put("dateMiseAJourFiche", date);
-        } catch (ParseException | ArrayIndexOutOfBoundsException e) {
-            dbObject.put("dateMiseAJourFiche", new Date());
-        }
-
+        Date date = row.getDate(28);
+        dbObject.put("dateMiseAJourFiche", date != null ? date : new Date());
 
         return dbObject;
     }
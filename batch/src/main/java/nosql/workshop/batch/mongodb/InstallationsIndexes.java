@@ -0,0 +1,50 @@
+package nosql.workshop.batch.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+/**
+ * Index MongoDB de la collection <code>installations</code> dont dépendent les requêtes de l'application
+ * (déclarés dans son <code>IndexRegistry</code>).
+ * <p>
+ * L'import supprimant la collection avec ses index, {@link CsvToMongoDb} les recrée avant de signaler la fin
+ * de l'import, afin que l'application ne serve jamais la nouvelle collection sans eux.
+ */
+public final class InstallationsIndexes {
+
+    /**
+     * Index texte français sur le nom et la commune. Le nom est celui que MongoDB donne par défaut,
+     * afin de reconnaître l'index créé par les versions précédentes.
+     */
+    public static final String TEXT_INDEX = "nom_text_adresse.commune_text";
+
+    /**
+     * Index géographique utilisé par <code>$near</code> et <code>$geoWithin</code>.
+     */
+    public static final String LOCATION_INDEX = "location_2dsphere";
+
+    private InstallationsIndexes() {
+    }
+
+    public static DBObject textKeys() {
+        return new BasicDBObject("nom", "text").append("adresse.commune", "text");
+    }
+
+    public static DBObject textOptions() {
+        return new BasicDBObject("weights", new BasicDBObject("nom", 3).append("adresse.commune", 10))
+                .append("default_language", "french");
+    }
+
+    public static DBObject locationKeys() {
+        return new BasicDBObject("location", "2dsphere");
+    }
+
+    /**
+     * Crée les index qui manquent ; ceux qui existent déjà sont laissés tels quels.
+     */
+    public static void create(DBCollection installations) {
+        installations.createIndex(textKeys(), new BasicDBObject(textOptions().toMap()).append("name", TEXT_INDEX));
+        installations.createIndex(locationKeys(), new BasicDBObject("name", LOCATION_INDEX));
+    }
+}
@@ -0,0 +1,222 @@
+package nosql.workshop.batch.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Écrit un instantané binaire de la collection <code>installations</code>, que l'application projette en mémoire
+ * pour servir les lectures sans MongoDB (voir <code>InstallationSnapshot</code> dans l'application).
+ * <p>
+ * Format, en big-endian, les installations étant triées par numéro :
+ * <ul>
+ * <li>en-tête : <code>int</code> {@link #MAGIC}, <code>int</code> {@link #FORMAT_VERSION}, <code>long</code> version
+ * des données (date de l'import, en ms), puis <code>int</code> nombre d'installations <i>n</i>, nombre de chaînes
+ * <i>s</i>, taille des chaînes et taille des équipements en octets ;</li>
+ * <li>dictionnaire : <code>int[s + 1]</code> positions des chaînes, suivies des chaînes en UTF-8 ;</li>
+ * <li>colonnes de <i>n</i> valeurs : numéro, nom, numéro de voie, voie, lieu-dit, code postal et commune
+ * (<code>int</code>, indice dans le dictionnaire, -1 si absent), longitude et latitude (<code>double</code>,
+ * <code>NaN</code> sans localisation), places de parking et places handicapés (<code>int</code>), date de mise à jour
+ * (<code>long</code>, {@link Long#MIN_VALUE} si absente), indicateurs (<code>byte</code>, voir <code>FLAG_*</code>) ;</li>
+ * <li><code>int[n + 1]</code> positions des équipements de chaque installation, puis les équipements : numéro, nom,
+ * type, famille, nombre d'activités (-1 si la liste est absente) et activités, tous en <code>int</code>.</li>
+ * </ul>
+ * Le fichier est écrit à côté de sa destination puis renommé : une application qui projette l'ancien fichier
+ * continue de le lire jusqu'à ce qu'elle charge le nouveau.
+ */
+public class InstallationsSnapshotWriter {
+
+    public static final int MAGIC = 0x4E57534E;
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int FLAG_MULTI_COMMUNE = 1;
+    public static final int FLAG_ADRESSE = 2;
+    public static final int FLAG_EQUIPEMENTS = 4;
+
+    private static final int NONE = -1;
+
+    private final DBCollection installationsCollection;
+
+    public InstallationsSnapshotWriter(DBCollection installationsCollection) {
+        this.installationsCollection = installationsCollection;
+    }
+
+    /**
+     * Lit toutes les installations et écrit l'instantané.
+     *
+     * @param file    le fichier à créer ou remplacer.
+     * @param version la version des données, reprise par l'application pour détecter un nouvel instantané.
+     * @return le nombre d'installations écrites.
+     */
+    public int write(Path file, long version) throws IOException {
+        List<DBObject> installations = new ArrayList<>();
+        try (DBCursor cursor = installationsCollection.find().sort(new BasicDBObject("_id", 1))) {
+            while (cursor.hasNext()) {
+                installations.add(cursor.next());
+            }
+        }
+        return write(file, version, installations);
+    }
+
+    /**
+     * Écrit l'instantané d'installations déjà lues, dans un ordre quelconque.
+     *
+     * @param installations les documents de la collection <code>installations</code>, triés par la méthode.
+     * @return le nombre d'installations écrites.
+     */
+    public static int write(Path file, long version, List<DBObject> installations) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        installations = new ArrayList<>(installations);
+        // même ordre que String.compareTo, utilisé par la recherche dichotomique de l'application
+        installations.sort((a, b) -> String.valueOf(a.get("_id")).compareTo(String.valueOf(b.get("_id"))));
+
+        int count = installations.size();
+        int[][] columns = new int[9][count];
+        double[] longitudes = new double[count];
+        double[] latitudes = new double[count];
+        long[] dates = new long[count];
+        byte[] flags = new byte[count];
+        int[] equipementOffsets = new int[count + 1];
+        List<int[]> equipements = new ArrayList<>();
+        int equipementBytes = 0;
+
+        for (int i = 0; i < count; i++) {
+            DBObject installation = installations.get(i);
+            columns[0][i] = intern(strings, String.valueOf(installation.get("_id")));
+            columns[1][i] = intern(strings, installation.get("nom"));
+            DBObject adresse = (DBObject) installation.get("adresse");
+            if (adresse != null) {
+                flags[i] |= FLAG_ADRESSE;
+                columns[2][i] = intern(strings, adresse.get("numero"));
+                columns[3][i] = intern(strings, adresse.get("voie"));
+                columns[4][i] = intern(strings, adresse.get("lieuDit"));
+                columns[5][i] = intern(strings, adresse.get("codePostal"));
+                columns[6][i] = intern(strings, adresse.get("commune"));
+            } else {
+                for (int c = 2; c <= 6; c++) {
+                    columns[c][i] = NONE;
+                }
+            }
+            DBObject location = (DBObject) installation.get("location");
+            List<?> coordinates = location == null ? null : (List<?>) location.get("coordinates");
+            boolean located = coordinates != null && coordinates.size() >= 2;
+            longitudes[i] = located ? ((Number) coordinates.get(0)).doubleValue() : Double.NaN;
+            latitudes[i] = located ? ((Number) coordinates.get(1)).doubleValue() : Double.NaN;
+            columns[7][i] = intValue(installation.get("nbPlacesParking"));
+            columns[8][i] = intValue(installation.get("nbPlacesParkingHandicapes"));
+            Object date = installation.get("dateMiseAJourFiche");
+            dates[i] = date instanceof Date ? ((Date) date).getTime() : Long.MIN_VALUE;
+            if (Boolean.TRUE.equals(installation.get("multiCommune"))) {
+                flags[i] |= FLAG_MULTI_COMMUNE;
+            }
+
+            equipementOffsets[i] = equipementBytes;
+            List<?> items = (List<?>) installation.get("equipements");
+            if (items != null) {
+                flags[i] |= FLAG_EQUIPEMENTS;
+                for (Object item : items) {
+                    int[] equipement = equipement(strings, (DBObject) item);
+                    equipements.add(equipement);
+                    equipementBytes += equipement.length * Integer.BYTES;
+                }
+            }
+        }
+        equipementOffsets[count] = equipementBytes;
+
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        int stringBytes = 0;
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            stringBytes += bytes.length;
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(version);
+            output.writeInt(count);
+            output.writeInt(strings.size());
+            output.writeInt(stringBytes);
+            output.writeInt(equipementBytes);
+
+            int position = 0;
+            for (byte[] bytes : encoded) {
+                output.writeInt(position);
+                position += bytes.length;
+            }
+            output.writeInt(position);
+            for (byte[] bytes : encoded) {
+                output.write(bytes);
+            }
+
+            for (int c = 0; c < 7; c++) {
+                writeInts(output, columns[c]);
+            }
+            for (double longitude : longitudes) {
+                output.writeDouble(longitude);
+            }
+            for (double latitude : latitudes) {
+                output.writeDouble(latitude);
+            }
+            writeInts(output, columns[7]);
+            writeInts(output, columns[8]);
+            for (long date : dates) {
+                output.writeLong(date);
+            }
+            output.write(flags);
+            writeInts(output, equipementOffsets);
+            for (int[] equipement : equipements) {
+                writeInts(output, equipement);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static int[] equipement(Map<String, Integer> strings, DBObject equipement) {
+        List<?> activites = (List<?>) equipement.get("activites");
+        int[] values = new int[5 + (activites == null ? 0 : activites.size())];
+        values[0] = intern(strings, equipement.get("numero"));
+        values[1] = intern(strings, equipement.get("nom"));
+        values[2] = intern(strings, equipement.get("type"));
+        values[3] = intern(strings, equipement.get("famille"));
+        values[4] = activites == null ? NONE : activites.size();
+        for (int a = 0; activites != null && a < activites.size(); a++) {
+            values[5 + a] = intern(strings, activites.get(a));
+        }
+        return values;
+    }
+
+    private static int intern(Map<String, Integer> strings, Object value) {
+        if (value == null) {
+            return NONE;
+        }
+        return strings.computeIfAbsent(value.toString(), string -> strings.size());
+    }
+
+    private static int intValue(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+}
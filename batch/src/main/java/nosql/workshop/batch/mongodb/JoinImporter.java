@@ -0,0 +1,151 @@
+package nosql.workshop.batch.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.csv.CsvRow;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Importe les installations, leurs équipements et leurs activités en une seule écriture par installation.
+ * <p>
+ * Les trois fichiers CSV sont lus une fois et répartis dans des partitions temporaires ({@link SpillPartitions}),
+ * puis joints partition par partition : activités → équipements (sur le numéro d'équipement),
+ * puis équipements → installations (sur le numéro d'installation). Les numéros sont joints sans les espaces
+ * qui les entourent, comme l'<code>_id</code> écrit par {@link InstallationsImporter#toDbObject}.
+ * Seule une partition est en mémoire à un instant donné, la mémoire utilisée est donc de l'ordre de
+ * <code>taille des données / partitionCount</code>.
+ * Chaque installation complète est ensuite écrite via un {@link MongoBulkWriter}.
+ */
+public class JoinImporter {
+
+    public static final int DEFAULT_PARTITION_COUNT = 8;
+
+    private final DBCollection installationsCollection;
+    private final int partitionCount;
+    private final int batchSize;
+    private final int queueCapacity;
+
+    public JoinImporter(DBCollection installationsCollection) {
+        this(installationsCollection, DEFAULT_PARTITION_COUNT, MongoBulkWriter.DEFAULT_BATCH_SIZE, MongoBulkWriter.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public JoinImporter(DBCollection installationsCollection, int partitionCount, int batchSize, int queueCapacity) {
+        this.installationsCollection = installationsCollection;
+        this.partitionCount = partitionCount;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void run() {
+        Path workDirectory = null;
+        try {
+            workDirectory = Files.createTempDirectory("nosql-workshop-import");
+            try (SpillPartitions activites = new SpillPartitions(workDirectory, "activites", partitionCount);
+                 SpillPartitions equipements = new SpillPartitions(workDirectory, "equipements", partitionCount);
+                 SpillPartitions equipementsByInstallation = new SpillPartitions(workDirectory, "equipements-by-installation", partitionCount);
+                 SpillPartitions installations = new SpillPartitions(workDirectory, "installations", partitionCount)) {
+
+                CsvReader.fromResource("/csv/activites.csv").skipHeader().forEach(row -> spillActivite(row, activites));
+                CsvReader.fromResource("/csv/equipements.csv").skipHeader().forEach(row -> spillEquipement(row, equipements));
+                CsvReader.fromResource("/csv/installations.csv").skipHeader().forEach(row ->
+                        installations.add(row.getTrimmedString(1), row.getLine()));
+
+                for (int partition = 0; partition < partitionCount; partition++) {
+                    joinActivites(partition, activites, equipements, equipementsByInstallation);
+                }
+
+                try (MongoBulkWriter writer = new MongoBulkWriter(installationsCollection, batchSize, queueCapacity)) {
+                    for (int partition = 0; partition < partitionCount; partition++) {
+                        joinEquipements(partition, equipementsByInstallation, installations, writer);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (workDirectory != null) {
+                workDirectory.toFile().delete();
+            }
+        }
+    }
+
+    private void spillActivite(CsvRow row, SpillPartitions activites) {
+        // Programmation défensive : certaines lignes n'ont pas d'activités de définies
+        if (!row.isEmpty(5)) {
+            activites.add(row.getTrimmedString(2), row.getString(5));
+        }
+    }
+
+    private void spillEquipement(CsvRow row, SpillPartitions equipements) {
+        // numero, installation, nom, type, famille
+        equipements.add(row.getTrimmedString(4), row.getTrimmedString(2), row.getString(4), row.getString(7), row.getString(8));
+    }
+
+    /**
+     * Rattache les activités aux équipements d'une partition, puis répartit les équipements
+     * complétés selon leur numéro d'installation.
+     */
+    private void joinActivites(int partition, SpillPartitions activites, SpillPartitions equipements,
+                               SpillPartitions equipementsByInstallation) throws IOException {
+        Map<String, List<String>> activitesByEquipement = new HashMap<>();
+        activites.forEach(partition, record ->
+                activitesByEquipement.computeIfAbsent(record[0], key -> new ArrayList<>()).add(record[1]));
+
+        equipements.forEach(partition, record -> {
+            List<String> equipementActivites = activitesByEquipement.getOrDefault(record[0], Collections.emptyList());
+            // installation, numero, nom, type, famille, activites...
+            String[] fields = new String[4 + equipementActivites.size()];
+            fields[0] = record[0];
+            fields[1] = record[2];
+            fields[2] = record[3];
+            fields[3] = record[4];
+            for (int i = 0; i < equipementActivites.size(); i++) {
+                fields[4 + i] = equipementActivites.get(i);
+            }
+            equipementsByInstallation.add(record[1], fields);
+        });
+    }
+
+    /**
+     * Rattache les équipements aux installations d'une partition et écrit chaque installation complète.
+     */
+    private void joinEquipements(int partition, SpillPartitions equipementsByInstallation, SpillPartitions installations,
+                                 MongoBulkWriter writer) throws IOException {
+        Map<String, List<DBObject>> equipementsByNumero = new HashMap<>();
+        equipementsByInstallation.forEach(partition, record ->
+                equipementsByNumero.computeIfAbsent(record[0], key -> new ArrayList<>()).add(toEquipement(record)));
+
+        installations.forEach(partition, record -> {
+            DBObject installation = InstallationsImporter.toDbObject(CsvRow.parse(record[1]));
+            List<DBObject> equipements = equipementsByNumero.remove(record[0]);
+            if (equipements != null) {
+                installation.put("equipements", equipements);
+            }
+            writer.write(installation);
+        });
+
+        if (!equipementsByNumero.isEmpty()) {
+            System.out.println("Partition " + partition + " : " + equipementsByNumero.size()
+                    + " installations referenced by equipements.csv are missing from installations.csv");
+        }
+    }
+
+    private static DBObject toEquipement(String[] record) {
+        BasicDBObject equipement = new BasicDBObject();
+        equipement.put("numero", record[1]);
+        equipement.put("nom", record[2]);
+        equipement.put("type", record[3]);
+        equipement.put("famille", record[4]);
+        if (record.length > 5) {
+            equipement.put("activites", new ArrayList<>(Arrays.asList(record).subList(5, record.length)));
+        }
+        return equipement;
+    }
+}
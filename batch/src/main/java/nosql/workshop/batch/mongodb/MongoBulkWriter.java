@@ -0,0 +1,162 @@
+package nosql.workshop.batch.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Écrit des documents dans une collection MongoDB par lots non ordonnés.
+ * <p>
+ * Le thread appelant (qui parse le CSV) dépose les documents dans une file bornée ;
+ * un thread dédié les regroupe en lots de <code>batchSize</code> documents et les envoie
+ * en une seule requête bulk. Chaque document est écrit en upsert sur son <code>_id</code>,
+ * ce qui conserve la sémantique de <code>DBCollection.save()</code>.
+ */
+public class MongoBulkWriter implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /**
+     * Marqueur de fin de flux déposé dans la file à la fermeture.
+     */
+    private static final DBObject END_OF_STREAM = new BasicDBObject();
+
+    private final DBCollection collection;
+    private final int batchSize;
+    private final BlockingQueue<DBObject> queue;
+    private final Thread writerThread;
+
+    private volatile RuntimeException failure;
+    private long writtenCount;
+    private long batchCount;
+    private long writeTimeNanos;
+    private final long startTime;
+
+    public MongoBulkWriter(DBCollection collection) {
+        this(collection, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public MongoBulkWriter(DBCollection collection, int batchSize, int queueCapacity) {
+        if (batchSize <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("batchSize and queueCapacity must be positive");
+        }
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writerThread = new Thread(this::writeLoop, "mongo-bulk-writer-" + collection.getName());
+        this.startTime = System.currentTimeMillis();
+        this.writerThread.start();
+    }
+
+    /**
+     * Ajoute un document à écrire. Bloque si la file est pleine.
+     *
+     * @param document le document à écrire.
+     */
+    public void write(DBObject document) {
+        checkFailure();
+        try {
+            while (!queue.offer(document, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+                if (!writerThread.isAlive()) {
+                    throw new IllegalStateException("Bulk writer stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queuing document", e);
+        }
+    }
+
+    /**
+     * Attend l'écriture des documents restants puis affiche le bilan de l'import.
+     */
+    @Override
+    public void close() {
+        try {
+            while (failure == null && writerThread.isAlive() && !queue.offer(END_OF_STREAM, 100, TimeUnit.MILLISECONDS)) {
+                // le thread d'écriture vide la file, ou s'est arrêté sur une erreur
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for bulk writer", e);
+        }
+        checkFailure();
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        System.out.println(collection.getName() + " : " + writtenCount + " documents in " + batchCount + " batches, "
+                + elapsed + " ms (" + rate(writtenCount, elapsed) + " docs/s, "
+                + TimeUnit.NANOSECONDS.toMillis(writeTimeNanos) + " ms spent in bulk writes)");
+    }
+
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    private void writeLoop() {
+        List<DBObject> batch = new ArrayList<>(batchSize);
+        try {
+            boolean endOfStream = false;
+            while (!endOfStream) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                int last = batch.size() - 1;
+                if (batch.get(last) == END_OF_STREAM) {
+                    batch.remove(last);
+                    endOfStream = true;
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new IllegalStateException("Bulk writer interrupted", e);
+        } catch (RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            // par exemple un OutOfMemoryError en constituant un lot : signalé à l'appelant, puis propagé
+            failure = new IllegalStateException("Bulk writer failed", e);
+            throw e;
+        }
+    }
+
+    private void flush(List<DBObject> batch) {
+        long start = System.nanoTime();
+
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (DBObject document : batch) {
+            bulk.find(new BasicDBObject("_id", document.get("_id"))).upsert().replaceOne(document);
+        }
+        bulk.execute();
+
+        long elapsed = System.nanoTime() - start;
+        writeTimeNanos += elapsed;
+        writtenCount += batch.size();
+        batchCount++;
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        System.out.println("Batch #" + batchCount + " : " + batch.size() + " documents in " + elapsedMs + " ms ("
+                + rate(batch.size(), elapsedMs) + " docs/s)");
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static long rate(long count, long elapsedMs) {
+        return elapsedMs == 0 ? count * 1000 : count * 1000 / elapsedMs;
+    }
+}
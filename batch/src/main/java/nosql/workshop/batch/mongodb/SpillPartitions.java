@@ -0,0 +1,101 @@
+package nosql.workshop.batch.mongodb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Répartit des enregistrements dans des fichiers temporaires selon le hash de leur clé.
+ * <p>
+ * Deux enregistrements de même clé tombent toujours dans la même partition : une jointure
+ * peut donc se faire partition par partition, en ne gardant en mémoire qu'une fraction des données.
+ * Le premier champ de chaque enregistrement relu est sa clé.
+ */
+class SpillPartitions implements Closeable {
+
+    private final Path[] files;
+    private final DataOutputStream[] outputs;
+    private boolean finished;
+
+    SpillPartitions(Path directory, String name, int partitionCount) throws IOException {
+        this.files = new Path[partitionCount];
+        this.outputs = new DataOutputStream[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            files[i] = directory.resolve(name + "-" + i + ".bin");
+            outputs[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[i])));
+        }
+    }
+
+    int partitionCount() {
+        return files.length;
+    }
+
+    /**
+     * Ajoute un enregistrement dans la partition de sa clé.
+     *
+     * @param key    la clé de jointure.
+     * @param fields les autres champs de l'enregistrement.
+     */
+    void add(String key, String... fields) {
+        DataOutputStream output = outputs[partitionOf(key)];
+        try {
+            output.writeShort(fields.length + 1);
+            output.writeUTF(key);
+            for (String field : fields) {
+                output.writeUTF(field == null ? "" : field);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Termine l'écriture des partitions. Aucun ajout n'est possible ensuite.
+     */
+    void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            for (DataOutputStream output : outputs) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Relit tous les enregistrements d'une partition.
+     *
+     * @param partition le numéro de la partition.
+     * @param consumer  reçoit chaque enregistrement, clé en première position.
+     */
+    void forEach(int partition, Consumer<String[]> consumer) throws IOException {
+        finish();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(files[partition])))) {
+            while (true) {
+                int fieldCount;
+                try {
+                    fieldCount = input.readUnsignedShort();
+                } catch (EOFException e) {
+                    return;
+                }
+                String[] record = new String[fieldCount];
+                for (int i = 0; i < fieldCount; i++) {
+                    record[i] = input.readUTF();
+                }
+                consumer.accept(record);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private int partitionOf(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % files.length;
+    }
+}
@@ -0,0 +1,39 @@
+package nosql.workshop.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Point d'entrée du jar des benchmarks : <code>java -jar benchmarks/target/benchmarks.jar [options JMH]</code>.
+ * <p>
+ * Les options sont celles de JMH ; le profileur GC est ajouté si aucun profileur n'est demandé, pour mesurer
+ * les allocations (<code>gc.alloc.rate.norm</code>, en octets par opération). {@link SearchProfileBenchmark},
+ * qui a besoin d'un Elasticsearch alimenté, n'est lancé que si <code>-Des.host</code> est précisé ou s'il est
+ * demandé explicitement.
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (options.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        if (options.getIncludes().isEmpty() && System.getProperty("es.host") == null) {
+            builder.exclude(SearchProfileBenchmark.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,145 @@
+package nosql.workshop.benchmarks;
+
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.elasticsearch.util.ElasticSearchBatchUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Compare le parsing historique des imports (split, substring, regex, SimpleDateFormat par ligne)
+ * avec le {@link CsvReader}, sur les fichiers CSV fournis avec le module batch.
+ * <p>
+ * Chaque benchmark lit le fichier complet et extrait les mêmes colonnes que les importers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CsvParsingBenchmark {
+
+    private Path installations;
+    private Path towns;
+
+    @Setup
+    public void extractFiles() throws IOException {
+        installations = extract("/csv/installations.csv");
+        towns = extract("/csv/towns_paysdeloire.csv");
+    }
+
+    @TearDown
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(installations);
+        Files.deleteIfExists(towns);
+    }
+
+    @Benchmark
+    public void installationsLegacy(Blackhole blackhole) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(installations, StandardCharsets.UTF_8)) {
+            reader.lines()
+                    .skip(1)
+                    .filter(line -> line.length() > 0)
+                    .forEach(line -> {
+                        String[] columns = line.substring(1, line.length() - 1).split("\",\"");
+                        blackhole.consume(columns[1]);
+                        blackhole.consume(columns[0]);
+                        blackhole.consume(Double.parseDouble(columns[9]));
+                        blackhole.consume(Double.parseDouble(columns[10]));
+                        blackhole.consume(parseIntOrZero(columns[17]));
+                        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MMM-dd");
+                        try {
+                            blackhole.consume(formatter.parse(columns[28]));
+                        } catch (ParseException | ArrayIndexOutOfBoundsException e) {
+                            blackhole.consume(new Date());
+                        }
+                    });
+        }
+    }
+
+    @Benchmark
+    public void installationsCsvReader(Blackhole blackhole) throws IOException {
+        CsvReader.open(installations)
+                .skipHeader()
+                .forEach(row -> {
+                    blackhole.consume(row.getString(1));
+                    blackhole.consume(row.getString(0));
+                    blackhole.consume(row.getDouble(9));
+                    blackhole.consume(row.getDouble(10));
+                    blackhole.consume(row.getInt(17, 0));
+                    blackhole.consume(row.getDate(28));
+                });
+    }
+
+    /**
+     * Version parallèle : le Blackhole n'étant pas thread-safe, les valeurs sont agrégées puis consommées.
+     */
+    @Benchmark
+    public double installationsCsvReaderParallel() throws IOException {
+        DoubleAdder sum = new DoubleAdder();
+        CsvReader.open(installations)
+                .skipHeader()
+                .parallelForEach(row -> {
+                    sum.add(row.getString(1).length() + row.getString(0).length());
+                    sum.add(row.getDouble(9) + row.getDouble(10) + row.getInt(17, 0));
+                    Date date = row.getDate(28);
+                    sum.add(date == null ? 0 : 1);
+                });
+        return sum.sum();
+    }
+
+    @Benchmark
+    public void townsLegacy(Blackhole blackhole) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(towns, StandardCharsets.UTF_8)) {
+            reader.lines()
+                    .skip(1)
+                    .filter(line -> line.length() > 0)
+                    .forEach(line -> {
+                        String[] split = ElasticSearchBatchUtils.handleComma(line).split(",");
+                        blackhole.consume(split[1].replaceAll("\"", ""));
+                        blackhole.consume(Double.valueOf(split[6]));
+                        blackhole.consume(Double.valueOf(split[7]));
+                    });
+        }
+    }
+
+    @Benchmark
+    public void townsCsvReader(Blackhole blackhole) throws IOException {
+        CsvReader.open(towns)
+                .skipHeader()
+                .forEach(row -> {
+                    blackhole.consume(row.getString(1));
+                    blackhole.consume(Double.valueOf(row.getTrimmedString(6) + "." + row.getTrimmedString(7)));
+                    blackhole.consume(Double.valueOf(row.getTrimmedString(8) + "." + row.getTrimmedString(9)));
+                });
+    }
+
+    private static int parseIntOrZero(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Path extract(String resource) throws IOException {
+        Path file = Files.createTempFile("benchmark", ".csv");
+        try (InputStream is = CsvParsingBenchmark.class.getResourceAsStream(resource)) {
+            Files.copy(is, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+}
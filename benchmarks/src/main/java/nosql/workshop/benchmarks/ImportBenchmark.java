@@ -0,0 +1,77 @@
+package nosql.workshop.benchmarks;
+
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.elasticsearch.util.ElasticSearchBatchUtils;
+import nosql.workshop.batch.mongodb.InstallationsImporter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Mesure les conversions faites par le batch pour chaque ligne importée : construction du document MongoDB
+ * d'une installation ({@link InstallationsImporter#toDbObject}) et correction des décimales des communes
+ * ({@link ElasticSearchBatchUtils#handleComma}).
+ * <p>
+ * <code>installationsParseOnly</code> lit les mêmes lignes sans les convertir : la différence avec
+ * <code>installationsToDbObject</code> est le coût de la construction des documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ImportBenchmark {
+
+    private Path installations;
+    private List<String> townLines;
+
+    @Setup
+    public void prepare() throws IOException {
+        installations = Files.createTempFile("benchmark", ".csv");
+        try (InputStream is = ImportBenchmark.class.getResourceAsStream("/csv/installations.csv")) {
+            Files.copy(is, installations, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                ImportBenchmark.class.getResourceAsStream("/csv/towns_paysdeloire.csv"), StandardCharsets.UTF_8))) {
+            townLines = reader.lines().skip(1).filter(line -> line.length() > 0).collect(Collectors.toList());
+        }
+    }
+
+    @TearDown
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(installations);
+    }
+
+    @Benchmark
+    public void installationsParseOnly(Blackhole blackhole) throws IOException {
+        CsvReader.open(installations)
+                .skipHeader()
+                .forEach(row -> blackhole.consume(row.fieldCount()));
+    }
+
+    @Benchmark
+    public void installationsToDbObject(Blackhole blackhole) throws IOException {
+        CsvReader.open(installations)
+                .skipHeader()
+                .forEach(row -> blackhole.consume(InstallationsImporter.toDbObject(row)));
+    }
+
+    @Benchmark
+    public void townsHandleComma(Blackhole blackhole) {
+        for (String line : townLines) {
+            blackhole.consume(ElasticSearchBatchUtils.handleComma(line));
+        }
+    }
+}
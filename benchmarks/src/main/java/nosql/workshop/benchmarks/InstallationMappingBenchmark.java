@@ -0,0 +1,96 @@
+package nosql.workshop.benchmarks;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.mongodb.InstallationsImporter;
+import nosql.workshop.model.Installation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Mesure la transformation des résultats Elasticsearch en {@link Installation} faite par
+ * <code>SearchService.mapToInstallation</code>, et la sérialisation inverse des réponses.
+ * <p>
+ * Les sources sont produites comme par <code>MongoDbToElasticsearch</code> (document du batch indexé via
+ * <code>setSource(object.toMap())</code>), pour toutes les installations du fichier CSV. L'ObjectMapper est réglé
+ * comme celui du <code>SearchService</code>.
+ * <ul>
+ * <li><code>fromString</code> : chemin actuel, la source est d'abord décodée en chaîne (<code>getSourceAsString</code>) ;</li>
+ * <li><code>fromBytes</code> : lecture directe des octets de la source (<code>sourceRef</code>) ;</li>
+ * <li><code>fromBytesWithReader</code> : idem avec un <code>ObjectReader</code> préparé une fois.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InstallationMappingBenchmark {
+
+    private ObjectMapper objectMapper;
+    private ObjectReader reader;
+    private List<byte[]> sources;
+    private List<Installation> installations;
+
+    @Setup
+    public void prepare() throws IOException {
+        objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        reader = objectMapper.reader(Installation.class);
+
+        sources = new ArrayList<>();
+        CsvReader.fromResource("/csv/installations.csv")
+                .skipHeader()
+                .forEach(row -> {
+                    try {
+                        sources.add(jsonBuilder().map(InstallationsImporter.toDbObject(row).toMap()).bytes().toBytes());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        installations = new ArrayList<>(sources.size());
+        for (byte[] source : sources) {
+            installations.add(objectMapper.readValue(source, Installation.class));
+        }
+    }
+
+    @Benchmark
+    public void fromString(Blackhole blackhole) throws IOException {
+        for (byte[] source : sources) {
+            blackhole.consume(objectMapper.readValue(new String(source, StandardCharsets.UTF_8), Installation.class));
+        }
+    }
+
+    @Benchmark
+    public void fromBytes(Blackhole blackhole) throws IOException {
+        for (byte[] source : sources) {
+            blackhole.consume(objectMapper.readValue(source, Installation.class));
+        }
+    }
+
+    @Benchmark
+    public void fromBytesWithReader(Blackhole blackhole) throws IOException {
+        for (byte[] source : sources) {
+            blackhole.consume(reader.readValue(source));
+        }
+    }
+
+    @Benchmark
+    public void toBytes(Blackhole blackhole) throws IOException {
+        for (Installation installation : installations) {
+            blackhole.consume(objectMapper.writeValueAsBytes(installation));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package nosql.workshop.benchmarks;
+
+import com.mongodb.DB;
+import nosql.workshop.batch.mongodb.InstallationsSnapshotWriter;
+import nosql.workshop.benchmarks.mongo.InMemoryMongoServer;
+import nosql.workshop.benchmarks.mongo.MongoStandIn;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.model.Installation;
+import nosql.workshop.model.InstallationSummary;
+import nosql.workshop.model.stats.InstallationsStats;
+import nosql.workshop.services.IndexRegistry;
+import nosql.workshop.services.InstallationService;
+import nosql.workshop.services.MongoDB;
+import nosql.workshop.services.RequiredIndex;
+import org.jongo.MongoCursor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mesure les lectures de l'{@link InstallationService} sur un vrai MongoDB, ou à défaut sur un MongoDB en mémoire.
+ * <p>
+ * Avec <code>-Dmongo.host</code> (et <code>-Dmongo.port</code>, 27017 par défaut), le benchmark lit la base
+ * <code>nosql-workshop</code> de ce serveur, alimentée au préalable par <code>CsvToMongoDb</code> ; les index MongoDB
+ * de {@link IndexRegistry} sont créés s'ils manquent. Sans <code>mongo.host</code>, il démarre un
+ * {@link MongoStandIn} : le driver, Jongo, l'encodage BSON et les sockets restent réels, mais le serveur n'a
+ * aucun index et parcourt tous les documents pour <code>$near</code>, <code>$geoWithin</code> et <code>$text</code>.
+ * Les mesures des chemins MongoDB (<code>geoIndex=false</code>, <code>cacheMaxEntries=0</code>) ne sont alors pas
+ * représentatives de MongoDB : elles ne servent qu'à comparer des variantes du code de l'application.
+ * <p>
+ * Les paramètres comparent l'index spatial en mémoire aux requêtes géographiques MongoDB (<code>geoIndex</code>)
+ * et le cache des installations à la lecture directe (<code>cacheMaxEntries</code> = 0). Avec <code>snapshot</code>,
+ * les lectures sont servies par l'instantané binaire écrit par le batch, sans MongoDB. Les lectures par numéro
+ * portent sur les {@value #HOT_SET_SIZE} premières installations, pour que le cache serve l'essentiel des appels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InstallationServiceBenchmark {
+
+    private static final int HOT_SET_SIZE = 500;
+    private static final double GEOSEARCH_DISTANCE = 5000;
+    private static final double BOX_SIZE = 0.1;
+
+    @Param({"true", "false"})
+    public boolean geoIndex;
+
+    @Param({"0", "1000"})
+    public int cacheMaxEntries;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private InMemoryMongoServer server;
+    private MongoDB mongoDB;
+    private Path snapshotFile;
+    private InstallationService installationService;
+    private List<String> numeros;
+    private List<double[]> locations;
+
+    @Setup
+    public void start() throws IOException {
+        String host = System.getProperty(MongoDB.MONGO_HOST);
+        if (host != null) {
+            mongoDB = new MongoDB(host, Integer.getInteger(MongoDB.MONGO_PORT, 27017), 10, 2000, 5000, 10000, "primary");
+            DB db = mongoDB.getJongo().getDatabase();
+            if (db.getCollection(InstallationService.COLLECTION_NAME).count() == 0) {
+                throw new IllegalStateException("No installations in " + host + ", run CsvToMongoDb first");
+            }
+            for (RequiredIndex index : IndexRegistry.all()) {
+                if (index.getBackend() == RequiredIndex.Backend.MONGODB) {
+                    db.getCollection(index.getCollection()).createIndex(index.getKeys(), index.getOptions());
+                }
+            }
+        } else {
+            server = MongoStandIn.startWithInstallations();
+            mongoDB = new MongoDB(server.getHost(), server.getPort(), 10, 2000, 5000, 10000, "primary");
+            System.out.println("MongoDB stand-in without indexes : MongoDB path timings are not representative of "
+                    + "MongoDB, use -Dmongo.host to benchmark a real server");
+        }
+        if (snapshot) {
+            snapshotFile = Files.createTempFile("installations", ".snapshot");
+            new InstallationsSnapshotWriter(mongoDB.getJongo().getDatabase().getCollection(InstallationService.COLLECTION_NAME))
+                    .write(snapshotFile, System.currentTimeMillis());
+        }
+        installationService = new InstallationService(mongoDB, new Metrics(0), cacheMaxEntries, 0, 300, true, 100, 10000,
+                geoIndex, snapshot ? snapshotFile.toString() : "");
+
+        numeros = new ArrayList<>();
+        locations = new ArrayList<>();
+        try (MongoCursor<Installation> all = installationService.streamAll()) {
+            for (Installation installation : all) {
+                numeros.add(installation.getNumero());
+                locations.add(installation.getLocation().getCoordinates());
+            }
+        }
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        mongoDB.close();
+        if (server != null) {
+            server.close();
+        }
+        if (snapshotFile != null) {
+            Files.deleteIfExists(snapshotFile);
+        }
+    }
+
+    @Benchmark
+    public Installation get() {
+        return installationService.get(hotNumero());
+    }
+
+    @Benchmark
+    public byte[] getAsJson() {
+        return installationService.getAsJson(hotNumero());
+    }
+
+    @Benchmark
+    public List<Installation> listAfter() {
+        return installationService.listAfter(numeros.get(ThreadLocalRandom.current().nextInt(numeros.size())), 10);
+    }
+
+    @Benchmark
+    public List<Installation> geosearch() {
+        double[] location = randomLocation();
+        return installationService.geosearch(location[1], location[0], GEOSEARCH_DISTANCE, 50);
+    }
+
+    @Benchmark
+    public List<InstallationSummary> geoNear() {
+        double[] location = randomLocation();
+        return installationService.geoNear(location[1], location[0], GEOSEARCH_DISTANCE, 50);
+    }
+
+    @Benchmark
+    public List<InstallationSummary> summariesWithinBox() {
+        double[] location = randomLocation();
+        return installationService.summariesWithinBox(location[1] - BOX_SIZE, location[0] - BOX_SIZE,
+                location[1] + BOX_SIZE, location[0] + BOX_SIZE, 500);
+    }
+
+    @Benchmark
+    public Installation random() {
+        return installationService.random();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public InstallationsStats computeStats() {
+        return installationService.computeStats();
+    }
+
+    private String hotNumero() {
+        return numeros.get(ThreadLocalRandom.current().nextInt(Math.min(HOT_SET_SIZE, numeros.size())));
+    }
+
+    private double[] randomLocation() {
+        return locations.get(ThreadLocalRandom.current().nextInt(locations.size()));
+    }
+}
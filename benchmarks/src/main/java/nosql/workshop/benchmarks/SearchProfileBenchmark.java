@@ -0,0 +1,96 @@
+package nosql.workshop.benchmarks;
+
+import nosql.workshop.services.SearchProfile;
+import nosql.workshop.services.SearchService;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Compare la recherche full-text historique de l'application (<code>QUERY_AND_FETCH</code>, explication des scores,
+ * <code>_source</code> complet) avec le profil par défaut de {@link SearchProfile}
+ * (<code>QUERY_THEN_FETCH</code>, sans explication, seulement les champs affichés), les deux requêtes étant réglées
+ * par {@link SearchProfile#applyTo}.
+ * <p>
+ * <code>QUERY_AND_FETCH</code> retourne <code>size</code> résultats par shard : pour comparer des réponses de même
+ * nombre de résultats, le profil demande autant de résultats que la recherche historique en a retournés.
+ * <p>
+ * Nécessite un Elasticsearch alimenté par le batch, joignable via <code>-Des.host</code> et <code>-Des.port</code>
+ * (localhost:9300 par défaut). La taille des réponses de chaque variante est affichée au démarrage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SearchProfileBenchmark {
+
+    @Param({"piscine", "tennis", "nantes"})
+    public String query;
+
+    private Client client;
+    private SearchProfile legacy;
+    private SearchProfile profile;
+
+    @Setup
+    public void connect() throws IOException {
+        String host = System.getProperty("es.host", "localhost");
+        int port = Integer.getInteger("es.port", 9300);
+        client = new TransportClient().addTransportAddress(new InetSocketTransportAddress(host, port));
+
+        legacy = new SearchProfile(SearchType.QUERY_AND_FETCH).explain(true).includes((String[]) null);
+        SearchResponse legacyResponse = request(legacy).execute().actionGet();
+        profile = new SearchProfile(SearchType.QUERY_THEN_FETCH).size(legacyResponse.getHits().getHits().length);
+        SearchResponse profileResponse = request(profile).execute().actionGet();
+        System.out.println();
+        System.out.println("[" + query + "] legacy  : " + legacyResponse.getHits().getHits().length + " hits, "
+                + responseSize(legacyResponse) + " bytes");
+        System.out.println("[" + query + "] profile : " + profileResponse.getHits().getHits().length + " hits, "
+                + responseSize(profileResponse) + " bytes");
+    }
+
+    @TearDown
+    public void disconnect() {
+        client.close();
+    }
+
+    @Benchmark
+    public SearchResponse legacy() {
+        return request(legacy).execute().actionGet();
+    }
+
+    @Benchmark
+    public SearchResponse profile() {
+        return request(profile).execute().actionGet();
+    }
+
+    /**
+     * Même requête que <code>SearchService</code>, réglée par <code>profile</code>.
+     */
+    private SearchRequestBuilder request(SearchProfile profile) {
+        SearchRequestBuilder request = client.prepareSearch(SearchService.INSTALLATIONS_INDEX)
+                .setTypes(SearchService.INSTALLATION_TYPE)
+                .setQuery(QueryBuilders.boolQuery().must(QueryBuilders.queryString(query)));
+        profile.applyTo(request);
+        return request;
+    }
+
+    private static int responseSize(SearchResponse response) throws IOException {
+        XContentBuilder builder = jsonBuilder().startObject();
+        response.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return builder.endObject().bytes().length();
+    }
+}
@@ -0,0 +1,122 @@
+package nosql.workshop.benchmarks.load;
+
+import nosql.workshop.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Envoie des requêtes HTTP à débit constant, en boucle ouverte.
+ * <p>
+ * Les requêtes partent à intervalles réguliers, qu'elles aient reçu leur réponse ou non : si le serveur ralentit,
+ * elles s'accumulent au lieu d'être retardées. La latence est mesurée depuis l'instant de départ prévu, et non
+ * depuis l'envoi effectif, pour ne pas masquer l'attente derrière une requête lente (coordinated omission).
+ */
+final class LoadGenerator {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final String baseUrl;
+    private final RequestMix mix;
+    private final int concurrency;
+
+    /**
+     * @param baseUrl     l'adresse du serveur, par exemple <code>http://localhost:8080</code>.
+     * @param concurrency nombre maximum de requêtes en cours ; au-delà, les requêtes attendent leur tour.
+     */
+    LoadGenerator(String baseUrl, RequestMix mix, int concurrency) {
+        this.baseUrl = baseUrl;
+        this.mix = mix;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Envoie <code>rate</code> requêtes par seconde pendant <code>duration</code> secondes et attend les réponses.
+     *
+     * @param seed graine du tirage des requêtes.
+     */
+    LoadResult run(double rate, long duration, long seed) throws InterruptedException {
+        // un type de requête par entrée du mélange, plus le total
+        String[] names = Arrays.copyOf(mix.names(), mix.names().length + 1);
+        int all = names.length - 1;
+        names[all] = LoadResult.ALL;
+        LatencyHistogram[] histograms = new LatencyHistogram[names.length];
+        LongAdder[] errors = new LongAdder[names.length];
+        for (int i = 0; i < names.length; i++) {
+            histograms[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "load-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Random random = new Random(seed);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long total = (long) (rate * duration);
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int type = mix.pick(random);
+            String uri = mix.uri(type, random);
+            workers.execute(() -> {
+                boolean ok = call(uri);
+                long latency = System.nanoTime() - intended;
+                histograms[type].record(latency);
+                histograms[all].record(latency);
+                if (!ok) {
+                    errors[type].increment();
+                    errors[all].increment();
+                }
+            });
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(READ_TIMEOUT + duration * 1000, TimeUnit.MILLISECONDS)) {
+            workers.shutdownNow();
+            throw new IllegalStateException("Requests still pending after " + duration + " s plus read timeout");
+        }
+        long elapsed = System.nanoTime() - start;
+        return new LoadResult(rate, names, histograms, errors, elapsed);
+    }
+
+    /**
+     * @return <code>true</code> si la réponse a un statut 2xx ou 3xx. Le corps est lu entièrement pour que
+     * la connexion soit réutilisée.
+     */
+    private boolean call(String uri) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + uri).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            int code = connection.getResponseCode();
+            try (InputStream body = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) != -1) {
+                        // corps ignoré
+                    }
+                }
+            }
+            return code < 400;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
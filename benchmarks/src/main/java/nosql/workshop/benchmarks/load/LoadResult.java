@@ -0,0 +1,136 @@
+package nosql.workshop.benchmarks.load;
+
+import nosql.workshop.metrics.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Résultat d'un test de charge : débit obtenu et percentiles de latence par type de requête.
+ * <p>
+ * Il s'enregistre comme référence (baseline) sous forme de fichier properties, les latences étant en millisecondes,
+ * et se compare à une référence enregistrée avec le même débit et le même mélange de requêtes.
+ */
+final class LoadResult {
+
+    static final String ALL = "all";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    /**
+     * Part minimale du débit demandé qui doit être atteinte.
+     */
+    private static final double MIN_THROUGHPUT_RATIO = 0.95;
+
+    private final double rate;
+    private final String[] names;
+    private final long[] counts;
+    private final long[] errors;
+    private final double[][] quantiles;
+    private final double[] max;
+    private final double throughput;
+
+    LoadResult(double rate, String[] names, LatencyHistogram[] histograms, LongAdder[] errors, long elapsedNanos) {
+        this.rate = rate;
+        this.names = names;
+        this.counts = new long[names.length];
+        this.errors = new long[names.length];
+        this.quantiles = new double[names.length][];
+        this.max = new double[names.length];
+        for (int i = 0; i < names.length; i++) {
+            counts[i] = histograms[i].getCount();
+            this.errors[i] = errors[i].sum();
+            long[] micros = histograms[i].getQuantiles(QUANTILES);
+            quantiles[i] = new double[micros.length];
+            for (int q = 0; q < micros.length; q++) {
+                quantiles[i][q] = micros[q] / 1000.0;
+            }
+            max[i] = histograms[i].getMax() / 1000.0;
+        }
+        this.throughput = counts[names.length - 1] / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    void print(PrintStream out) {
+        out.println(String.format(Locale.ROOT, "Throughput : %.1f req/s (target %.1f req/s)", throughput, rate));
+        out.println(String.format(Locale.ROOT, "%-12s %8s %7s %9s %9s %9s %9s %9s",
+                "request", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (int i = 0; i < names.length; i++) {
+            out.println(String.format(Locale.ROOT, "%-12s %8d %7d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    names[i], counts[i], errors[i], quantiles[i][0], quantiles[i][1], quantiles[i][2], quantiles[i][3], max[i]));
+        }
+    }
+
+    /**
+     * @param mix le mélange de requêtes, enregistré pour ne comparer que des tests identiques.
+     */
+    Properties toBaseline(String mix) {
+        Properties baseline = new Properties();
+        baseline.setProperty("rate", format(rate));
+        baseline.setProperty("mix", mix);
+        baseline.setProperty("throughput", format(throughput));
+        for (int i = 0; i < names.length; i++) {
+            baseline.setProperty(names[i] + ".count", Long.toString(counts[i]));
+            for (int q = 0; q < QUANTILE_NAMES.length; q++) {
+                baseline.setProperty(names[i] + "." + QUANTILE_NAMES[q], format(quantiles[i][q]));
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * Liste les régressions : requêtes en erreur, débit demandé non atteint, et p50 ou p99 dépassant ceux
+     * de la référence de plus de <code>tolerance</code> (0.5 pour 50 %) et de plus de <code>minDelta</code> ms.
+     * Une référence obtenue avec un autre débit ou un autre mélange n'est pas comparée.
+     *
+     * @param baseline la référence, ou <code>null</code>.
+     * @return les régressions constatées, vide si aucune.
+     */
+    List<String> regressions(Properties baseline, String mix, double tolerance, double minDelta) {
+        List<String> regressions = new ArrayList<>();
+        for (int i = 0; i < names.length - 1; i++) {
+            if (errors[i] > 0) {
+                regressions.add(names[i] + " : " + errors[i] + " failed requests out of " + counts[i]);
+            }
+        }
+        if (throughput < rate * MIN_THROUGHPUT_RATIO) {
+            regressions.add(String.format(Locale.ROOT, "throughput : %.1f req/s, below the %.1f req/s target", throughput, rate));
+        }
+        if (!comparableTo(baseline, mix)) {
+            return regressions;
+        }
+        for (int i = 0; i < names.length; i++) {
+            // p50 et p99
+            for (int q : new int[]{0, 2}) {
+                String key = names[i] + "." + QUANTILE_NAMES[q];
+                String reference = baseline.getProperty(key);
+                if (reference == null) {
+                    continue;
+                }
+                double expected = Double.parseDouble(reference);
+                double actual = quantiles[i][q];
+                if (actual > expected * (1 + tolerance) && actual - expected > minDelta) {
+                    regressions.add(String.format(Locale.ROOT, "%s : %.2f ms, baseline %.2f ms", key, actual, expected));
+                }
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * @return <code>true</code> si la référence a été obtenue avec le même débit et le même mélange de requêtes.
+     */
+    boolean comparableTo(Properties baseline, String mix) {
+        return baseline != null && mix.equals(baseline.getProperty("mix"))
+                && format(rate).equals(baseline.getProperty("rate"));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,170 @@
+package nosql.workshop.benchmarks.load;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import net.codestory.http.WebServer;
+import nosql.workshop.Application;
+import nosql.workshop.ApplicationModule;
+import nosql.workshop.benchmarks.mongo.InMemoryMongoServer;
+import nosql.workshop.benchmarks.mongo.MongoStandIn;
+import nosql.workshop.benchmarks.search.InMemorySearchService;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.model.Installation;
+import nosql.workshop.model.stats.TimerStats;
+import nosql.workshop.services.InstallationService;
+import nosql.workshop.services.MongoDB;
+import nosql.workshop.services.SearchService;
+import nosql.workshop.services.TownService;
+import org.jongo.MongoCursor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Test de charge de l'API REST, sans MongoDB ni Elasticsearch : le serveur web de l'application est démarré
+ * avec un {@link InMemoryMongoServer} alimenté par les fichiers CSV du batch et un {@link InMemorySearchService}.
+ * Ces remplaçants n'ont pas d'index : les latences des routes servies par MongoDB ou Elasticsearch mesurent
+ * surtout eux, et ne valent que comparées à une référence obtenue de la même façon.
+ * <p>
+ * Après une période de chauffe, les requêtes sont envoyées à débit constant selon un mélange configurable, puis
+ * le débit obtenu et les percentiles de latence sont affichés et comparés à la référence enregistrée. Le processus
+ * se termine avec le code 1 en cas de régression. Les latences dépendant de la machine, la référence n'est pas
+ * versionnée : elle est enregistrée une première fois sur la machine qui lance le test. Le test est lancé par
+ * <code>mvn verify -Pload-test</code> dans le module <code>benchmarks</code>. Réglages, par propriétés système :
+ * <ul>
+ * <li><code>load.rate</code> : requêtes par seconde (200) ;</li>
+ * <li><code>load.duration</code> et <code>load.warmup</code> : durée de la mesure et de la chauffe, en secondes (20 et 5) ;</li>
+ * <li><code>load.concurrency</code> : requêtes simultanées au plus (32) ;</li>
+ * <li><code>load.mix</code> : types de requête et poids (<code>list=15,get=40,geosearch=20,box=5,stats=5,suggest=15</code>),
+ * parmi <code>list</code>, <code>get</code>, <code>geosearch</code>, <code>box</code>, <code>stats</code>,
+ * <code>search</code>, <code>suggest</code> et <code>location</code> ;</li>
+ * <li><code>load.seed</code> : graine du tirage des requêtes (42) ;</li>
+ * <li><code>load.baseline</code> : fichier de référence (<code>baselines/load-test.properties</code>),
+ * remplacé par le résultat si <code>load.saveBaseline=true</code> ;</li>
+ * <li><code>load.tolerance</code> et <code>load.minDelta</code> : dégradation tolérée du p50 et du p99, relative
+ * (0.5 pour 50 %) et absolue en millisecondes (2).</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = Double.parseDouble(System.getProperty("load.rate", "200"));
+        long duration = Long.getLong("load.duration", 20);
+        long warmup = Long.getLong("load.warmup", 5);
+        int concurrency = Integer.getInteger("load.concurrency", 32);
+        String mixSpec = System.getProperty("load.mix", RequestMix.DEFAULT);
+        long seed = Long.getLong("load.seed", 42);
+        Path baselineFile = Paths.get(System.getProperty("load.baseline", "baselines/load-test.properties"));
+        boolean saveBaseline = Boolean.getBoolean("load.saveBaseline");
+        double tolerance = Double.parseDouble(System.getProperty("load.tolerance", "0.5"));
+        double minDelta = Double.parseDouble(System.getProperty("load.minDelta", "2"));
+
+        // connexions HTTP gardées ouvertes entre deux requêtes, une par requête simultanée
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+        List<String> regressions;
+        try (InMemoryMongoServer mongo = MongoStandIn.startWithInstallations()) {
+            Module standIns = binder -> {
+                binder.bindConstant().annotatedWith(Names.named(MongoDB.MONGO_HOST)).to(mongo.getHost());
+                binder.bindConstant().annotatedWith(Names.named(MongoDB.MONGO_PORT)).to(mongo.getPort());
+                binder.bind(SearchService.class).to(InMemorySearchService.class);
+            };
+            Injector injector = Guice.createInjector(Modules.override(new ApplicationModule()).with(standIns));
+            injector.getInstance(TownService.class);
+            WebServer webServer = Application.configure(injector).startOnRandomPort();
+            try {
+                RequestMix mix = new RequestMix(mixSpec, installations(injector.getInstance(InstallationService.class)),
+                        injector.getInstance(SearchService.class).allTowns());
+                LoadGenerator generator = new LoadGenerator("http://localhost:" + webServer.port(), mix, concurrency);
+
+                System.out.println("Warming up for " + warmup + " s at " + rate + " req/s");
+                generator.run(rate, warmup, seed - 1);
+                System.out.println("Measuring for " + duration + " s at " + rate + " req/s, mix " + mixSpec);
+                LoadResult result = generator.run(rate, duration, seed);
+
+                result.print(System.out);
+                printOperations(injector.getInstance(Metrics.class));
+
+                Properties baseline = saveBaseline ? null : readBaseline(baselineFile);
+                if (baseline != null && !result.comparableTo(baseline, mixSpec)) {
+                    System.out.println("Baseline " + baselineFile + " was recorded with another rate or mix, latencies not compared");
+                }
+                regressions = result.regressions(baseline, mixSpec, tolerance, minDelta);
+                if (saveBaseline) {
+                    writeBaseline(baselineFile, result.toBaseline(mixSpec));
+                    System.out.println("Baseline saved to " + baselineFile);
+                } else if (baseline == null) {
+                    System.out.println("No baseline at " + baselineFile + ", run with -Dload.saveBaseline=true to record one");
+                }
+            } finally {
+                webServer.stop();
+                injector.getInstance(MongoDB.class).close();
+            }
+        }
+
+        if (!regressions.isEmpty()) {
+            System.out.println("Load test regressions :");
+            regressions.forEach(regression -> System.out.println("  " + regression));
+        }
+        System.exit(regressions.isEmpty() ? 0 : 1);
+    }
+
+    private static List<Installation> installations(InstallationService installationService) throws IOException {
+        List<Installation> installations = new ArrayList<>();
+        try (MongoCursor<Installation> all = installationService.streamAll()) {
+            all.forEach(installations::add);
+        }
+        return installations;
+    }
+
+    /**
+     * Affiche les durées des opérations sur les bases mesurées côté serveur, chauffe comprise.
+     */
+    private static void printOperations(Metrics metrics) {
+        System.out.println("Server side operations (warm-up included) :");
+        for (TimerStats operation : metrics.report().getOperations()) {
+            System.out.println(String.format(Locale.ROOT, "  %-24s %8d calls, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    operation.getName(), operation.getCount(), operation.getP50(), operation.getP99(), operation.getMax()));
+        }
+    }
+
+    private static Properties readBaseline(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties baseline = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            baseline.load(input);
+        }
+        return baseline;
+    }
+
+    private static void writeBaseline(Path file, Properties baseline) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        // clés triées, sans date, pour que les différences entre deux références restent lisibles
+        List<String> lines = new ArrayList<>();
+        lines.add("# Load test baseline, latencies in ms");
+        for (Map.Entry<Object, Object> entry : new TreeMap<>(baseline).entrySet()) {
+            lines.add(entry.getKey() + "=" + entry.getValue());
+        }
+        Files.write(file, lines, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,129 @@
+package nosql.workshop.benchmarks.load;
+
+import nosql.workshop.model.Installation;
+import nosql.workshop.model.suggest.TownSuggest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Répartition des requêtes d'un test de charge, par exemple <code>get=40,geosearch=25,suggest=15</code>.
+ * <p>
+ * Chaque type de requête tire ses paramètres (numéro, position, début de nom de ville...) parmi les installations
+ * et les villes chargées, avec le générateur aléatoire fourni : une même graine rejoue la même suite de requêtes.
+ */
+final class RequestMix {
+
+    static final String DEFAULT = "list=15,get=40,geosearch=20,box=5,stats=5,suggest=15";
+
+    private final String[] names;
+    private final List<Function<Random, String>> generators = new ArrayList<>();
+    private final int[] cumulativeWeights;
+
+    /**
+     * @param mix           les types de requête et leur poids, séparés par des virgules.
+     * @param installations les installations dans lesquelles tirer numéros et positions.
+     * @param towns         les villes dans lesquelles tirer les noms.
+     */
+    RequestMix(String mix, List<Installation> installations, List<TownSuggest> towns) {
+        Map<String, Function<Random, String>> available = available(installations, towns);
+        String[] entries = mix.split(",");
+        this.names = new String[entries.length];
+        this.cumulativeWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split("=");
+            Function<Random, String> generator = available.get(entry[0]);
+            if (generator == null || entry.length != 2) {
+                throw new IllegalArgumentException("Unknown request type " + entries[i] + ", expected one of "
+                        + available.keySet() + " with a weight, e.g. get=40");
+            }
+            names[i] = entry[0];
+            generators.add(generator);
+            total += Integer.parseInt(entry[1]);
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Empty request mix " + mix);
+        }
+    }
+
+    String[] names() {
+        return names;
+    }
+
+    /**
+     * @return l'indice d'un type de requête tiré selon les poids.
+     */
+    int pick(Random random) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int type = 0;
+        while (cumulativeWeights[type] <= draw) {
+            type++;
+        }
+        return type;
+    }
+
+    /**
+     * @return le chemin et les paramètres d'une requête du type donné.
+     */
+    String uri(int type, Random random) {
+        return generators.get(type).apply(random);
+    }
+
+    private static Map<String, Function<Random, String>> available(List<Installation> installations,
+                                                                  List<TownSuggest> towns) {
+        List<Installation> located = new ArrayList<>();
+        for (Installation installation : installations) {
+            if (installation.getLocation() != null && installation.getLocation().getCoordinates() != null) {
+                located.add(installation);
+            }
+        }
+        Map<String, Function<Random, String>> available = new LinkedHashMap<>();
+        available.put("list", random -> "/api/installations?page=" + (1 + random.nextInt(50)));
+        available.put("get", random -> "/api/installations/" + pick(installations, random).getNumero());
+        available.put("geosearch", random -> {
+            double[] coordinates = pick(located, random).getLocation().getCoordinates();
+            return String.format(Locale.ROOT, "/api/installations/geosearch?lat=%.5f&lng=%.5f&distance=5000&limit=20",
+                    coordinates[1], coordinates[0]);
+        });
+        available.put("box", random -> {
+            double[] coordinates = pick(located, random).getLocation().getCoordinates();
+            return String.format(Locale.ROOT, "/api/installations/geosearch/box?minLat=%.5f&minLng=%.5f&maxLat=%.5f&maxLng=%.5f&fields=summary&limit=200",
+                    coordinates[1] - 0.05, coordinates[0] - 0.05, coordinates[1] + 0.05, coordinates[0] + 0.05);
+        });
+        available.put("stats", random -> "/api/installations/stats");
+        available.put("search", random -> "/api/installations/search?query=" + encode(firstWord(pick(installations, random).getNom())));
+        available.put("suggest", random -> {
+            String townName = pick(towns, random).getTownName();
+            return "/api/towns/suggest/" + encode(townName.substring(0, Math.min(3, townName.length())));
+        });
+        available.put("location", random -> "/api/towns/location/" + encode(pick(towns, random).getTownName()));
+        return available;
+    }
+
+    private static <T> T pick(List<T> values, Random random) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private static String firstWord(String text) {
+        String trimmed = text == null ? "" : text.trim();
+        int space = trimmed.indexOf(' ');
+        return space < 0 ? trimmed : trimmed.substring(0, space);
+    }
+
+    private static String encode(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,724 @@
+package nosql.workshop.benchmarks.mongo;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Collection du {@link InMemoryMongoServer}, rangée par <code>_id</code>.
+ * <p>
+ * Les documents stockés ne sont jamais modifiés : une mise à jour remplace le document par une copie,
+ * ce qui permet de les lire sans verrou. Sont pris en charge :
+ * <ul>
+ * <li>les filtres d'égalité (chemins pointés, tableaux compris), <code>$gt</code>, <code>$gte</code>, <code>$lt</code>,
+ * <code>$lte</code>, <code>$ne</code>, <code>$in</code>, <code>$nin</code>, <code>$exists</code>, <code>$and</code>,
+ * <code>$or</code>, <code>$text</code> (sous-chaîne sans score), <code>$near</code> et <code>$geoWithin</code>
+ * (rectangle englobant du polygone) ;</li>
+ * <li>les projections par inclusion ou exclusion, le tri, <code>skip</code> et <code>limit</code> ;</li>
+ * <li>les étapes d'agrégation <code>$match</code>, <code>$geoNear</code>, <code>$project</code>, <code>$unwind</code>,
+ * <code>$group</code> (<code>$sum</code>), <code>$sort</code>, <code>$skip</code>, <code>$limit</code>
+ * et <code>$sample</code> ;</li>
+ * <li>les mises à jour par remplacement ou par <code>$set</code>, <code>$unset</code>, <code>$inc</code>,
+ * <code>$push</code> et <code>$addToSet</code>, avec upsert.</li>
+ * </ul>
+ * Tout autre opérateur lève une {@link IllegalArgumentException}, renvoyée au client comme une erreur de requête.
+ * <p>
+ * Aucun index n'est tenu hormis l'ordre des <code>_id</code> : chaque filtre, y compris <code>$near</code>,
+ * <code>$geoWithin</code> et <code>$text</code>, parcourt tous les documents. Les durées mesurées avec cette
+ * collection ne sont pas représentatives de MongoDB.
+ */
+public final class InMemoryCollection {
+
+    /**
+     * Rayon terrestre utilisé par MongoDB pour les requêtes sphériques, en mètres.
+     */
+    private static final double EARTH_RADIUS = 6378100;
+
+    private final ConcurrentSkipListMap<String, BSONObject> documents = new ConcurrentSkipListMap<>();
+
+    static final class UpdateResult {
+        final int count;
+        final boolean updatedExisting;
+        final Object upserted;
+
+        UpdateResult(int count, boolean updatedExisting, Object upserted) {
+            this.count = count;
+            this.updatedExisting = updatedExisting;
+            this.upserted = upserted;
+        }
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public void insert(BSONObject document) {
+        if (document.get("_id") == null) {
+            document.put("_id", new ObjectId());
+        }
+        documents.put(key(document.get("_id")), document);
+    }
+
+    void clear() {
+        documents.clear();
+    }
+
+    /**
+     * @param query  filtre, éventuellement enveloppé dans <code>$query</code> avec <code>$orderby</code>.
+     * @param fields projection, ou <code>null</code>.
+     * @param limit  nombre maximum de documents, 0 pour tous.
+     */
+    List<BSONObject> find(BSONObject query, BSONObject fields, int skip, int limit) {
+        BSONObject orderBy = null;
+        if (query != null && query.containsField("$query")) {
+            orderBy = (BSONObject) query.get("$orderby");
+            query = (BSONObject) query.get("$query");
+        }
+        List<BSONObject> matching = matching(query);
+        if (orderBy != null && !orderBy.keySet().isEmpty()) {
+            matching.sort(ordering(orderBy));
+        } else {
+            sortByDistance(matching, query);
+        }
+        List<BSONObject> page = matching.subList(Math.min(skip, matching.size()),
+                limit > 0 ? Math.min(skip + limit, matching.size()) : matching.size());
+        List<BSONObject> result = new ArrayList<>(page.size());
+        for (BSONObject document : page) {
+            result.add(project(document, fields));
+        }
+        return result;
+    }
+
+    UpdateResult update(BSONObject selector, BSONObject update, boolean upsert, boolean multi) {
+        List<BSONObject> matching = matching(selector);
+        if (matching.isEmpty()) {
+            if (!upsert) {
+                return new UpdateResult(0, false, null);
+            }
+            BSONObject document = new BasicBSONObject();
+            for (String key : selector.keySet()) {
+                Object condition = selector.get(key);
+                if (!key.startsWith("$") && !isOperatorObject(condition)) {
+                    setPath(document, key, condition);
+                }
+            }
+            document = apply(document, update);
+            insert(document);
+            return new UpdateResult(1, false, document.get("_id"));
+        }
+        int count = 0;
+        for (BSONObject existing : matching) {
+            BSONObject document = apply(copy(existing), update);
+            document.put("_id", existing.get("_id"));
+            documents.put(key(existing.get("_id")), document);
+            count++;
+            if (!multi) {
+                break;
+            }
+        }
+        return new UpdateResult(count, true, null);
+    }
+
+    int remove(BSONObject selector, boolean justOne) {
+        int count = 0;
+        for (BSONObject document : matching(selector)) {
+            documents.remove(key(document.get("_id")));
+            count++;
+            if (justOne) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    List<BSONObject> aggregate(List<?> pipeline) {
+        List<BSONObject> current = new ArrayList<>(documents.values());
+        for (Object item : pipeline) {
+            BSONObject stage = (BSONObject) item;
+            String name = stage.keySet().iterator().next();
+            Object spec = stage.get(name);
+            switch (name) {
+                case "$match":
+                    current = filter(current, (BSONObject) spec);
+                    sortByDistance(current, (BSONObject) spec);
+                    break;
+                case "$geoNear":
+                    current = geoNear(current, (BSONObject) spec);
+                    break;
+                case "$project": {
+                    List<BSONObject> projected = new ArrayList<>(current.size());
+                    for (BSONObject document : current) {
+                        projected.add(project(document, (BSONObject) spec));
+                    }
+                    current = projected;
+                    break;
+                }
+                case "$unwind":
+                    current = unwind(current, ((String) spec).substring(1));
+                    break;
+                case "$group":
+                    current = group(current, (BSONObject) spec);
+                    break;
+                case "$sort":
+                    current.sort(ordering((BSONObject) spec));
+                    break;
+                case "$skip":
+                    current = new ArrayList<>(current.subList(Math.min(((Number) spec).intValue(), current.size()), current.size()));
+                    break;
+                case "$limit":
+                    current = new ArrayList<>(current.subList(0, Math.min(((Number) spec).intValue(), current.size())));
+                    break;
+                case "$sample": {
+                    List<BSONObject> shuffled = new ArrayList<>(current);
+                    Collections.shuffle(shuffled, ThreadLocalRandom.current());
+                    int size = ((Number) ((BSONObject) spec).get("size")).intValue();
+                    current = new ArrayList<>(shuffled.subList(0, Math.min(size, shuffled.size())));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unsupported aggregation stage " + name);
+            }
+        }
+        return current;
+    }
+
+    // ---- filtres ----
+
+    /**
+     * @return les documents stockés correspondant au filtre, lus directement par <code>_id</code> si le filtre
+     * se limite à une égalité sur <code>_id</code>, comme avec l'index de MongoDB.
+     */
+    private List<BSONObject> matching(BSONObject query) {
+        if (query != null && query.keySet().size() == 1 && query.containsField("_id") && !isOperatorObject(query.get("_id"))) {
+            BSONObject document = documents.get(key(query.get("_id")));
+            return document == null ? new ArrayList<>() : new ArrayList<>(Collections.singletonList(document));
+        }
+        return filter(documents.values(), query);
+    }
+
+    private static List<BSONObject> filter(Collection<BSONObject> documents, BSONObject query) {
+        List<BSONObject> matching = new ArrayList<>();
+        for (BSONObject document : documents) {
+            if (query == null || matches(document, query)) {
+                matching.add(document);
+            }
+        }
+        return matching;
+    }
+
+    private static boolean matches(BSONObject document, BSONObject query) {
+        for (String key : query.keySet()) {
+            Object condition = query.get(key);
+            switch (key) {
+                case "$text":
+                    if (!matchesText(document, (String) ((BSONObject) condition).get("$search"))) {
+                        return false;
+                    }
+                    break;
+                case "$and":
+                    for (Object clause : (List<?>) condition) {
+                        if (!matches(document, (BSONObject) clause)) {
+                            return false;
+                        }
+                    }
+                    break;
+                case "$or": {
+                    boolean any = false;
+                    for (Object clause : (List<?>) condition) {
+                        any |= matches(document, (BSONObject) clause);
+                    }
+                    if (!any) {
+                        return false;
+                    }
+                    break;
+                }
+                default:
+                    if (!matchesField(values(document, key), condition)) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesField(List<Object> values, Object condition) {
+        if (!isOperatorObject(condition)) {
+            return condition == null ? values.isEmpty() || values.contains(null) : containsEqual(values, condition);
+        }
+        BSONObject operators = (BSONObject) condition;
+        for (String operator : operators.keySet()) {
+            Object operand = operators.get(operator);
+            boolean matches;
+            switch (operator) {
+                case "$gt":
+                    matches = values.stream().anyMatch(value -> comparable(value, operand) && compare(value, operand) > 0);
+                    break;
+                case "$gte":
+                    matches = values.stream().anyMatch(value -> comparable(value, operand) && compare(value, operand) >= 0);
+                    break;
+                case "$lt":
+                    matches = values.stream().anyMatch(value -> comparable(value, operand) && compare(value, operand) < 0);
+                    break;
+                case "$lte":
+                    matches = values.stream().anyMatch(value -> comparable(value, operand) && compare(value, operand) <= 0);
+                    break;
+                case "$ne":
+                    matches = !containsEqual(values, operand);
+                    break;
+                case "$in":
+                    matches = ((List<?>) operand).stream().anyMatch(candidate -> containsEqual(values, candidate));
+                    break;
+                case "$nin":
+                    matches = ((List<?>) operand).stream().noneMatch(candidate -> containsEqual(values, candidate));
+                    break;
+                case "$exists":
+                    matches = values.isEmpty() != isTrue(operand);
+                    break;
+                case "$near":
+                case "$nearSphere":
+                    matches = values.stream().anyMatch(value -> distance(operators, value) <= maxDistance(operators));
+                    break;
+                case "$maxDistance":
+                    matches = true;
+                    break;
+                case "$geoWithin":
+                    matches = values.stream().anyMatch(value -> within((BSONObject) operand, value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported query operator " + operator);
+            }
+            if (!matches) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesText(BSONObject document, String search) {
+        List<String> strings = new ArrayList<>();
+        collectStrings(document, strings);
+        for (String term : search.toLowerCase(Locale.FRENCH).split("\\s+")) {
+            for (String value : strings) {
+                if (!term.isEmpty() && value.toLowerCase(Locale.FRENCH).contains(term)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void collectStrings(Object value, List<String> strings) {
+        if (value instanceof String) {
+            strings.add((String) value);
+        } else if (value instanceof BSONObject) {
+            BSONObject object = (BSONObject) value;
+            for (String key : object.keySet()) {
+                collectStrings(object.get(key), strings);
+            }
+        }
+    }
+
+    // ---- géographie ----
+
+    /**
+     * Trie par distance croissante si le filtre contient un <code>$near</code>, comme le fait MongoDB.
+     */
+    private static void sortByDistance(List<BSONObject> documents, BSONObject query) {
+        if (query == null) {
+            return;
+        }
+        for (String key : query.keySet()) {
+            Object condition = query.get(key);
+            if (isOperatorObject(condition)) {
+                BSONObject operators = (BSONObject) condition;
+                if (operators.containsField("$near") || operators.containsField("$nearSphere")) {
+                    documents.sort(Comparator.comparingDouble(document -> values(document, key).stream()
+                            .mapToDouble(value -> distance(operators, value)).min().orElse(Double.MAX_VALUE)));
+                    return;
+                }
+            }
+        }
+    }
+
+    private static List<BSONObject> geoNear(List<BSONObject> documents, BSONObject spec) {
+        double[] near = point(spec.get("near"));
+        double maxDistance = spec.containsField("maxDistance") ? ((Number) spec.get("maxDistance")).doubleValue() : Double.MAX_VALUE;
+        int limit = spec.containsField("limit") ? ((Number) spec.get("limit")).intValue() : 100;
+        String distanceField = (String) spec.get("distanceField");
+        BSONObject query = (BSONObject) spec.get("query");
+
+        List<BSONObject> result = new ArrayList<>();
+        for (BSONObject document : documents) {
+            double[] location = geoJsonPoint(document);
+            if (location == null || (query != null && !matches(document, query))) {
+                continue;
+            }
+            double distance = haversine(near, location);
+            if (distance <= maxDistance) {
+                BSONObject copy = copy(document);
+                copy.put(distanceField, distance);
+                result.add(copy);
+            }
+        }
+        result.sort(Comparator.comparingDouble(document -> ((Number) document.get(distanceField)).doubleValue()));
+        return new ArrayList<>(result.subList(0, Math.min(limit, result.size())));
+    }
+
+    private static double distance(BSONObject operators, Object location) {
+        Object near = operators.containsField("$near") ? operators.get("$near") : operators.get("$nearSphere");
+        Object geometry = near instanceof BSONObject && ((BSONObject) near).containsField("$geometry")
+                ? ((BSONObject) near).get("$geometry") : near;
+        double[] point = point(location);
+        return point == null ? Double.MAX_VALUE : haversine(point(geometry), point);
+    }
+
+    private static double maxDistance(BSONObject operators) {
+        Object near = operators.containsField("$near") ? operators.get("$near") : operators.get("$nearSphere");
+        Object maxDistance = near instanceof BSONObject && ((BSONObject) near).containsField("$maxDistance")
+                ? ((BSONObject) near).get("$maxDistance") : operators.get("$maxDistance");
+        return maxDistance == null ? Double.MAX_VALUE : ((Number) maxDistance).doubleValue();
+    }
+
+    private static boolean within(BSONObject shape, Object location) {
+        double[] point = point(location);
+        if (point == null) {
+            return false;
+        }
+        List<?> corners;
+        if (shape.containsField("$box")) {
+            corners = (List<?>) shape.get("$box");
+        } else if (shape.containsField("$geometry")) {
+            corners = (List<?>) ((List<?>) ((BSONObject) shape.get("$geometry")).get("coordinates")).get(0);
+        } else {
+            throw new IllegalArgumentException("Unsupported $geoWithin shape " + shape.keySet());
+        }
+        double minLng = Double.MAX_VALUE, minLat = Double.MAX_VALUE, maxLng = -Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        for (Object corner : corners) {
+            double[] coordinates = point(corner);
+            minLng = Math.min(minLng, coordinates[0]);
+            maxLng = Math.max(maxLng, coordinates[0]);
+            minLat = Math.min(minLat, coordinates[1]);
+            maxLat = Math.max(maxLat, coordinates[1]);
+        }
+        return point[0] >= minLng && point[0] <= maxLng && point[1] >= minLat && point[1] <= maxLat;
+    }
+
+    /**
+     * @return la première valeur du document qui est un point GeoJSON.
+     */
+    private static double[] geoJsonPoint(BSONObject document) {
+        for (String key : document.keySet()) {
+            Object value = document.get(key);
+            if (value instanceof BSONObject && "Point".equals(((BSONObject) value).get("type"))) {
+                return point(value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>[longitude, latitude]</code> d'un point GeoJSON ou d'une paire de coordonnées.
+     */
+    private static double[] point(Object value) {
+        Object coordinates = value instanceof BSONObject && !(value instanceof List)
+                ? ((BSONObject) value).get("coordinates") : value;
+        if (!(coordinates instanceof List) || ((List<?>) coordinates).size() < 2) {
+            return null;
+        }
+        List<?> pair = (List<?>) coordinates;
+        return new double[]{((Number) pair.get(0)).doubleValue(), ((Number) pair.get(1)).doubleValue()};
+    }
+
+    private static double haversine(double[] from, double[] to) {
+        double sinLat = Math.sin(Math.toRadians(to[1] - from[1]) / 2);
+        double sinLng = Math.sin(Math.toRadians(to[0] - from[0]) / 2);
+        double a = sinLat * sinLat + Math.cos(Math.toRadians(from[1])) * Math.cos(Math.toRadians(to[1])) * sinLng * sinLng;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // ---- projections, agrégations ----
+
+    private static BSONObject project(BSONObject document, BSONObject fields) {
+        if (fields == null || fields.keySet().isEmpty()) {
+            return document;
+        }
+        boolean inclusion = false;
+        for (String key : fields.keySet()) {
+            Object value = fields.get(key);
+            inclusion |= !"_id".equals(key) && (isTrue(value) || value instanceof String);
+        }
+        if (!inclusion) {
+            BSONObject result = copy(document);
+            for (String key : fields.keySet()) {
+                if (!isTrue(fields.get(key))) {
+                    result.removeField(key);
+                }
+            }
+            return result;
+        }
+        BSONObject result = new BasicBSONObject();
+        if (!fields.containsField("_id") || isTrue(fields.get("_id"))) {
+            result.put("_id", document.get("_id"));
+        }
+        for (String key : fields.keySet()) {
+            Object value = fields.get(key);
+            if (value instanceof String && ((String) value).startsWith("$")) {
+                List<Object> values = values(document, ((String) value).substring(1));
+                result.put(key, values.isEmpty() ? null : values.get(0));
+            } else if (!"_id".equals(key) && isTrue(value)) {
+                Object extracted = extract(document, key.split("\\."), 0);
+                if (extracted != null) {
+                    merge(result, (BSONObject) extracted);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Object extract(Object value, String[] path, int index) {
+        if (index == path.length) {
+            return value;
+        }
+        if (value instanceof List) {
+            BasicBSONList list = new BasicBSONList();
+            for (Object element : (List<?>) value) {
+                Object extracted = extract(element, path, index);
+                if (extracted != null) {
+                    list.add(extracted);
+                }
+            }
+            return list;
+        }
+        if (value instanceof BSONObject) {
+            Object child = ((BSONObject) value).get(path[index]);
+            Object extracted = child == null ? null : extract(child, path, index + 1);
+            return extracted == null ? null : new BasicBSONObject(path[index], extracted);
+        }
+        return null;
+    }
+
+    private static void merge(BSONObject target, BSONObject source) {
+        for (String key : source.keySet()) {
+            Object existing = target.get(key);
+            Object value = source.get(key);
+            if (existing instanceof List && value instanceof List && ((List<?>) existing).size() == ((List<?>) value).size()) {
+                for (int i = 0; i < ((List<?>) value).size(); i++) {
+                    merge((BSONObject) ((List<?>) existing).get(i), (BSONObject) ((List<?>) value).get(i));
+                }
+            } else if (existing instanceof BSONObject && !(existing instanceof List) && value instanceof BSONObject) {
+                merge((BSONObject) existing, (BSONObject) value);
+            } else {
+                target.put(key, value);
+            }
+        }
+    }
+
+    private static List<BSONObject> unwind(List<BSONObject> documents, String path) {
+        List<BSONObject> result = new ArrayList<>();
+        for (BSONObject document : documents) {
+            List<Object> values = values(document, path);
+            if (values.isEmpty() || !(values.get(0) instanceof List)) {
+                continue;
+            }
+            for (Object element : (List<?>) values.get(0)) {
+                BSONObject copy = copy(document);
+                setPath(copy, path, element);
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    private static List<BSONObject> group(List<BSONObject> documents, BSONObject spec) {
+        Map<Object, BSONObject> groups = new LinkedHashMap<>();
+        for (BSONObject document : documents) {
+            Object id = spec.get("_id") instanceof String ? firstValue(document, (String) spec.get("_id")) : spec.get("_id");
+            BSONObject group = groups.computeIfAbsent(id, key -> new BasicBSONObject("_id", key));
+            for (String field : spec.keySet()) {
+                if ("_id".equals(field)) {
+                    continue;
+                }
+                BSONObject accumulator = (BSONObject) spec.get(field);
+                if (!accumulator.containsField("$sum")) {
+                    throw new IllegalArgumentException("Unsupported accumulator " + accumulator.keySet());
+                }
+                Object operand = accumulator.get("$sum");
+                Object value = operand instanceof String ? firstValue(document, (String) operand) : operand;
+                double sum = group.containsField(field) ? ((Number) group.get(field)).doubleValue() : 0;
+                group.put(field, (int) (sum + (value instanceof Number ? ((Number) value).doubleValue() : 0)));
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static Object firstValue(BSONObject document, String expression) {
+        if (!expression.startsWith("$")) {
+            return expression;
+        }
+        List<Object> values = values(document, expression.substring(1));
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    // ---- mises à jour ----
+
+    private static BSONObject apply(BSONObject document, BSONObject update) {
+        boolean operators = update.keySet().stream().anyMatch(key -> key.startsWith("$"));
+        if (!operators) {
+            BSONObject replacement = copy(update);
+            if (replacement.get("_id") == null && document.get("_id") != null) {
+                replacement.put("_id", document.get("_id"));
+            }
+            return replacement;
+        }
+        for (String operator : update.keySet()) {
+            BSONObject changes = (BSONObject) update.get(operator);
+            for (String path : changes.keySet()) {
+                if (path.contains("$")) {
+                    throw new IllegalArgumentException("Unsupported positional update " + path);
+                }
+                Object value = changes.get(path);
+                List<Object> current = values(document, path);
+                Object existing = current.isEmpty() ? null : current.get(0);
+                switch (operator) {
+                    case "$set":
+                        setPath(document, path, value);
+                        break;
+                    case "$unset":
+                        setPath(document, path, null);
+                        break;
+                    case "$inc":
+                        double sum = (existing == null ? 0 : ((Number) existing).doubleValue()) + ((Number) value).doubleValue();
+                        setPath(document, path, value instanceof Double || existing instanceof Double ? (Object) sum : (Object) (long) sum);
+                        break;
+                    case "$push":
+                    case "$addToSet": {
+                        BasicBSONList list = new BasicBSONList();
+                        if (existing instanceof List) {
+                            list.addAll((List<?>) existing);
+                        }
+                        if (!"$addToSet".equals(operator) || !list.contains(value)) {
+                            list.add(value);
+                        }
+                        setPath(document, path, list);
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Unsupported update operator " + operator);
+                }
+            }
+        }
+        return document;
+    }
+
+    private static void setPath(BSONObject document, String path, Object value) {
+        String[] parts = path.split("\\.");
+        BSONObject current = document;
+        for (int i = 0; i < parts.length - 1; i++) {
+            Object child = current.get(parts[i]);
+            if (!(child instanceof BSONObject) || child instanceof List) {
+                child = new BasicBSONObject();
+                current.put(parts[i], child);
+            }
+            current = (BSONObject) child;
+        }
+        if (value == null) {
+            current.removeField(parts[parts.length - 1]);
+        } else {
+            current.put(parts[parts.length - 1], value);
+        }
+    }
+
+    // ---- valeurs ----
+
+    /**
+     * @return les valeurs désignées par un chemin pointé, les tableaux rencontrés étant parcourus
+     * (un tableau final est renvoyé lui-même puis élément par élément).
+     */
+    private static List<Object> values(BSONObject document, String path) {
+        List<Object> values = new ArrayList<>();
+        collect(document, path.split("\\."), 0, values);
+        return values;
+    }
+
+    private static void collect(Object current, String[] path, int index, List<Object> values) {
+        if (index == path.length) {
+            values.add(current);
+            if (current instanceof List) {
+                values.addAll((List<?>) current);
+            }
+        } else if (current instanceof List) {
+            for (Object element : (List<?>) current) {
+                collect(element, path, index, values);
+            }
+        } else if (current instanceof BSONObject && ((BSONObject) current).containsField(path[index])) {
+            collect(((BSONObject) current).get(path[index]), path, index + 1, values);
+        }
+    }
+
+    private static Comparator<BSONObject> ordering(BSONObject orderBy) {
+        Comparator<BSONObject> comparator = (a, b) -> 0;
+        for (String key : orderBy.keySet()) {
+            int direction = ((Number) orderBy.get(key)).intValue() < 0 ? -1 : 1;
+            comparator = comparator.thenComparing((a, b) -> direction * compareNullable(firstValue(a, "$" + key), firstValue(b, "$" + key)));
+        }
+        return comparator;
+    }
+
+    private static int compareNullable(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return comparable(a, b) ? compare(a, b) : a.getClass().getName().compareTo(b.getClass().getName());
+    }
+
+    private static boolean comparable(Object a, Object b) {
+        return (a instanceof Number && b instanceof Number)
+                || (a != null && b != null && a.getClass() == b.getClass() && a instanceof Comparable);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static boolean containsEqual(List<Object> values, Object expected) {
+        for (Object value : values) {
+            if (value instanceof Number && expected instanceof Number
+                    ? ((Number) value).doubleValue() == ((Number) expected).doubleValue()
+                    : Objects.equals(value, expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOperatorObject(Object condition) {
+        if (!(condition instanceof BSONObject) || condition instanceof List) {
+            return false;
+        }
+        Set<String> keys = ((BSONObject) condition).keySet();
+        return !keys.isEmpty() && keys.iterator().next().startsWith("$");
+    }
+
+    private static boolean isTrue(Object value) {
+        return value instanceof Boolean ? (Boolean) value : value instanceof Number && ((Number) value).doubleValue() != 0;
+    }
+
+    private static BSONObject copy(BSONObject document) {
+        return new BasicBSONDecoder().readObject(new BasicBSONEncoder().encode(document));
+    }
+
+    private static String key(Object id) {
+        return String.valueOf(id);
+    }
+}
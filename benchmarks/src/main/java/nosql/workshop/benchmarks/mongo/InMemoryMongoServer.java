@@ -0,0 +1,307 @@
+package nosql.workshop.benchmarks.mongo;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serveur MongoDB en mémoire, dans le processus, pour les benchmarks et les tests de charge.
+ * <p>
+ * Il parle le protocole historique (OP_QUERY, OP_INSERT, OP_UPDATE, OP_DELETE) que le driver 2.x utilise
+ * avec un serveur annoncé en version 2.4, antérieure aux commandes d'écriture : le driver, Jongo et les services
+ * de l'application l'utilisent donc sans modification, sockets et encodage BSON compris.
+ * Seul le sous-ensemble de requêtes utilisé par le batch et l'application est pris en charge
+ * (voir {@link InMemoryCollection}). Les résultats sont renvoyés en une seule réponse, sans curseur serveur.
+ */
+public final class InMemoryMongoServer implements AutoCloseable {
+
+    private static final int OP_REPLY = 1;
+    private static final int OP_UPDATE = 2001;
+    private static final int OP_INSERT = 2002;
+    private static final int OP_QUERY = 2004;
+    private static final int OP_GET_MORE = 2005;
+    private static final int OP_DELETE = 2006;
+    private static final int OP_KILL_CURSORS = 2007;
+
+    private static final int QUERY_FAILURE = 2;
+    private static final int CURSOR_NOT_FOUND = 1;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Map<String, InMemoryCollection> collections = new ConcurrentHashMap<>();
+    private final AtomicInteger requestIds = new AtomicInteger();
+
+    private InMemoryMongoServer(ServerSocket serverSocket) {
+        this.serverSocket = serverSocket;
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "in-memory-mongo");
+            thread.setDaemon(true);
+            return thread;
+        });
+        connections.execute(this::acceptLoop);
+    }
+
+    /**
+     * Démarre un serveur vide sur un port libre de l'interface locale.
+     */
+    public static InMemoryMongoServer start() throws IOException {
+        return new InMemoryMongoServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @param namespace nom complet de la collection, par exemple <code>nosql-workshop.installations</code>.
+     */
+    public InMemoryCollection getCollection(String namespace) {
+        return collections.computeIfAbsent(namespace, name -> new InMemoryCollection());
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("In-memory MongoDB accept failed : " + e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Connection connection = new Connection();
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            while (true) {
+                int length = Integer.reverseBytes(in.readInt());
+                byte[] message = new byte[length - 4];
+                in.readFully(message);
+                ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+                int requestId = buffer.getInt();
+                buffer.getInt(); // responseTo
+                int opCode = buffer.getInt();
+                if (handle(opCode, requestId, buffer, connection, out)) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // connexion fermée par le client
+        } catch (IOException | RuntimeException e) {
+            System.out.println("In-memory MongoDB connection failed : " + e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> si une réponse a été écrite.
+     */
+    private boolean handle(int opCode, int requestId, ByteBuffer buffer, Connection connection, OutputStream out)
+            throws IOException {
+        switch (opCode) {
+            case OP_QUERY: {
+                buffer.getInt(); // flags
+                String namespace = readCString(buffer);
+                int skip = buffer.getInt();
+                int numberToReturn = buffer.getInt();
+                BSONObject query = readDocument(buffer);
+                BSONObject fields = buffer.hasRemaining() ? readDocument(buffer) : null;
+                try {
+                    List<BSONObject> documents = namespace.endsWith(".$cmd")
+                            ? Arrays.asList(command(database(namespace), query, connection))
+                            : getCollection(namespace).find(query, fields, skip, numberToReturn < 0 ? -numberToReturn : 0);
+                    reply(out, requestId, 0, documents);
+                } catch (RuntimeException e) {
+                    reply(out, requestId, QUERY_FAILURE, Arrays.asList(new BasicBSONObject("$err", String.valueOf(e.getMessage()))));
+                }
+                return true;
+            }
+            case OP_GET_MORE:
+                reply(out, requestId, CURSOR_NOT_FOUND, Arrays.asList());
+                return true;
+            case OP_INSERT: {
+                buffer.getInt(); // flags
+                InMemoryCollection collection = getCollection(readCString(buffer));
+                int count = 0;
+                while (buffer.hasRemaining()) {
+                    collection.insert(readDocument(buffer));
+                    count++;
+                }
+                connection.lastWrite(count, false, null);
+                return false;
+            }
+            case OP_UPDATE: {
+                buffer.getInt(); // ZERO
+                InMemoryCollection collection = getCollection(readCString(buffer));
+                int flags = buffer.getInt();
+                BSONObject selector = readDocument(buffer);
+                BSONObject update = readDocument(buffer);
+                InMemoryCollection.UpdateResult result = collection.update(selector, update, (flags & 1) != 0, (flags & 2) != 0);
+                connection.lastWrite(result.count, result.updatedExisting, result.upserted);
+                return false;
+            }
+            case OP_DELETE: {
+                buffer.getInt(); // ZERO
+                InMemoryCollection collection = getCollection(readCString(buffer));
+                int flags = buffer.getInt();
+                connection.lastWrite(collection.remove(readDocument(buffer), (flags & 1) != 0), false, null);
+                return false;
+            }
+            case OP_KILL_CURSORS:
+                return false;
+            default:
+                throw new IOException("Unsupported opCode " + opCode);
+        }
+    }
+
+    private BSONObject command(String database, BSONObject command, Connection connection) {
+        String name = command.keySet().iterator().next();
+        BasicBSONObject result = new BasicBSONObject();
+        switch (name.toLowerCase()) {
+            case "ismaster":
+                result.put("ismaster", true);
+                result.put("maxBsonObjectSize", 16 * 1024 * 1024);
+                result.put("maxMessageSizeBytes", 48000000);
+                result.put("localTime", new Date());
+                result.put("minWireVersion", 0);
+                result.put("maxWireVersion", 0);
+                break;
+            case "buildinfo":
+                BasicBSONList versionArray = new BasicBSONList();
+                // avant 2.6, le driver écrit avec OP_INSERT/OP_UPDATE suivis de getlasterror
+                versionArray.addAll(Arrays.asList(2, 4, 14, 0));
+                result.put("version", "2.4.14");
+                result.put("versionArray", versionArray);
+                break;
+            case "getlasterror":
+                result.putAll(connection.lastError);
+                break;
+            case "count": {
+                InMemoryCollection collection = getCollection(database + "." + command.get(name));
+                BSONObject query = (BSONObject) command.get("query");
+                int skip = intValue(command.get("skip"));
+                int limit = intValue(command.get("limit"));
+                int count = collection.find(query, null, skip, Math.abs(limit)).size();
+                result.put("n", (double) count);
+                break;
+            }
+            case "aggregate": {
+                InMemoryCollection collection = getCollection(database + "." + command.get(name));
+                BasicBSONList documents = new BasicBSONList();
+                documents.addAll(collection.aggregate((List<?>) command.get("pipeline")));
+                result.put("result", documents);
+                break;
+            }
+            case "drop":
+                getCollection(database + "." + command.get(name)).clear();
+                break;
+            case "dropdatabase":
+                collections.keySet().removeIf(namespace -> namespace.startsWith(database + "."));
+                break;
+            default:
+                // ping, createIndexes, serverStatus... : acceptées sans effet
+                break;
+        }
+        result.put("ok", 1.0);
+        return result;
+    }
+
+    private void reply(OutputStream out, int responseTo, int flags, List<BSONObject> documents) throws IOException {
+        BasicBSONEncoder encoder = new BasicBSONEncoder();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (BSONObject document : documents) {
+            body.write(encoder.encode(document));
+        }
+        ByteBuffer header = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(36 + body.size());
+        header.putInt(requestIds.incrementAndGet());
+        header.putInt(responseTo);
+        header.putInt(OP_REPLY);
+        header.putInt(flags);
+        header.putLong(0); // cursorID : tout est renvoyé dans cette réponse
+        header.putInt(0); // startingFrom
+        header.putInt(documents.size());
+        out.write(header.array());
+        body.writeTo(out);
+    }
+
+    private static String database(String namespace) {
+        return namespace.substring(0, namespace.indexOf('.'));
+    }
+
+    private static int intValue(Object value) {
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    private static String readCString(ByteBuffer buffer) {
+        int start = buffer.position();
+        while (buffer.get() != 0) {
+            // jusqu'au zéro terminal
+        }
+        return new String(buffer.array(), start, buffer.position() - start - 1, StandardCharsets.UTF_8);
+    }
+
+    private static BSONObject readDocument(ByteBuffer buffer) {
+        int length = buffer.getInt(buffer.position());
+        byte[] document = Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        return new BasicBSONDecoder().readObject(document);
+    }
+
+    /**
+     * État d'une connexion : résultat de la dernière écriture, lu par <code>getlasterror</code>.
+     */
+    private static final class Connection {
+
+        private BSONObject lastError = new BasicBSONObject("n", 0);
+
+        void lastWrite(int count, boolean updatedExisting, Object upserted) {
+            BasicBSONObject error = new BasicBSONObject("n", count);
+            error.put("err", null);
+            error.put("updatedExisting", updatedExisting);
+            if (upserted != null) {
+                error.put("upserted", upserted);
+            }
+            lastError = error;
+        }
+    }
+}
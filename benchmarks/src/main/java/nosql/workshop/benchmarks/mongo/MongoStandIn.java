@@ -0,0 +1,52 @@
+package nosql.workshop.benchmarks.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoClient;
+import nosql.workshop.batch.mongodb.CsvToMongoDb;
+import nosql.workshop.batch.mongodb.InstallationsImporter;
+import nosql.workshop.batch.mongodb.JoinImporter;
+import nosql.workshop.batch.mongodb.MongoBulkWriter;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Démarre un {@link InMemoryMongoServer} alimenté comme la vraie base : les fichiers CSV du batch sont importés
+ * par le {@link JoinImporter} au travers du driver, puis l'état d'import est enregistré comme le fait
+ * {@link CsvToMongoDb}. Si <code>equipements.csv</code> n'est pas fourni, seules les installations sont importées
+ * (sans équipements).
+ * <p>
+ * Le serveur n'a pas d'index (voir {@link InMemoryCollection}) : il remplace MongoDB pour exercer l'application,
+ * pas pour en mesurer les performances.
+ */
+public final class MongoStandIn {
+
+    public static final String DB_NAME = "nosql-workshop";
+
+    private MongoStandIn() {
+    }
+
+    /**
+     * @return un serveur contenant la collection <code>installations</code> complète, à fermer par l'appelant.
+     */
+    public static InMemoryMongoServer startWithInstallations() throws IOException {
+        InMemoryMongoServer server = InMemoryMongoServer.start();
+        MongoClient client = new MongoClient(server.getHost(), server.getPort());
+        try {
+            DB db = client.getDB(DB_NAME);
+            DBCollection installations = db.getCollection("installations");
+            if (MongoStandIn.class.getResource("/csv/equipements.csv") != null) {
+                new JoinImporter(installations).run();
+            } else {
+                new InstallationsImporter(installations, MongoBulkWriter.DEFAULT_BATCH_SIZE, MongoBulkWriter.DEFAULT_QUEUE_CAPACITY).run();
+            }
+            db.getCollection(CsvToMongoDb.IMPORT_STATE_COLLECTION)
+                    .save(new BasicDBObject("_id", CsvToMongoDb.IMPORT_STATE_ID).append("lastRun", new Date()));
+        } finally {
+            client.close();
+        }
+        return server;
+    }
+}
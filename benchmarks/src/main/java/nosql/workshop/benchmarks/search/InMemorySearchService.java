@@ -0,0 +1,174 @@
+package nosql.workshop.benchmarks.search;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import net.codestory.http.convert.TypeConvert;
+import nosql.workshop.batch.csv.CsvReader;
+import nosql.workshop.batch.elasticsearch.ImportTowns;
+import nosql.workshop.metrics.Metrics;
+import nosql.workshop.model.Installation;
+import nosql.workshop.model.SearchResults;
+import nosql.workshop.model.suggest.TownSuggest;
+import nosql.workshop.services.InstallationService;
+import nosql.workshop.services.RawSearchResults;
+import nosql.workshop.services.SearchProfile;
+import nosql.workshop.services.SearchService;
+import nosql.workshop.services.TownService;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.jongo.MongoCursor;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Remplace Elasticsearch par une recherche en mémoire, pour les tests de charge.
+ * <p>
+ * Les villes sont lues dans le fichier CSV du batch, comme le fait {@link ImportTowns}, et chargées au démarrage
+ * par {@link TownService}. La recherche plein texte retient, dans l'ordre des numéros, les installations dont
+ * le nom ou la commune contient chaque mot de la requête en début de mot, sans score ni syntaxe de requête ;
+ * le défilement (<code>scroll</code>) n'est pas pris en charge. Les durées sont mesurées sous les mêmes noms
+ * d'opération que le vrai service.
+ */
+@Singleton
+public class InMemorySearchService extends SearchService {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Metrics metrics;
+    private final List<TownSuggest> towns = new ArrayList<>();
+    private final List<String> townKeys = new ArrayList<>();
+    private final List<Installation> installations = new ArrayList<>();
+    private final List<String> installationKeys = new ArrayList<>();
+
+    @Inject
+    public InMemorySearchService(InstallationService installationService, Metrics metrics) throws IOException {
+        super(null, 5000, 100, "query_then_fetch", metrics);
+        this.metrics = metrics;
+        CsvReader.fromResource("/csv/towns_paysdeloire.csv").skipHeader().forEach(row -> {
+            String townName = row.getString(1);
+            towns.add(new TownSuggest(townName, Arrays.asList(ImportTowns.coordinates(row))));
+            townKeys.add(normalize(townName));
+        });
+        try (MongoCursor<Installation> all = installationService.streamAll()) {
+            for (Installation installation : all) {
+                String commune = installation.getAdresse() == null ? null : installation.getAdresse().getCommune();
+                installations.add(installation);
+                installationKeys.add(" " + normalize(installation.getNom() + " " + commune) + " ");
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<SearchResults> search(String searchQuery, SearchProfile profile) {
+        return find("es.search", searchQuery, profile,
+                (page, total) -> new SearchResults(page, total, null));
+    }
+
+    @Override
+    public CompletableFuture<RawSearchResults> searchRaw(String searchQuery, SearchProfile profile) {
+        return find("es.search", searchQuery, profile, (page, total) -> {
+            BytesReference[] sources = new BytesReference[page.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = new BytesArray(TypeConvert.toByteArray(page.get(i)));
+            }
+            return new RawSearchResults(sources, total, null);
+        });
+    }
+
+    @Override
+    public CompletableFuture<SearchResults> scroll(String scrollId, TimeValue scroll) {
+        return unsupportedScroll();
+    }
+
+    @Override
+    public CompletableFuture<RawSearchResults> scrollRaw(String scrollId, TimeValue scroll) {
+        return unsupportedScroll();
+    }
+
+    @Override
+    public CompletableFuture<List<TownSuggest>> suggestTownName(String townName) {
+        return metrics.timeAsync("es.suggestTownName", () -> {
+            String prefix = normalize(townName);
+            List<TownSuggest> suggestions = new ArrayList<>();
+            for (int i = 0; i < towns.size() && suggestions.size() < TownService.MAX_SUGGESTIONS; i++) {
+                if (townKeys.get(i).startsWith(prefix)) {
+                    suggestions.add(towns.get(i));
+                }
+            }
+            return CompletableFuture.completedFuture(suggestions);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Double[]> getTownLocation(String townName) {
+        return metrics.timeAsync("es.townLocation", () -> {
+            int index = townKeys.indexOf(normalize(townName));
+            return CompletableFuture.completedFuture(index < 0 ? null : towns.get(index).getLocation());
+        });
+    }
+
+    @Override
+    public List<TownSuggest> allTowns() {
+        return Collections.unmodifiableList(towns);
+    }
+
+    /**
+     * Les villes ne changent pas : {@link TownService} ne les recharge jamais.
+     */
+    @Override
+    public long townsIndexVersion() {
+        return 0;
+    }
+
+    private <T> CompletableFuture<T> find(String operation, String searchQuery, SearchProfile profile,
+                                          PageMapper<T> mapper) {
+        return metrics.timeAsync(operation, () -> {
+            String[] words = normalize(searchQuery == null ? "" : searchQuery).split(" ");
+            List<Installation> page = new ArrayList<>(profile.getSize());
+            long total = 0;
+            for (int i = 0; i < installations.size(); i++) {
+                if (containsAll(installationKeys.get(i), words)) {
+                    if (total >= profile.getFrom() && page.size() < profile.getSize()) {
+                        page.add(installations.get(i));
+                    }
+                    total++;
+                }
+            }
+            return CompletableFuture.completedFuture(mapper.map(page, total));
+        });
+    }
+
+    private static boolean containsAll(String key, String[] words) {
+        for (String word : words) {
+            if (!word.isEmpty() && !key.contains(" " + word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private <T> CompletableFuture<T> unsupportedScroll() {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException("Scroll is not supported by the in-memory search"));
+        return future;
+    }
+
+    private static String normalize(String text) {
+        String decomposed = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(decomposed.toLowerCase()).replaceAll(" ").trim();
+    }
+
+    @FunctionalInterface
+    private interface PageMapper<T> {
+        T map(List<Installation> page, long total);
+    }
+}